@@ -0,0 +1,186 @@
+package com.wire.bots.hold;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.wire.bots.hold.model.database.LHAccess;
+import com.wire.bots.hold.utils.AccessTokenCache;
+import com.wire.bots.hold.utils.DeviceRegistry;
+import com.wire.xenon.backend.models.QualifiedId;
+import com.wire.xenon.tools.Logger;
+import io.dropwizard.lifecycle.Managed;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.UUID;
+
+/**
+ * Follows the {@code access_changes} channel the {@code Access} table publishes confirmed, disabled and re-keyed
+ * devices on (see {@code V110__notify_access_changes.sql}).
+ * <p>
+ *     A newly enabled device is claimed right away if it is free and handed to the {@link Handler}, so it is picked
+ *     up within a tick instead of at the next lease refresh. A disabled device is dropped from the registry and the
+ *     handler on every replica. The periodic refresh stays in place as the safety net: changes published while the
+ *     listener was disconnected are picked up by a refresh forced on reconnect.
+ * </p>
+ * <p>
+ *     {@code LISTEN} needs a connection of its own that stays open, so it does not go through the pool.
+ * </p>
+ */
+public class AccessChangeListener implements Managed {
+    static final String CHANNEL = "access_changes";
+    private static final int POLL_TIMEOUT = 10_000;     // ms
+    private static final long RETRY_DELAY = 5_000;      // ms
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private final Config.Database database;
+    private final DeviceLeases leases;
+    private final DeviceRegistry registry;
+    private final AccessTokenCache tokens;
+    private final Handler handler;
+    private final Meter changes;
+    private final Meter reconnects;
+    private volatile boolean running;
+    private volatile Connection connection;
+    private Thread thread;
+
+    AccessChangeListener(Config.Database database,
+                         DeviceLeases leases,
+                         DeviceRegistry registry,
+                         AccessTokenCache tokens,
+                         Handler handler,
+                         MetricRegistry metrics) {
+        this.database = database;
+        this.leases = leases;
+        this.registry = registry;
+        this.tokens = tokens;
+        this.handler = handler;
+        this.changes = metrics.meter(MetricRegistry.name(AccessChangeListener.class, "changes"));
+        this.reconnects = metrics.meter(MetricRegistry.name(AccessChangeListener.class, "reconnects"));
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        thread = new Thread(this::listen, "access-changes");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void stop() throws InterruptedException {
+        running = false;
+        final Connection current = connection;
+        if (current != null) {
+            try {
+                current.close();
+            } catch (SQLException ignored) {
+            }
+        }
+        thread.interrupt();
+        thread.join(POLL_TIMEOUT);
+    }
+
+    private void listen() {
+        boolean reconnect = false;
+        while (running) {
+            try (Connection conn = DriverManager.getConnection(database.getUrl(), database.getUser(), database.getPassword())) {
+                connection = conn;
+                try (Statement statement = conn.createStatement()) {
+                    statement.execute("LISTEN " + CHANNEL);
+                }
+                Logger.info("AccessChangeListener: listening on %s", CHANNEL);
+
+                // Whatever changed while we were not listening
+                if (reconnect)
+                    handler.onResync();
+                reconnect = true;
+
+                final PGConnection pg = conn.unwrap(PGConnection.class);
+                while (running) {
+                    final PGNotification[] notifications = pg.getNotifications(POLL_TIMEOUT);
+                    if (notifications == null)
+                        continue;
+
+                    for (PGNotification notification : notifications) {
+                        onNotification(notification.getParameter());
+                    }
+                }
+            } catch (SQLException e) {
+                if (!running)
+                    break;
+                Logger.exception(e, "AccessChangeListener: %s", e.getMessage());
+                reconnects.mark();
+                try {
+                    Thread.sleep(RETRY_DELAY);
+                } catch (InterruptedException ie) {
+                    break;
+                }
+            } finally {
+                connection = null;
+            }
+        }
+    }
+
+    void onNotification(String payload) {
+        try {
+            final Change change = mapper.readValue(payload, Change.class);
+            final QualifiedId userId = new QualifiedId(change.userId, change.userDomain);
+            changes.mark();
+
+            if (change.enabled) {
+                final LHAccess device = leases.claim(userId);
+                if (device != null) {
+                    // Renewed tokens are published too, only a new cookie drops the cached token
+                    tokens.invalidateIfChanged(device);
+                    handler.onEnabled(device);
+                } else {
+                    // Leased to another replica, read it again if it is ever needed here
+                    registry.evict(userId);
+                    tokens.invalidate(userId);
+                }
+            } else {
+                registry.evict(userId);
+                tokens.invalidate(userId);
+                handler.onDisabled(userId);
+            }
+        } catch (Exception e) {
+            Logger.exception(e, "AccessChangeListener: payload: %s, error: %s", payload, e.getMessage());
+        }
+    }
+
+    /**
+     * Ingestion side of the device changes. Called on the listener thread.
+     */
+    interface Handler {
+        /**
+         * The device was confirmed or its credentials changed, and it is leased to this replica.
+         */
+        void onEnabled(LHAccess device);
+
+        void onDisabled(QualifiedId userId);
+
+        /**
+         * Changes may have been missed, reload the devices leased to this replica.
+         */
+        void onResync();
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    static class Change {
+        @JsonProperty
+        public UUID userId;
+
+        @JsonProperty
+        public String userDomain;
+
+        @JsonProperty
+        public boolean enabled;
+    }
+}
@@ -0,0 +1,169 @@
+package com.wire.bots.hold;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.wire.bots.hold.DAO.AssetJobsDAO;
+import com.wire.bots.hold.DAO.AssetsDAO;
+import com.wire.bots.hold.model.database.AssetJob;
+import com.wire.bots.hold.model.database.LHAccess;
+import com.wire.bots.hold.utils.AccessTokenCache;
+import com.wire.bots.hold.utils.AssetDownloader;
+import com.wire.bots.hold.utils.AssetStorage;
+import com.wire.bots.hold.utils.DeviceRegistry;
+import com.wire.xenon.backend.models.QualifiedId;
+import com.wire.xenon.exceptions.AuthException;
+import org.jdbi.v3.core.Jdbi;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+
+/**
+ * Downloads the assets queued by the ingestion in the {@code AssetJobs} table.
+ * <p>
+ *     Jobs are claimed as described in {@link JobWorker}, at most {@code workers} downloads run at a time on this
+ *     replica. A failed download is retried with an exponential backoff. After {@code maxAttempts} the job is marked
+ *     {@code FAILED} with its last error and stays in the table until it is retried through {@code /assets/jobs}.
+ * </p>
+ * <p>
+ *     The asset goes from the network to disk and from disk to the {@link AssetStorage} as a stream, see
+ *     {@link AssetDownloader}. The {@code Assets} row only gets the key of the stored content.
+ * </p>
+ */
+public class AssetWorker extends JobWorker<AssetJob> {
+    private final AssetJobsDAO jobsDAO;
+    private final AssetsDAO assetsDAO;
+    private final DeviceRegistry registry;
+    private final AccessTokenCache tokens;
+    private final AssetDownloader downloader;
+    private final AssetStorage storage;
+    private final long retryDelay;
+    private final long maxRetryDelay;
+    private final long timeout;
+    private final MetricRegistry metrics;
+    private final Timer downloadTimer;
+    private final Meter retried;
+    private final Meter failed;
+    private volatile int pending;
+    private volatile int failedJobs;
+
+    /**
+     * @param workers pool of at least {@code config.workers} threads the downloads run on
+     */
+    AssetWorker(Jdbi jdbi,
+                DeviceRegistry registry,
+                AccessTokenCache tokens,
+                AssetDownloader downloader,
+                AssetStorage storage,
+                Executor workers,
+                Config.Assets config,
+                MetricRegistry metrics) {
+        super("AssetWorker", workers, config.workers, config.maxAttempts);
+        this.jobsDAO = jdbi.onDemand(AssetJobsDAO.class);
+        this.assetsDAO = jdbi.onDemand(AssetsDAO.class);
+        this.registry = registry;
+        this.tokens = tokens;
+        this.downloader = downloader;
+        this.storage = storage;
+        this.retryDelay = config.retryDelay.toSeconds();
+        this.maxRetryDelay = config.maxRetryDelay.toSeconds();
+        this.timeout = config.timeout.toSeconds();
+        this.metrics = metrics;
+        this.downloadTimer = metrics.timer(MetricRegistry.name(AssetWorker.class, "downloads"));
+        this.retried = metrics.meter(MetricRegistry.name(AssetWorker.class, "retried"));
+        this.failed = metrics.meter(MetricRegistry.name(AssetWorker.class, "failed"));
+
+        metrics.gauge(MetricRegistry.name(AssetWorker.class, "inflight"), () -> (Gauge<Integer>) this::inFlight);
+        metrics.gauge(MetricRegistry.name(AssetWorker.class, "pending"), () -> (Gauge<Integer>) () -> pending);
+        metrics.gauge(MetricRegistry.name(AssetWorker.class, "failed", "jobs"), () -> (Gauge<Integer>) () -> failedJobs);
+    }
+
+    @Override
+    void refresh() {
+        final List<UUID> running = running();
+        if (!running.isEmpty())
+            jobsDAO.touch(running, timeout);
+
+        pending = jobsDAO.count(AssetJob.PENDING);
+        failedJobs = jobsDAO.count(AssetJob.FAILED);
+    }
+
+    @Override
+    List<AssetJob> claim(int limit) {
+        return jobsDAO.claim(timeout, limit);
+    }
+
+    @Override
+    void process(AssetJob job) throws Exception {
+        final QualifiedId userId = new QualifiedId(job.userId, job.userDomain);
+        try {
+            final LHAccess device = registry.get(userId);
+            if (device == null) {
+                fail(job, "Legal hold device is not enabled");
+                return;
+            }
+
+            final File file;
+            try (Timer.Context ignored = downloadTimer.time()) {
+                file = downloader.download(job, tokens.getToken(device));
+            }
+
+            final String blobKey;
+            try (InputStream data = new FileInputStream(file)) {
+                blobKey = storage.put(data);
+            } finally {
+                Files.deleteIfExists(file.toPath());
+            }
+
+            assetsDAO.insertBlobKey(job.messageId, blobKey);
+            jobsDAO.delete(job.messageId);
+        } catch (Exception e) {
+            metrics.meter(MetricRegistry.name(AssetWorker.class, "failures", e.getClass().getSimpleName())).mark();
+            if (e instanceof AuthException)
+                tokens.invalidate(userId);
+            throw e;
+        }
+    }
+
+    @Override
+    void retry(AssetJob job, String error) {
+        jobsDAO.retryLater(job.messageId, backoff(job.attempts), error);
+        retried.mark();
+    }
+
+    @Override
+    void fail(AssetJob job, String error) {
+        jobsDAO.fail(job.messageId, error);
+        failed.mark();
+    }
+
+    @Override
+    UUID id(AssetJob job) {
+        return job.messageId;
+    }
+
+    @Override
+    int attempts(AssetJob job) {
+        return job.attempts;
+    }
+
+    @Override
+    String lastError(AssetJob job) {
+        return job.lastError;
+    }
+
+    /**
+     * @param attempts attempts made so far, at least 1
+     * @return seconds to wait before the next attempt
+     */
+    long backoff(int attempts) {
+        final int doublings = Math.min(attempts - 1, 30);
+        return Math.min(retryDelay << doublings, maxRetryDelay);
+    }
+}
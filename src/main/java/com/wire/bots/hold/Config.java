@@ -22,10 +22,13 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 import io.dropwizard.Configuration;
 import io.dropwizard.client.JerseyClientConfiguration;
 import io.dropwizard.db.DataSourceFactory;
+import io.dropwizard.util.DataSize;
 import io.dropwizard.util.Duration;
 import io.federecio.dropwizard.swagger.SwaggerBundleConfiguration;
 
 import javax.validation.Valid;
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
 
 public class Config extends Configuration {
@@ -36,6 +39,22 @@ public class Config extends Configuration {
     @Valid
     public Database database = new Database();
 
+    @JsonProperty
+    @Valid
+    public Notifications notifications = new Notifications();
+
+    @JsonProperty
+    @Valid
+    public Assets assets = new Assets();
+
+    @JsonProperty
+    @Valid
+    public Exports exports = new Exports();
+
+    @JsonProperty
+    @Min(1)
+    public int cryptoThreads = 4;   // Cryptoboxes set up or purged in parallel by the batch endpoints
+
     @JsonProperty
     @NotNull
     public String token;   // Service token. Obtained when the Service is registered with Wire
@@ -61,6 +80,87 @@ public class Config extends Configuration {
         public boolean baseline;
     }
 
+    public enum IngestionMode {
+        POLLING,    // GET /notifications per device, between `minInterval` and `maxInterval` depending on activity
+        WEBSOCKET   // one websocket per legal hold client, gaps filled from GET /notifications on (re)connect
+    }
+
+    public static class Notifications {
+        @JsonProperty
+        @NotNull
+        public IngestionMode mode = IngestionMode.POLLING;
+
+        @JsonProperty
+        public String websocketUrl;     // Defaults to the `apiHost` with a ws(s) scheme and `/await` path
+
+        @JsonProperty
+        @Min(1)
+        public int workers = 8;         // Number of devices polled concurrently
+
+        @JsonProperty
+        @Min(1)
+        public int queueSize = 10_000;  // Devices waiting for a free worker before they are deferred to the next cycle
+
+        @JsonProperty
+        @NotNull
+        public Duration tokenRenewMargin = Duration.minutes(2);   // Renew access tokens this long before they expire, at most half their lifetime
+
+        @JsonProperty
+        @NotNull
+        public Duration tokenRenewJitter = Duration.minutes(1);   // Random spread added to the renew margin
+
+        @JsonProperty
+        @NotNull
+        public Duration minInterval = Duration.seconds(5);   // Poll interval of a device that just had notifications
+
+        @JsonProperty
+        @NotNull
+        public Duration maxInterval = Duration.minutes(5);   // The interval doubles on every empty poll up to this
+
+        @JsonProperty
+        @NotNull
+        public Duration leaseTime = Duration.minutes(3);   // Device leases between replicas, keep well above `sleep`
+
+        @JsonProperty
+        public boolean listenChanges = true;   // Pick up device changes right away with LISTEN, needs a session-pooled connection
+
+        @JsonProperty
+        @Min(1)
+        public int cryptoCacheSize = 1000;  // Cryptoboxes kept open between messages
+
+        @JsonProperty
+        @NotNull
+        public Duration cryptoIdleTime = Duration.minutes(10);   // Cryptoboxes not used for this long are closed
+
+        @JsonProperty
+        @Min(2)
+        public int seenEvents = 65_536;   // Ids of stored events remembered to skip the copies of other legal hold users, 20 bytes each
+
+        @JsonProperty
+        @Min(100)
+        public int minPageSize = 100;   // Notifications fetched per page for a device that is caught up
+
+        @JsonProperty
+        @Max(10_000)
+        public int maxPageSize = 1000;  // Upper bound the page grows to while a device is lagging behind
+
+        @JsonProperty
+        @Min(1)
+        public int drainEvents = 10_000;   // Max notifications processed for a single device per cycle
+
+        @JsonProperty
+        @NotNull
+        public Duration drainTime = Duration.seconds(30);   // Max time spent on a single device per cycle
+
+        @JsonProperty
+        @Min(1)
+        public int persistLanes = 4;    // Writer threads committing decrypted pages, devices are pinned to one lane
+
+        @JsonProperty
+        @Min(1)
+        public int persistQueueSize = 16;   // Decrypted pages per lane waiting to be committed before fetching blocks
+    }
+
     public static class _JerseyClientConfiguration extends JerseyClientConfiguration {
         public _JerseyClientConfiguration() {
             setChunkedEncodingEnabled(false);
@@ -74,4 +174,80 @@ public class Config extends Configuration {
             setResourcePackage("com.wire.lithium.server.resources");
         }
     }
+
+    public static class Assets {
+        @JsonProperty
+        @Min(1)
+        public int workers = 4;     // Assets downloaded concurrently by this replica
+
+        @JsonProperty
+        @NotNull
+        public Duration pollInterval = Duration.seconds(5);   // How often due jobs are claimed
+
+        @JsonProperty
+        @Min(1)
+        public int maxAttempts = 10;    // Then the job is kept as FAILED until it is retried
+
+        @JsonProperty
+        @NotNull
+        public Duration retryDelay = Duration.seconds(30);    // Doubles after every failed attempt
+
+        @JsonProperty
+        @NotNull
+        public Duration maxRetryDelay = Duration.hours(1);
+
+        @JsonProperty
+        @NotNull
+        public Duration timeout = Duration.minutes(10);   // A claimed job not reported back by then is claimed again
+
+        @JsonProperty
+        @NotNull
+        public String storagePath = "blobs";   // Root of the content-addressed asset files, shared by all replicas
+    }
+
+    public static class Exports {
+        @JsonProperty
+        @Min(1)
+        public int renderThreads = 2;   // Conversations rendered to pdf at once
+
+        @JsonProperty
+        @Min(0)
+        public int renderQueue = 8;     // Exports waiting for a free renderer, any more are answered with 503
+
+        @JsonProperty
+        @NotNull
+        public Duration renderWait = Duration.minutes(1);   // Longest wait for a free renderer, then 503
+
+        @JsonProperty
+        @NotNull
+        public String cachePath = "exports";    // Rendered pdfs served again until their conversation changes
+
+        @JsonProperty
+        @NotNull
+        public DataSize cacheSize = DataSize.gibibytes(1);  // Least recently served pdfs are dropped beyond this, 0 turns the cache off
+
+        @JsonProperty
+        @Min(1)
+        public int jobWorkers = 1;      // Export jobs run at once by this replica, they take renderers like any export
+
+        @JsonProperty
+        @NotNull
+        public Duration jobPollInterval = Duration.seconds(5);    // How often queued jobs are claimed
+
+        @JsonProperty
+        @NotNull
+        public Duration jobTimeout = Duration.minutes(5);   // A running job not reported for this long is claimed again
+
+        @JsonProperty
+        @Min(1)
+        public int jobAttempts = 3;     // Then the job is kept as FAILED
+
+        @JsonProperty
+        @NotNull
+        public Duration jobRetention = Duration.days(7);    // Finished jobs and their pdfs are deleted after this
+
+        @JsonProperty
+        @NotNull
+        public String jobStoragePath = "export-jobs";   // Pdfs of the finished jobs, shared by all replicas
+    }
 }
@@ -1,6 +1,7 @@
 package com.wire.bots.hold;
 
 public class Const {
+    public static final String CONVERSATION_OTR_MESSAGE_ADD = "conversation.otr-message-add";
     public static final String CONVERSATION_OTR_MESSAGE_ADD_DELETE_TEXT = "conversation.otr-message-add.delete-text";
     public static final String CONVERSATION_OTR_MESSAGE_ADD_NEW_TEXT = "conversation.otr-message-add.new-text";
     public static final String CONVERSATION_OTR_MESSAGE_ADD_EDIT_TEXT = "conversation.otr-message-add.edit-text";
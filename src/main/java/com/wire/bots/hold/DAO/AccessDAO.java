@@ -3,6 +3,8 @@ package com.wire.bots.hold.DAO;
 import com.wire.bots.hold.model.database.LHAccess;
 import org.jdbi.v3.sqlobject.config.RegisterColumnMapper;
 import org.jdbi.v3.sqlobject.customizer.Bind;
+import org.jdbi.v3.sqlobject.customizer.BindFields;
+import org.jdbi.v3.sqlobject.statement.SqlBatch;
 import org.jdbi.v3.sqlobject.statement.SqlQuery;
 import org.jdbi.v3.sqlobject.statement.SqlUpdate;
 
@@ -24,6 +26,17 @@ public interface AccessDAO {
     int disable(@Bind("userId") UUID userId,
         @Bind("userDomain") String userDomain);
 
+    @SqlBatch("INSERT INTO Access (userId, userDomain, clientId, cookie, updated, created, enabled) " +
+            "VALUES (:userId, :userDomain, :clientId, :cookie, CURRENT_TIMESTAMP, CURRENT_TIMESTAMP, 1) " +
+            "ON CONFLICT (userId, userDomain) DO UPDATE SET cookie = EXCLUDED.cookie, clientId = EXCLUDED.clientId, " +
+            "updated = EXCLUDED.updated, enabled = EXCLUDED.enabled")
+    int[] insert(@BindFields Iterable<NewDevice> devices);
+
+    @SqlBatch("UPDATE Access SET enabled = 0, updated = CURRENT_TIMESTAMP WHERE userId = :userId " +
+        "AND (( :userDomain IS NULL AND userDomain IS null ) or ( :userDomain IS NOT NULL AND userDomain = :userDomain ))")
+    int[] disable(@Bind("userId") List<UUID> userIds,
+        @Bind("userDomain") List<String> userDomains);
+
     @SqlUpdate("UPDATE Access SET token = :token, cookie = :cookie, updated = CURRENT_TIMESTAMP WHERE userId = :userId " +
         "AND (( :userDomain IS NULL AND userDomain IS null ) OR ( :userDomain IS NOT NULL AND userDomain = :userDomain ))")
     int update(@Bind("userId") UUID userId,
@@ -37,6 +50,50 @@ public interface AccessDAO {
         @Bind("userDomain") String userDomain,
         @Bind("last") UUID last);
 
+    /**
+     * Moves the checkpoint only while {@code owner} holds the lease and the device is still enabled, a removed device
+     * must not get its purged sessions written back.
+     */
+    @SqlUpdate("UPDATE Access SET last = :last, updated = CURRENT_TIMESTAMP WHERE userId = :userId AND (( :userDomain IS NULL AND userDomain IS null ) " +
+        "OR ( :userDomain IS NOT NULL AND userDomain = :userDomain )) AND leaseOwner = :owner AND enabled = 1")
+    int updateLast(@Bind("userId") UUID userId,
+        @Bind("userDomain") String userDomain,
+        @Bind("last") UUID last,
+        @Bind("owner") String owner);
+
+    @SqlQuery("UPDATE Access a SET leaseExpires = CURRENT_TIMESTAMP + :ttl * INTERVAL '1 second' " +
+        "FROM (SELECT userId, userDomain FROM Access WHERE enabled = 1 AND leaseOwner = :owner " +
+        "ORDER BY created DESC LIMIT :limit FOR UPDATE SKIP LOCKED) l " +
+        "WHERE a.userId = l.userId AND a.userDomain IS NOT DISTINCT FROM l.userDomain RETURNING a.*")
+    @RegisterColumnMapper(AccessResultSetMapper.class)
+    List<LHAccess> renewLeases(@Bind("owner") String owner,
+                               @Bind("ttl") long ttl,
+                               @Bind("limit") int limit);
+
+    @SqlQuery("UPDATE Access a SET leaseOwner = :owner, leaseExpires = CURRENT_TIMESTAMP + :ttl * INTERVAL '1 second' " +
+        "FROM (SELECT userId, userDomain FROM Access WHERE enabled = 1 AND (leaseOwner IS NULL OR leaseExpires < CURRENT_TIMESTAMP) " +
+        "ORDER BY created DESC LIMIT :limit FOR UPDATE SKIP LOCKED) l " +
+        "WHERE a.userId = l.userId AND a.userDomain IS NOT DISTINCT FROM l.userDomain RETURNING a.*")
+    @RegisterColumnMapper(AccessResultSetMapper.class)
+    List<LHAccess> claimLeases(@Bind("owner") String owner,
+                               @Bind("ttl") long ttl,
+                               @Bind("limit") int limit);
+
+    @SqlQuery("UPDATE Access SET leaseOwner = :owner, leaseExpires = CURRENT_TIMESTAMP + :ttl * INTERVAL '1 second' " +
+        "WHERE userId = :userId AND userDomain IS NOT DISTINCT FROM :userDomain AND enabled = 1 " +
+        "AND (leaseOwner = :owner OR leaseOwner IS NULL OR leaseExpires < CURRENT_TIMESTAMP) RETURNING *")
+    @RegisterColumnMapper(AccessResultSetMapper.class)
+    LHAccess claimLease(@Bind("userId") UUID userId,
+                        @Bind("userDomain") String userDomain,
+                        @Bind("owner") String owner,
+                        @Bind("ttl") long ttl);
+
+    @SqlUpdate("UPDATE Access SET leaseOwner = null, leaseExpires = null WHERE leaseOwner = :owner")
+    int releaseLeases(@Bind("owner") String owner);
+
+    @SqlQuery("SELECT COUNT(*) FROM Access WHERE enabled = 1")
+    int countEnabled();
+
     @SqlQuery("SELECT * FROM Access WHERE token IS NOT NULL AND enabled = 1 ORDER BY created DESC LIMIT 1")
     @RegisterColumnMapper(AccessResultSetMapper.class)
     LHAccess getSingle();
@@ -63,4 +120,11 @@ public interface AccessDAO {
     @RegisterColumnMapper(AccessResultSetMapper.class)
     List<LHAccess> list(@Bind("count") int count,
                         @Bind("created") String created);
+
+    class NewDevice {
+        public UUID userId;
+        public String userDomain;
+        public String clientId;
+        public String cookie;
+    }
 }
@@ -0,0 +1,107 @@
+package com.wire.bots.hold.DAO;
+
+import com.wire.bots.hold.model.database.AssetJob;
+import org.jdbi.v3.core.mapper.ColumnMapper;
+import org.jdbi.v3.core.statement.StatementContext;
+import org.jdbi.v3.sqlobject.config.RegisterColumnMapper;
+import org.jdbi.v3.sqlobject.customizer.Bind;
+import org.jdbi.v3.sqlobject.customizer.BindFields;
+import org.jdbi.v3.sqlobject.customizer.BindList;
+import org.jdbi.v3.sqlobject.statement.SqlBatch;
+import org.jdbi.v3.sqlobject.statement.SqlQuery;
+import org.jdbi.v3.sqlobject.statement.SqlUpdate;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+public interface AssetJobsDAO {
+    @SqlUpdate("INSERT INTO AssetJobs (messageId, userId, userDomain, assetId, assetDomain, assetToken, otrKey, sha256, " +
+            "status, attempts, nextAttempt, created, updated) " +
+            "VALUES (:messageId, :userId, :userDomain, :assetId, :assetDomain, :assetToken, :otrKey, :sha256, " +
+            "'PENDING', 0, CURRENT_TIMESTAMP, CURRENT_TIMESTAMP, CURRENT_TIMESTAMP) " +
+            "ON CONFLICT (messageId) DO NOTHING")
+    int insert(@BindFields AssetJob job);
+
+    @SqlBatch("INSERT INTO AssetJobs (messageId, userId, userDomain, assetId, assetDomain, assetToken, otrKey, sha256, " +
+            "status, attempts, nextAttempt, created, updated) " +
+            "VALUES (:messageId, :userId, :userDomain, :assetId, :assetDomain, :assetToken, :otrKey, :sha256, " +
+            "'PENDING', 0, CURRENT_TIMESTAMP, CURRENT_TIMESTAMP, CURRENT_TIMESTAMP) " +
+            "ON CONFLICT (messageId) DO NOTHING")
+    int[] insert(@BindFields Iterable<AssetJob> jobs);
+
+    /**
+     * Claims due jobs, including running ones whose worker did not report back in time. A claimed job is running
+     * until {@code nextAttempt}, so two workers never download the same asset at the same time.
+     */
+    @SqlQuery("UPDATE AssetJobs j SET status = 'RUNNING', attempts = j.attempts + 1, " +
+            "nextAttempt = CURRENT_TIMESTAMP + :timeout * INTERVAL '1 second', updated = CURRENT_TIMESTAMP " +
+            "FROM (SELECT messageId FROM AssetJobs WHERE status <> 'FAILED' AND nextAttempt <= CURRENT_TIMESTAMP " +
+            "ORDER BY nextAttempt LIMIT :limit FOR UPDATE SKIP LOCKED) c " +
+            "WHERE j.messageId = c.messageId RETURNING j.*")
+    @RegisterColumnMapper(_Mapper.class)
+    List<AssetJob> claim(@Bind("timeout") long timeout,
+                         @Bind("limit") int limit);
+
+    /**
+     * Keeps these running jobs claimed for another {@code timeout}, the download is still going on.
+     */
+    @SqlUpdate("UPDATE AssetJobs SET nextAttempt = CURRENT_TIMESTAMP + :timeout * INTERVAL '1 second', " +
+            "updated = CURRENT_TIMESTAMP WHERE messageId IN (<messageIds>) AND status = 'RUNNING'")
+    int touch(@BindList("messageIds") Collection<UUID> messageIds,
+              @Bind("timeout") long timeout);
+
+    @SqlUpdate("DELETE FROM AssetJobs WHERE messageId = :messageId")
+    int delete(@Bind("messageId") UUID messageId);
+
+    @SqlUpdate("UPDATE AssetJobs SET status = 'PENDING', nextAttempt = CURRENT_TIMESTAMP + :delay * INTERVAL '1 second', " +
+            "lastError = :error, updated = CURRENT_TIMESTAMP WHERE messageId = :messageId")
+    int retryLater(@Bind("messageId") UUID messageId,
+                   @Bind("delay") long delay,
+                   @Bind("error") String error);
+
+    @SqlUpdate("UPDATE AssetJobs SET status = 'FAILED', lastError = :error, updated = CURRENT_TIMESTAMP " +
+            "WHERE messageId = :messageId")
+    int fail(@Bind("messageId") UUID messageId,
+             @Bind("error") String error);
+
+    @SqlUpdate("UPDATE AssetJobs SET status = 'PENDING', attempts = 0, nextAttempt = CURRENT_TIMESTAMP, " +
+            "updated = CURRENT_TIMESTAMP WHERE status = 'FAILED'")
+    int retryFailed();
+
+    @SqlQuery("SELECT * FROM AssetJobs WHERE status = 'FAILED' ORDER BY updated DESC LIMIT :limit")
+    @RegisterColumnMapper(_Mapper.class)
+    List<AssetJob> listFailed(@Bind("limit") int limit);
+
+    /**
+     * @return true while the asset is waiting for a download or being downloaded, false once it is stored or FAILED
+     */
+    @SqlQuery("SELECT EXISTS (SELECT 1 FROM AssetJobs WHERE messageId = :messageId AND status <> 'FAILED')")
+    boolean isQueued(@Bind("messageId") UUID messageId);
+
+    @SqlQuery("SELECT COUNT(*) FROM AssetJobs WHERE status = :status")
+    int count(@Bind("status") String status);
+
+    class _Mapper implements ColumnMapper<AssetJob> {
+        @Override
+        public AssetJob map(ResultSet rs, int columnNumber, StatementContext ctx) throws SQLException {
+            AssetJob job = new AssetJob();
+            job.messageId = (UUID) rs.getObject("messageId");
+            job.userId = (UUID) rs.getObject("userId");
+            job.userDomain = rs.getString("userDomain");
+            job.assetId = rs.getString("assetId");
+            job.assetDomain = rs.getString("assetDomain");
+            job.assetToken = rs.getString("assetToken");
+            job.otrKey = rs.getBytes("otrKey");
+            job.sha256 = rs.getBytes("sha256");
+            job.status = rs.getString("status");
+            job.attempts = rs.getInt("attempts");
+            job.lastError = rs.getString("lastError");
+            job.updated = rs.getString("updated");
+
+            return job;
+        }
+    }
+}
@@ -4,13 +4,19 @@ import org.jdbi.v3.core.mapper.ColumnMapper;
 import org.jdbi.v3.core.statement.StatementContext;
 import org.jdbi.v3.sqlobject.config.RegisterColumnMapper;
 import org.jdbi.v3.sqlobject.customizer.Bind;
+import org.jdbi.v3.sqlobject.customizer.BindFields;
+import org.jdbi.v3.sqlobject.statement.SqlBatch;
 import org.jdbi.v3.sqlobject.statement.SqlQuery;
 import org.jdbi.v3.sqlobject.statement.SqlUpdate;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.List;
 import java.util.UUID;
 
+/**
+ * Metadata of the assets. The content is in the {@link com.wire.bots.hold.utils.AssetStorage} under {@code blobKey}.
+ */
 public interface AssetsDAO {
     @SqlUpdate("INSERT INTO Assets (messageId, mimetype) " +
             "VALUES (:messageId, :mimetype) " +
@@ -18,23 +24,37 @@ public interface AssetsDAO {
     int insert(@Bind("messageId") UUID messageId,
                @Bind("mimetype") String mimetype);
 
-    @SqlUpdate("INSERT INTO Assets (messageId, data) " +
-            "VALUES (:messageId, :data) " +
-            "ON CONFLICT (messageId) DO UPDATE SET data = EXCLUDED.data")
-    int insert(@Bind("messageId") UUID messageId,
-               @Bind("data") byte[] data);
+    @SqlBatch("INSERT INTO Assets (messageId, mimetype) " +
+            "VALUES (:messageId, :mimeType) " +
+            "ON CONFLICT (messageId) DO UPDATE SET mimetype = EXCLUDED.mimetype")
+    int[] insertMimeTypes(@BindFields Iterable<Asset> assets);
+
+    @SqlUpdate("INSERT INTO Assets (messageId, blobKey) " +
+            "VALUES (:messageId, :blobKey) " +
+            "ON CONFLICT (messageId) DO UPDATE SET blobKey = EXCLUDED.blobKey, data = null")
+    int insertBlobKey(@Bind("messageId") UUID messageId,
+                      @Bind("blobKey") String blobKey);
 
-    @SqlQuery("SELECT messageId, mimetype, data FROM Assets WHERE messageId = :messageId")
+    @SqlQuery("SELECT messageId, mimetype, blobKey FROM Assets WHERE messageId = :messageId")
     @RegisterColumnMapper(_Mapper.class)
     Asset get(@Bind("messageId") UUID messageId);
 
+    /**
+     * Assets stored in the table before the asset storage, see {@code MoveAssetsCommand}.
+     */
+    @SqlQuery("SELECT messageId FROM Assets WHERE data IS NOT null AND blobKey IS null LIMIT :limit")
+    List<UUID> listLegacy(@Bind("limit") int limit);
+
+    @SqlQuery("SELECT data FROM Assets WHERE messageId = :messageId AND blobKey IS null")
+    byte[] getLegacyData(@Bind("messageId") UUID messageId);
+
     class _Mapper implements ColumnMapper<Asset> {
         @Override
         public Asset map(ResultSet rs, int columnNumber, StatementContext ctx) throws SQLException {
             Asset asset = new Asset();
             asset.messageId = (UUID) rs.getObject("messageId");
             asset.mimeType = rs.getString("mimetype");
-            asset.data = rs.getBytes("data");
+            asset.blobKey = rs.getString("blobKey");
 
             return asset;
         }
@@ -43,6 +63,6 @@ public interface AssetsDAO {
     public class Asset {
         public UUID messageId;
         public String mimeType;
-        public byte[] data;
+        public String blobKey;
     }
 }
@@ -5,6 +5,8 @@ import org.jdbi.v3.core.mapper.ColumnMapper;
 import org.jdbi.v3.core.statement.StatementContext;
 import org.jdbi.v3.sqlobject.config.RegisterColumnMapper;
 import org.jdbi.v3.sqlobject.customizer.Bind;
+import org.jdbi.v3.sqlobject.customizer.BindFields;
+import org.jdbi.v3.sqlobject.statement.SqlBatch;
 import org.jdbi.v3.sqlobject.statement.SqlQuery;
 import org.jdbi.v3.sqlobject.statement.SqlUpdate;
 
@@ -14,6 +16,8 @@ import java.util.List;
 import java.util.UUID;
 
 public interface EventsDAO {
+    int FETCH_SIZE = 500;   // Events held at once while reading a conversation
+
     @SqlUpdate("INSERT INTO Events (eventId, conversationId, conversationDomain, userId, userDomain, type, payload, time) " +
             "VALUES (:eventId, :conversationId, :conversationDomain, :userId, :userDomain, :type, to_jsonb(:payload)::json, CURRENT_TIMESTAMP) " +
             "ON CONFLICT (eventId) DO NOTHING")
@@ -25,6 +29,11 @@ public interface EventsDAO {
                @Bind("type") String type,
                @Bind("payload") String payload);
 
+    @SqlBatch("INSERT INTO Events (eventId, conversationId, conversationDomain, userId, userDomain, type, payload, time) " +
+            "VALUES (:eventId, :conversationId, :conversationDomain, :userId, :userDomain, :type, to_jsonb(:payload)::json, CURRENT_TIMESTAMP) " +
+            "ON CONFLICT (eventId) DO NOTHING")
+    int[] insert(@BindFields Iterable<Event> events);
+
     @SqlQuery("SELECT * FROM Events WHERE eventId = :eventId")
     @RegisterColumnMapper(EventsResultSetMapper.class)
     Event get(@Bind("eventId") UUID eventId);
@@ -39,9 +48,23 @@ public interface EventsDAO {
     List<Event> listAll(@Bind("conversationId") UUID conversationId,
         @Bind("conversationDomain") String conversationDomain);
 
-    @SqlQuery("SELECT * FROM Events WHERE conversationId = :conversationId AND (conversationDomain IS NULL OR conversationDomain = :conversationDomain) ORDER BY time ASC")
+    /**
+     * Oldest first, up to {@code limit} events after the event at {@code time} with {@code eventId}, the last one of
+     * the previous page. Pass null for both to read the first page.
+     */
+    @SqlQuery("SELECT * FROM Events WHERE conversationId = :conversationId AND (conversationDomain IS NULL OR conversationDomain = :conversationDomain) " +
+            "AND (CAST(:time AS TIMESTAMP) IS NULL OR (time, eventId) > (CAST(:time AS TIMESTAMP), CAST(:eventId AS UUID))) " +
+            "ORDER BY time ASC, eventId ASC " +
+            "LIMIT :limit")
     @RegisterColumnMapper(EventsResultSetMapper.class)
-    List<Event> listAllDefaultDomainAsc(@Bind("conversationId") UUID conversationId,
+    List<Event> listPageDefaultDomainAsc(@Bind("conversationId") UUID conversationId,
+        @Bind("conversationDomain") String conversationDomain,
+        @Bind("time") String time,
+        @Bind("eventId") UUID eventId,
+        @Bind("limit") int limit);
+
+    @SqlQuery("SELECT COUNT(*) FROM Events WHERE conversationId = :conversationId AND (conversationDomain IS NULL OR conversationDomain = :conversationDomain)")
+    int countDefaultDomain(@Bind("conversationId") UUID conversationId,
         @Bind("conversationDomain") String conversationDomain);
 
     @SqlQuery("SELECT * FROM Events WHERE conversationId = :conversationId AND conversationDomain = :conversationDomain ORDER BY time ASC")
@@ -49,6 +72,14 @@ public interface EventsDAO {
     List<Event> listAllAsc(@Bind("conversationId") UUID conversationId,
         @Bind("conversationDomain") String conversationDomain);
 
+    /**
+     * @return changes whenever an event of the conversation is added or removed
+     */
+    @SqlQuery("SELECT COUNT(*) || '-' || COALESCE((EXTRACT(EPOCH FROM MAX(time)) * 1000000)::BIGINT, 0) " +
+            "FROM Events WHERE conversationId = :conversationId AND (conversationDomain IS NULL OR conversationDomain = :conversationDomain)")
+    String getHighWaterMark(@Bind("conversationId") UUID conversationId,
+                            @Bind("conversationDomain") String conversationDomain);
+
     @SqlQuery("SELECT DISTINCT conversationId, MAX(time) AS time " +
             "FROM Events " +
             "GROUP BY conversationId " +
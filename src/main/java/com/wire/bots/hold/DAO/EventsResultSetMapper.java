@@ -1,8 +1,7 @@
 package com.wire.bots.hold.DAO;
 
 import com.fasterxml.jackson.core.JsonParser;
-import com.fasterxml.jackson.core.TreeNode;
-import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.wire.bots.hold.model.database.Event;
 import com.wire.xenon.tools.Logger;
@@ -40,12 +39,18 @@ public class EventsResultSetMapper implements ColumnMapper<Event> {
         return uuid;
     }
 
+    /**
+     * The column holds the payload as a json string. Only that string token is read, the payload itself is left for
+     * the caller to parse once into the type it needs.
+     */
     private String getPayload(ResultSet rs) throws SQLException {
-        try {
-            JsonParser jsonParser = mapper.getFactory().createParser(rs.getString("payload"));
-            final TreeNode treeNode = jsonParser.readValueAsTree();
-            JsonNode node = (JsonNode) treeNode;
-            return node.asText();
+        final String json = rs.getString("payload");
+        if (json == null)
+            return null;
+
+        try (JsonParser jsonParser = mapper.getFactory().createParser(json)) {
+            final JsonToken token = jsonParser.nextToken();
+            return token != null && token.isScalarValue() ? jsonParser.getText() : "";
         } catch (IOException e) {
             Logger.exception(e, "EventsResultSetMapper");
             return null;
@@ -0,0 +1,109 @@
+package com.wire.bots.hold.DAO;
+
+import com.wire.bots.hold.model.database.ExportJob;
+import org.jdbi.v3.core.mapper.ColumnMapper;
+import org.jdbi.v3.core.statement.StatementContext;
+import org.jdbi.v3.sqlobject.config.RegisterColumnMapper;
+import org.jdbi.v3.sqlobject.customizer.Bind;
+import org.jdbi.v3.sqlobject.customizer.BindList;
+import org.jdbi.v3.sqlobject.statement.SqlQuery;
+import org.jdbi.v3.sqlobject.statement.SqlUpdate;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+public interface ExportJobsDAO {
+    @SqlUpdate("INSERT INTO ExportJobs (jobId, conversationId, status, attempts, events, eventsProcessed, created, updated) " +
+            "VALUES (:jobId, :conversationId, 'PENDING', 0, 0, 0, CURRENT_TIMESTAMP, CURRENT_TIMESTAMP)")
+    int insert(@Bind("jobId") UUID jobId,
+               @Bind("conversationId") UUID conversationId);
+
+    @SqlQuery("SELECT * FROM ExportJobs WHERE jobId = :jobId")
+    @RegisterColumnMapper(_Mapper.class)
+    ExportJob get(@Bind("jobId") UUID jobId);
+
+    /**
+     * Claims pending jobs, oldest first, and running ones whose worker has not reported for {@code timeout} seconds,
+     * most likely because its replica was stopped.
+     */
+    @SqlQuery("UPDATE ExportJobs j SET status = 'RUNNING', attempts = j.attempts + 1, updated = CURRENT_TIMESTAMP " +
+            "FROM (SELECT jobId FROM ExportJobs WHERE status = 'PENDING' " +
+            "OR (status = 'RUNNING' AND updated < CURRENT_TIMESTAMP - :timeout * INTERVAL '1 second') " +
+            "ORDER BY created LIMIT :limit FOR UPDATE SKIP LOCKED) c " +
+            "WHERE j.jobId = c.jobId RETURNING j.*")
+    @RegisterColumnMapper(_Mapper.class)
+    List<ExportJob> claim(@Bind("timeout") long timeout,
+                          @Bind("limit") int limit);
+
+    /**
+     * Tells the other replicas these jobs are still being worked on.
+     */
+    @SqlUpdate("UPDATE ExportJobs SET updated = CURRENT_TIMESTAMP WHERE jobId IN (<jobIds>) AND status = 'RUNNING'")
+    int touch(@BindList("jobIds") Collection<UUID> jobIds);
+
+    @SqlUpdate("UPDATE ExportJobs SET events = :events, eventsProcessed = :processed, updated = CURRENT_TIMESTAMP " +
+            "WHERE jobId = :jobId AND status = 'RUNNING'")
+    int progress(@Bind("jobId") UUID jobId,
+                 @Bind("processed") int processed,
+                 @Bind("events") int events);
+
+    @SqlUpdate("UPDATE ExportJobs SET status = 'DONE', pages = :pages, blobKey = :blobKey, size = :size, " +
+            "lastError = NULL, updated = CURRENT_TIMESTAMP WHERE jobId = :jobId")
+    int done(@Bind("jobId") UUID jobId,
+             @Bind("pages") int pages,
+             @Bind("blobKey") String blobKey,
+             @Bind("size") long size);
+
+    @SqlUpdate("UPDATE ExportJobs SET status = 'PENDING', lastError = :error, updated = CURRENT_TIMESTAMP " +
+            "WHERE jobId = :jobId")
+    int retry(@Bind("jobId") UUID jobId,
+              @Bind("error") String error);
+
+    @SqlUpdate("UPDATE ExportJobs SET status = 'FAILED', lastError = :error, updated = CURRENT_TIMESTAMP " +
+            "WHERE jobId = :jobId")
+    int fail(@Bind("jobId") UUID jobId,
+             @Bind("error") String error);
+
+    /**
+     * @return keys of the pdfs of the deleted jobs, null for the jobs that had none
+     */
+    @SqlQuery("DELETE FROM ExportJobs WHERE status IN ('DONE', 'FAILED') " +
+            "AND updated < CURRENT_TIMESTAMP - :retention * INTERVAL '1 second' RETURNING blobKey")
+    List<String> deleteExpired(@Bind("retention") long retention);
+
+    @SqlQuery("SELECT COUNT(*) FROM ExportJobs WHERE blobKey = :blobKey")
+    int countBlobKey(@Bind("blobKey") String blobKey);
+
+    /**
+     * Held until the end of the transaction, so storing and dropping the pdf under {@code blobKey} never overlap.
+     */
+    @SqlQuery("SELECT 1 FROM pg_advisory_xact_lock(hashtext(:blobKey))")
+    int lockBlobKey(@Bind("blobKey") String blobKey);
+
+    @SqlQuery("SELECT COUNT(*) FROM ExportJobs WHERE status = :status")
+    int count(@Bind("status") String status);
+
+    class _Mapper implements ColumnMapper<ExportJob> {
+        @Override
+        public ExportJob map(ResultSet rs, int columnNumber, StatementContext ctx) throws SQLException {
+            ExportJob job = new ExportJob();
+            job.jobId = (UUID) rs.getObject("jobId");
+            job.conversationId = (UUID) rs.getObject("conversationId");
+            job.status = rs.getString("status");
+            job.attempts = rs.getInt("attempts");
+            job.events = rs.getInt("events");
+            job.eventsProcessed = rs.getInt("eventsProcessed");
+            job.pages = (Integer) rs.getObject("pages");
+            job.blobKey = rs.getString("blobKey");
+            job.size = (Long) rs.getObject("size");
+            job.lastError = rs.getString("lastError");
+            job.created = rs.getString("created");
+            job.updated = rs.getString("updated");
+
+            return job;
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.wire.bots.hold.DAO;
+
+import org.jdbi.v3.sqlobject.customizer.Bind;
+import org.jdbi.v3.sqlobject.statement.SqlQuery;
+import org.jdbi.v3.sqlobject.statement.SqlUpdate;
+
+public interface ReplicasDAO {
+    @SqlUpdate("INSERT INTO Replicas (owner, heartbeat) VALUES (:owner, CURRENT_TIMESTAMP) " +
+        "ON CONFLICT (owner) DO UPDATE SET heartbeat = EXCLUDED.heartbeat")
+    int heartbeat(@Bind("owner") String owner);
+
+    @SqlQuery("SELECT COUNT(*) FROM Replicas WHERE heartbeat > CURRENT_TIMESTAMP - :ttl * INTERVAL '1 second'")
+    int countLive(@Bind("ttl") long ttl);
+
+    @SqlUpdate("DELETE FROM Replicas WHERE heartbeat < CURRENT_TIMESTAMP - :age * INTERVAL '1 second'")
+    int purge(@Bind("age") long age);
+
+    @SqlUpdate("DELETE FROM Replicas WHERE owner = :owner")
+    int delete(@Bind("owner") String owner);
+}
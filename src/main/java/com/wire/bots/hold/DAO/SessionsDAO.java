@@ -0,0 +1,32 @@
+package com.wire.bots.hold.DAO;
+
+import org.jdbi.v3.sqlobject.customizer.Bind;
+import org.jdbi.v3.sqlobject.customizer.BindFields;
+import org.jdbi.v3.sqlobject.statement.SqlBatch;
+import org.jdbi.v3.sqlobject.statement.SqlQuery;
+import org.jdbi.v3.sqlobject.statement.SqlUpdate;
+
+/**
+ * Cryptobox sessions, in the Sessions table created by the xenon migrations.
+ */
+public interface SessionsDAO {
+    @SqlQuery("SELECT data FROM Sessions WHERE id = :id AND sid = :sid")
+    byte[] get(@Bind("id") String id,
+               @Bind("sid") String sid);
+
+    @SqlUpdate("INSERT INTO Sessions (id, sid, data) VALUES (:id, :sid, :data) " +
+            "ON CONFLICT (id, sid) DO UPDATE SET data = EXCLUDED.data")
+    int insert(@Bind("id") String id,
+               @Bind("sid") String sid,
+               @Bind("data") byte[] data);
+
+    @SqlBatch("INSERT INTO Sessions (id, sid, data) VALUES (:id, :sid, :data) " +
+            "ON CONFLICT (id, sid) DO UPDATE SET data = EXCLUDED.data")
+    int[] insert(@BindFields Iterable<Session> sessions);
+
+    class Session {
+        public String id;
+        public String sid;
+        public byte[] data;
+    }
+}
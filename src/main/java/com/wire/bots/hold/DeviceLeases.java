@@ -0,0 +1,103 @@
+package com.wire.bots.hold;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.wire.bots.hold.DAO.AccessDAO;
+import com.wire.bots.hold.DAO.ReplicasDAO;
+import com.wire.bots.hold.model.database.LHAccess;
+import com.wire.bots.hold.utils.DeviceRegistry;
+import com.wire.xenon.backend.models.QualifiedId;
+import com.wire.xenon.tools.Logger;
+import io.dropwizard.lifecycle.Managed;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Splits the enabled legal hold devices between the running replicas of the service.
+ * <p>
+ *     Every replica heartbeats into the {@code Replicas} table and holds leases on its fair share of the devices
+ *     ({@code Access.leaseOwner} / {@code leaseExpires}). Leases are claimed with {@code FOR UPDATE SKIP LOCKED} so two
+ *     replicas never take the same device. When a replica joins, the others renew only their new share and let the rest
+ *     expire; when a replica dies its leases expire and are picked up by the survivors.
+ * </p>
+ * <p>
+ *     A lease given up is only claimed by another replica once it expired, which leaves the previous owner the rest
+ *     of the lease time to finish the device. The checkpoint update is fenced on the owner as well, see
+ *     {@link AccessDAO#updateLast(UUID, String, UUID, String)}.
+ * </p>
+ */
+public class DeviceLeases implements Managed {
+    private final AccessDAO accessDAO;
+    private final ReplicasDAO replicasDAO;
+    private final DeviceRegistry registry;
+    private final String owner;
+    private final long leaseTime;
+    private volatile int owned;
+
+    /**
+     * @param leaseTime how long a lease and a heartbeat stay valid, in seconds. Must be well above the refresh interval
+     */
+    DeviceLeases(AccessDAO accessDAO, ReplicasDAO replicasDAO, DeviceRegistry registry, long leaseTime, MetricRegistry metrics) {
+        this.accessDAO = accessDAO;
+        this.replicasDAO = replicasDAO;
+        this.registry = registry;
+        this.leaseTime = leaseTime;
+        this.owner = UUID.randomUUID().toString();
+
+        metrics.gauge(MetricRegistry.name(DeviceLeases.class, "owned"), () -> (Gauge<Integer>) () -> owned);
+    }
+
+    /**
+     * Renews the leases this replica keeps and claims free ones up to its share.
+     * @return the devices this replica is responsible for until the next refresh
+     */
+    List<LHAccess> refresh() {
+        replicasDAO.heartbeat(owner);
+        replicasDAO.purge(leaseTime * 10);
+
+        final int replicas = Math.max(1, replicasDAO.countLive(leaseTime));
+        final int enabled = accessDAO.countEnabled();
+        final int share = (enabled + replicas - 1) / replicas;
+
+        final List<LHAccess> devices = new ArrayList<>(accessDAO.renewLeases(owner, leaseTime, share));
+        if (devices.size() < share)
+            devices.addAll(accessDAO.claimLeases(owner, leaseTime, share - devices.size()));
+
+        registry.refresh(devices);
+        owned = devices.size();
+        Logger.debug("DeviceLeases: owner: %s, replicas: %d, enabled: %d, owned: %d", owner, replicas, enabled, owned);
+        return devices;
+    }
+
+    /**
+     * Takes the lease of a single device that was just confirmed or changed, if it is free or already ours. Devices
+     * picked up this way count towards the share of this replica from the next {@link #refresh()} on, which gives
+     * any excess back once the burst is over.
+     * @return the device if this replica is now responsible for it, null if it is disabled or leased to another replica
+     */
+    LHAccess claim(QualifiedId userId) {
+        final LHAccess device = accessDAO.claimLease(userId.id, userId.domain, owner, leaseTime);
+        if (device != null)
+            registry.refresh(Collections.singletonList(device));
+        return device;
+    }
+
+    String getOwner() {
+        return owner;
+    }
+
+    @Override
+    public void start() {
+        Logger.info("DeviceLeases: owner: %s", owner);
+    }
+
+    @Override
+    public void stop() {
+        final int released = accessDAO.releaseLeases(owner);
+        replicasDAO.delete(owner);
+        Logger.info("DeviceLeases: owner: %s released %d devices", owner, released);
+    }
+}
@@ -0,0 +1,188 @@
+package com.wire.bots.hold;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.wire.bots.hold.DAO.ExportJobsDAO;
+import com.wire.bots.hold.model.database.ExportJob;
+import com.wire.bots.hold.service.ConversationExporter;
+import com.wire.bots.hold.utils.AssetStorage;
+import com.wire.bots.hold.utils.Collector;
+import com.wire.bots.hold.utils.PdfRenderer;
+import com.wire.xenon.tools.Logger;
+import org.jdbi.v3.core.Jdbi;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+
+/**
+ * Renders the pdf exports queued through {@code POST /exports/conv/{conversationId}} in the {@code ExportJobs} table.
+ * <p>
+ *     Jobs are claimed every {@code jobPollInterval} as described in {@link JobWorker}. Each run also refreshes the
+ *     jobs this replica is working on, so a job is only claimed again by another replica once its worker stopped
+ *     reporting for {@code jobTimeout}, e.g. after a restart.
+ * </p>
+ * <p>
+ *     Renders take a slot of the same {@link PdfRenderer} as {@code /conv/{conversationId}}. The conversation is
+ *     collected first, then the job waits for a slot as long as it takes without taking a place of the
+ *     {@code renderQueue} meant for the requests. The pdf is written to disk and then to the export job
+ *     {@link AssetStorage}, shared by the replicas, so any of them can serve it. Finished jobs and their pdfs are
+ *     deleted after {@code jobRetention}. Jobs of the same content share one pdf, storing and dropping it take a lock
+ *     on its key.
+ * </p>
+ */
+public class ExportWorker extends JobWorker<ExportJob> {
+    private final Jdbi jdbi;
+    private final ExportJobsDAO jobsDAO;
+    private final ConversationExporter exporter;
+    private final PdfRenderer renderer;
+    private final AssetStorage storage;
+    private final long timeout;
+    private final long retention;
+    private final Timer exportTimer;
+    private final Meter failed;
+    private volatile int pending;
+
+    /**
+     * @param workers pool of at least {@code config.jobWorkers} threads the exports run on
+     */
+    ExportWorker(Jdbi jdbi,
+                 ConversationExporter exporter,
+                 PdfRenderer renderer,
+                 AssetStorage storage,
+                 Executor workers,
+                 Config.Exports config,
+                 MetricRegistry metrics) {
+        super("ExportWorker", workers, config.jobWorkers, config.jobAttempts);
+        this.jdbi = jdbi;
+        this.jobsDAO = jdbi.onDemand(ExportJobsDAO.class);
+        this.exporter = exporter;
+        this.renderer = renderer;
+        this.storage = storage;
+        this.timeout = config.jobTimeout.toSeconds();
+        this.retention = config.jobRetention.toSeconds();
+        this.exportTimer = metrics.timer(MetricRegistry.name(ExportWorker.class, "exports"));
+        this.failed = metrics.meter(MetricRegistry.name(ExportWorker.class, "failed"));
+
+        metrics.gauge(MetricRegistry.name(ExportWorker.class, "inflight"), () -> (Gauge<Integer>) this::inFlight);
+        metrics.gauge(MetricRegistry.name(ExportWorker.class, "pending"), () -> (Gauge<Integer>) () -> pending);
+    }
+
+    @Override
+    void refresh() throws IOException {
+        final List<UUID> running = running();
+        if (!running.isEmpty())
+            jobsDAO.touch(running);
+
+        deleteExpired();
+        pending = jobsDAO.count(ExportJob.PENDING);
+    }
+
+    @Override
+    List<ExportJob> claim(int limit) {
+        return jobsDAO.claim(timeout, limit);
+    }
+
+    @Override
+    void process(ExportJob job) throws Exception {
+        File html = null;
+        File pdf = null;
+        try (Timer.Context ignored = exportTimer.time()) {
+            final Collector collector = exporter.collect(job.conversationId,
+                    (processed, total) -> jobsDAO.progress(job.jobId, processed, total));
+            html = exporter.spoolHtml(collector.getConversation());
+
+            pdf = File.createTempFile("export-", ".pdf");
+            final int pages;
+            try (PdfRenderer.Slot slot = renderer.await();
+                 Reader reader = Files.newBufferedReader(html.toPath());
+                 OutputStream out = new BufferedOutputStream(new FileOutputStream(pdf))) {
+                pages = slot.render(reader, ConversationExporter.BASE_URI, out);
+            }
+
+            final String blobKey;
+            try (InputStream in = new FileInputStream(pdf)) {
+                blobKey = storage.put(in);
+            }
+            done(job, pages, blobKey, pdf);
+            Logger.info("ExportWorker: job: %s, conv: %s, pages: %d", job.jobId, job.conversationId, pages);
+        } finally {
+            delete(html);
+            delete(pdf);
+        }
+    }
+
+    @Override
+    void retry(ExportJob job, String error) {
+        jobsDAO.retry(job.jobId, error);
+    }
+
+    @Override
+    void fail(ExportJob job, String error) {
+        jobsDAO.fail(job.jobId, error);
+        failed.mark();
+    }
+
+    @Override
+    UUID id(ExportJob job) {
+        return job.jobId;
+    }
+
+    @Override
+    int attempts(ExportJob job) {
+        return job.attempts;
+    }
+
+    @Override
+    String lastError(ExportJob job) {
+        return job.lastError;
+    }
+
+    /**
+     * The pdf is stored again if an expired job with the same content dropped it before the lock was taken.
+     */
+    private void done(ExportJob job, int pages, String blobKey, File pdf) throws IOException {
+        jdbi.useTransaction(handle -> {
+            final ExportJobsDAO dao = handle.attach(ExportJobsDAO.class);
+            dao.lockBlobKey(blobKey);
+            try {
+                storage.file(blobKey);
+            } catch (NoSuchFileException e) {
+                try (InputStream in = new FileInputStream(pdf)) {
+                    storage.put(in);
+                }
+            }
+            dao.done(job.jobId, pages, blobKey, pdf.length());
+        });
+    }
+
+    private void deleteExpired() throws IOException {
+        for (String blobKey : jobsDAO.deleteExpired(retention)) {
+            if (blobKey == null)
+                continue;
+
+            jdbi.useTransaction(handle -> {
+                final ExportJobsDAO dao = handle.attach(ExportJobsDAO.class);
+                dao.lockBlobKey(blobKey);
+                // Same conversation exported twice without a change in between
+                if (dao.countBlobKey(blobKey) == 0)
+                    storage.delete(blobKey);
+            });
+        }
+    }
+
+    private static void delete(File file) {
+        if (file == null)
+            return;
+        try {
+            Files.deleteIfExists(file.toPath());
+        } catch (IOException e) {
+            Logger.exception(e, "ExportWorker.delete: %s, error: %s", file, e.getMessage());
+        }
+    }
+}
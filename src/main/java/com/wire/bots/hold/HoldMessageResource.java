@@ -1,5 +1,8 @@
 package com.wire.bots.hold;
 
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 import com.wire.bots.cryptobox.CryptoException;
 import com.wire.bots.hold.utils.HoldClientRepo;
 import com.wire.xenon.MessageHandlerBase;
@@ -14,27 +17,47 @@ import java.util.UUID;
 
 public class HoldMessageResource extends MessageResourceBase {
     private final HoldClientRepo repo;
+    private final MetricRegistry metrics;
+    private final Timer messageTimer;
+    private final Meter systemMeter;
 
-    public HoldMessageResource(MessageHandlerBase handler, HoldClientRepo repo) {
+    public HoldMessageResource(MessageHandlerBase handler, HoldClientRepo repo, MetricRegistry metrics) {
         super(handler);
         this.repo = repo;
+        this.metrics = metrics;
+        this.messageTimer = metrics.timer(MetricRegistry.name(HoldMessageResource.class, "messages"));
+        this.systemMeter = metrics.meter(MetricRegistry.name(HoldMessageResource.class, "system"));
     }
 
+    /**
+     * Only {@code conversation.otr-message-add} needs to be decrypted, every other type is routed to a client without
+     * a cryptobox before any crypto or {@code Access} I/O happens.
+     */
     protected WireClient getWireClient(QualifiedId userId, Payload payload) throws CryptoException {
-        return repo.getClient(userId, payload.data.recipient, payload.conversation);
+        if (Const.CONVERSATION_OTR_MESSAGE_ADD.equals(payload.type))
+            return repo.getClient(userId, payload.data.recipient, payload.conversation);
+
+        systemMeter.mark();
+        return repo.getSystemClient(userId, payload.data.recipient, payload.conversation);
     }
 
     public boolean onNewMessage(QualifiedId userId, UUID id, Payload payload) {
-        try (WireClient client = getWireClient(userId, payload)) {
+        try (Timer.Context ignored = messageTimer.time(); WireClient client = getWireClient(userId, payload)) {
             handleMessage(id, payload, client);
         } catch (CryptoException | MissingStateException e) {
+            failed(e);
             Logger.exception(e, "newMessage: %s", userId);
             return false;
         } catch (Exception e) {
+            failed(e);
             Logger.exception(e, "newMessage: %s %s", userId, e.getMessage());
             return false;
         }
 
         return true;
     }
+
+    private void failed(Exception e) {
+        metrics.meter(MetricRegistry.name(HoldMessageResource.class, "failures", e.getClass().getSimpleName())).mark();
+    }
 }
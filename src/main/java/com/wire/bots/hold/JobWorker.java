@@ -0,0 +1,140 @@
+package com.wire.bots.hold;
+
+import com.wire.xenon.tools.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Runs the jobs of a table shared by the replicas, see {@link AssetWorker} and {@link ExportWorker}.
+ * <p>
+ *     {@link #run()} is scheduled at a fixed rate and claims as many jobs as there are free workers, so at most
+ *     {@code concurrency} jobs run at a time on this replica. Replicas claim with {@code FOR UPDATE SKIP LOCKED} and
+ *     never share a job. Every run refreshes the claim of the jobs running on this replica, see {@link #running()}. A
+ *     job that stops reporting for its timeout, e.g. after a restart, is claimed again and uses up another attempt. A
+ *     job claimed again while it still runs here is not started twice.
+ * </p>
+ * <p>
+ *     A job that throws is handed back with {@link #retry} until it used up {@code maxAttempts}, then it is
+ *     {@link #fail}ed with its last error.
+ * </p>
+ *
+ * @param <J> job row
+ */
+abstract class JobWorker<J> implements Runnable {
+    private final String name;
+    private final Executor workers;
+    private final int concurrency;
+    private final int maxAttempts;
+    private final Set<UUID> running = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param workers pool of at least {@code concurrency} threads the jobs run on
+     */
+    JobWorker(String name, Executor workers, int concurrency, int maxAttempts) {
+        this.name = name;
+        this.workers = workers;
+        this.concurrency = concurrency;
+        this.maxAttempts = maxAttempts;
+    }
+
+    /**
+     * Called on every run before jobs are claimed, refreshes the claim of the {@link #running()} jobs.
+     */
+    abstract void refresh() throws Exception;
+
+    /**
+     * @return up to {@code limit} jobs, now owned by this replica
+     */
+    abstract List<J> claim(int limit);
+
+    abstract void process(J job) throws Exception;
+
+    abstract void retry(J job, String error);
+
+    abstract void fail(J job, String error);
+
+    abstract UUID id(J job);
+
+    abstract int attempts(J job);
+
+    abstract String lastError(J job);
+
+    @Override
+    public void run() {
+        try {
+            refresh();
+
+            final int free = concurrency - running.size();
+            if (free <= 0)
+                return;
+
+            for (J job : claim(free)) {
+                final UUID id = id(job);
+                if (!running.add(id)) {
+                    // Timed out while it is still running here, the heartbeat of the next run keeps it
+                    Logger.warning("%s: job: %s is still running", name, id);
+                    continue;
+                }
+                try {
+                    workers.execute(() -> execute(job));
+                } catch (RejectedExecutionException e) {
+                    // Claimed but not started, picked up again once it times out
+                    running.remove(id);
+                    Logger.warning("%s: no free worker for job: %s", name, id);
+                }
+            }
+        } catch (Exception e) {
+            Logger.exception(e, "%s: %s", name, e.getMessage());
+        }
+    }
+
+    void execute(J job) {
+        try {
+            if (attempts(job) > maxAttempts) {
+                // Timed out every time it was claimed
+                fail(job, String.format("Gave up after %d attempts, last error: %s", maxAttempts, lastError(job)));
+                return;
+            }
+
+            process(job);
+        } catch (Exception e) {
+            retryOrFail(job, e);
+        } finally {
+            running.remove(id(job));
+        }
+    }
+
+    /**
+     * @return jobs running on this replica
+     */
+    List<UUID> running() {
+        return new ArrayList<>(running);
+    }
+
+    int inFlight() {
+        return running.size();
+    }
+
+    private void retryOrFail(J job, Exception e) {
+        final String error = e.getClass().getSimpleName() + ": " + e.getMessage();
+        try {
+            if (attempts(job) >= maxAttempts) {
+                fail(job, error);
+                Logger.exception(e, "%s: gave up on job: %s after %d attempts, error: %s",
+                        name, id(job), attempts(job), e.getMessage());
+            } else {
+                retry(job, error);
+                Logger.warning("%s: job: %s, attempt: %d, error: %s", name, id(job), attempts(job), e.getMessage());
+            }
+        } catch (Exception ex) {
+            // The job is still claimed and is picked up again once it times out
+            Logger.exception(ex, "%s: could not update job: %s, error: %s", name, id(job), ex.getMessage());
+        }
+    }
+}
@@ -1,8 +1,15 @@
 package com.wire.bots.hold;
 
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.wire.bots.hold.DAO.AssetJobsDAO;
 import com.wire.bots.hold.DAO.AssetsDAO;
 import com.wire.bots.hold.DAO.EventsDAO;
+import com.wire.bots.hold.model.database.AssetJob;
+import com.wire.bots.hold.model.database.Event;
+import com.wire.bots.hold.utils.ExportCache;
+import com.wire.bots.hold.utils.SeenEvents;
 import com.wire.xenon.MessageHandlerBase;
 import com.wire.xenon.WireClient;
 import com.wire.xenon.backend.models.QualifiedId;
@@ -17,12 +24,58 @@ import java.util.UUID;
 public class MessageHandler extends MessageHandlerBase {
     private final EventsDAO eventsDAO;
     private final AssetsDAO assetsDAO;
+    private final AssetJobsDAO assetJobsDAO;
+    private final Meter queuedDownloads;
+    private final SeenEvents seen;
+    private final ExportCache exports;
+    private final Meter duplicates;
+    private final Meter skippedDownloads;
+
+    private final ThreadLocal<PageBuffer> page = new ThreadLocal<>();
 
     private final ObjectMapper mapper = new ObjectMapper();
 
-    MessageHandler(Jdbi jdbi) {
+    /**
+     * @param seen events already stored, their copies received by other legal hold devices are not stored again
+     * @param exports rendered exports, dropped when their conversation gets a new event
+     */
+    MessageHandler(Jdbi jdbi, SeenEvents seen, ExportCache exports, MetricRegistry metrics) {
         eventsDAO = jdbi.onDemand(EventsDAO.class);
         assetsDAO = jdbi.onDemand(AssetsDAO.class);
+        assetJobsDAO = jdbi.onDemand(AssetJobsDAO.class);
+        this.seen = seen;
+        this.exports = exports;
+        queuedDownloads = metrics.meter(MetricRegistry.name(MessageHandler.class, "downloads", "queued"));
+        duplicates = metrics.meter(MetricRegistry.name(MessageHandler.class, "duplicates"));
+        skippedDownloads = metrics.meter(MetricRegistry.name(MessageHandler.class, "duplicates", "downloads"));
+    }
+
+    /**
+     * Starts buffering the rows persisted on the current thread.
+     * <p>
+     *     Events and assets of one notification page are collected in memory and handed over by {@link #endPage()},
+     *     so they can be written in batches together with the page checkpoint.
+     * </p>
+     */
+    void beginPage() {
+        page.set(new PageBuffer());
+    }
+
+    /**
+     * @return rows buffered since {@link #beginPage()}
+     */
+    PageBuffer endPage() {
+        final PageBuffer current = page.get();
+        page.remove();
+        return current;
+    }
+
+    private void insertMimeType(UUID messageId, String mimeType) {
+        final PageBuffer current = page.get();
+        if (current != null)
+            current.addMimeType(messageId, mimeType);
+        else
+            assetsDAO.insert(messageId, mimeType);
     }
 
     @Override
@@ -94,9 +147,10 @@ public class MessageHandler extends MessageHandlerBase {
         QualifiedId conversationId = msg.getConversationId();
         String type = Const.CONVERSATION_OTR_MESSAGE_ADD_IMAGE_PREVIEW;
 
-        persist(eventId, conversationId, client, type, msg);
+        if (!persist(eventId, conversationId, client, type, msg))
+            return;
 
-        assetsDAO.insert(msg.getMessageId(), msg.getMimeType());
+        insertMimeType(msg.getMessageId(), msg.getMimeType());
     }
 
     @Override
@@ -105,9 +159,10 @@ public class MessageHandler extends MessageHandlerBase {
         QualifiedId conversationId = msg.getConversationId();
         String type = Const.CONVERSATION_OTR_MESSAGE_ADD_FILE_PREVIEW;
 
-        persist(eventId, conversationId, client, type, msg);
+        if (!persist(eventId, conversationId, client, type, msg))
+            return;
 
-        assetsDAO.insert(msg.getMessageId(), msg.getMimeType());
+        insertMimeType(msg.getMessageId(), msg.getMimeType());
     }
 
     @Override
@@ -116,9 +171,10 @@ public class MessageHandler extends MessageHandlerBase {
         QualifiedId conversationId = msg.getConversationId();
         String type = Const.CONVERSATION_OTR_MESSAGE_ADD_AUDIO_PREVIEW;
 
-        persist(eventId, conversationId, client, type, msg);
+        if (!persist(eventId, conversationId, client, type, msg))
+            return;
 
-        assetsDAO.insert(msg.getMessageId(), msg.getMimeType());
+        insertMimeType(msg.getMessageId(), msg.getMimeType());
     }
 
     @Override
@@ -127,31 +183,44 @@ public class MessageHandler extends MessageHandlerBase {
         QualifiedId conversationId = msg.getConversationId();
         String type = Const.CONVERSATION_OTR_MESSAGE_ADD_VIDEO_PREVIEW;
 
-        persist(eventId, conversationId, client, type, msg);
+        if (!persist(eventId, conversationId, client, type, msg))
+            return;
 
-        assetsDAO.insert(msg.getMessageId(), msg.getMimeType());
+        insertMimeType(msg.getMessageId(), msg.getMimeType());
     }
 
+    /**
+     * Only queues the download, see {@link AssetWorker}: a large asset must not hold up the notifications of the
+     * device. The job is written together with the page.
+     */
     @Override
     public void onAssetData(WireClient client, RemoteMessage msg) {
         UUID eventId = msg.getEventId();
         QualifiedId conversationId = msg.getConversationId();
         String type = Const.CONVERSATION_OTR_MESSAGE_ADD_ASSET_DATA;
 
-        persist(eventId, conversationId, client, type, msg);
-
-        try {
-            final byte[] assetData = client.downloadAsset(
-                msg.getAssetId(),
-                msg.getUserId().domain,
-                msg.getAssetToken(),
-                msg.getSha256(),
-                msg.getOtrKey()
-            );
-            assetsDAO.insert(msg.getMessageId(), assetData);
-        } catch (Exception e) {
-            Logger.exception(e, "onAssetData");
+        if (!persist(eventId, conversationId, client, type, msg)) {
+            skippedDownloads.mark();
+            return;
         }
+
+        final QualifiedId userId = client.getSelf().id;
+        final AssetJob job = new AssetJob();
+        job.messageId = msg.getMessageId();
+        job.userId = userId.id;
+        job.userDomain = userId.domain;
+        job.assetId = msg.getAssetId();
+        job.assetDomain = msg.getUserId().domain;
+        job.assetToken = msg.getAssetToken();
+        job.otrKey = msg.getOtrKey();
+        job.sha256 = msg.getSha256();
+
+        final PageBuffer current = page.get();
+        if (current != null)
+            current.addAssetJob(job);
+        else
+            assetJobsDAO.insert(job);
+        queuedDownloads.mark();
     }
 
     @Override
@@ -190,12 +259,43 @@ public class MessageHandler extends MessageHandlerBase {
 
     }
 
-    private void persist(UUID eventId, QualifiedId conversationId, WireClient client, String type, Object msg) {
+    /**
+     * Buffers the event with the current page, or stores it right away outside of a page.
+     * <p>
+     *     A copy of an event already stored for another legal hold user is skipped. The message has been decrypted by
+     *     then, which is what keeps the session of this device in step; serializing and storing it, and anything
+     *     downloaded for it, would only be thrown away by {@code ON CONFLICT (eventId) DO NOTHING}.
+     * </p>
+     * @return false if the event is such a copy or could not be stored, nothing else should be done for it
+     */
+    private boolean persist(UUID eventId, QualifiedId conversationId, WireClient client, String type, Object msg) {
+        if (seen.contains(eventId)) {
+            duplicates.mark();
+            return false;
+        }
+
         try {
             User user = client.getSelf();
             String payload = mapper.writeValueAsString(msg);
 
-            eventsDAO.insert(eventId, conversationId.id, conversationId.domain, user.id.id, user.id.domain, type, payload);
+            final PageBuffer current = page.get();
+            if (current == null) {
+                if (eventsDAO.insert(eventId, conversationId.id, conversationId.domain, user.id.id, user.id.domain, type, payload) > 0) {
+                    seen.add(eventId);
+                    exports.invalidate(conversationId.id);
+                }
+                return true;
+            }
+
+            Event event = new Event();
+            event.eventId = eventId;
+            event.conversationId = conversationId.id;
+            event.conversationDomain = conversationId.domain;
+            event.userId = user.id.id;
+            event.userDomain = user.id.domain;
+            event.type = type;
+            event.payload = payload;
+            current.addEvent(event);
         } catch (Exception exception) {
             Logger.exception(
                 exception,
@@ -204,6 +304,8 @@ public class MessageHandler extends MessageHandlerBase {
                 conversationId,
                 eventId
             );
+            return false;
         }
+        return true;
     }
 }
@@ -0,0 +1,69 @@
+package com.wire.bots.hold;
+
+import com.wire.bots.hold.DAO.AssetsDAO;
+import com.wire.bots.hold.utils.AssetStorage;
+import com.wire.bots.hold.utils.FileAssetStorage;
+import com.wire.xenon.tools.Logger;
+import io.dropwizard.cli.ConfiguredCommand;
+import io.dropwizard.setup.Bootstrap;
+import net.sourceforge.argparse4j.inf.Namespace;
+import org.jdbi.v3.core.Jdbi;
+import org.jdbi.v3.sqlobject.SqlObjectPlugin;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * {@code java -jar hold.jar move-assets hold.yaml}
+ * <p>
+ *     Moves the assets stored in {@code Assets.data} before V112 to the asset storage and empties the column, one
+ *     row at a time. Safe to run while the service is up and to run again after an interruption. The table only
+ *     gives the space back after a {@code VACUUM FULL Assets}.
+ * </p>
+ */
+public class MoveAssetsCommand extends ConfiguredCommand<Config> {
+    private static final int BATCH_SIZE = 100;
+
+    public MoveAssetsCommand() {
+        super("move-assets", "Moves the asset data kept in the database to the asset storage");
+    }
+
+    @Override
+    protected void run(Bootstrap<Config> bootstrap, Namespace namespace, Config config) throws Exception {
+        // Brings the schema up to date in case this runs before the new version was started
+        ((Service) bootstrap.getApplication()).setupDatabase(config.database);
+
+        final Jdbi jdbi = Jdbi
+                .create(config.database.getUrl(), config.database.getUser(), config.database.getPassword())
+                .installPlugin(new SqlObjectPlugin());
+        final AssetStorage storage = new FileAssetStorage(Paths.get(config.assets.storagePath));
+
+        final int moved = move(jdbi.onDemand(AssetsDAO.class), storage);
+        Logger.info("MoveAssetsCommand: moved %d assets to %s", moved, config.assets.storagePath);
+    }
+
+    static int move(AssetsDAO assetsDAO, AssetStorage storage) throws IOException {
+        int moved = 0;
+        List<UUID> batch;
+        while (!(batch = assetsDAO.listLegacy(BATCH_SIZE)).isEmpty()) {
+            for (UUID messageId : batch) {
+                final byte[] data = assetsDAO.getLegacyData(messageId);
+                if (data == null)
+                    continue;   // Downloaded again meanwhile
+
+                final String blobKey;
+                try (InputStream in = new ByteArrayInputStream(data)) {
+                    blobKey = storage.put(in);
+                }
+                assetsDAO.insertBlobKey(messageId, blobKey);
+                moved++;
+            }
+            Logger.info("MoveAssetsCommand: moved %d assets so far", moved);
+        }
+        return moved;
+    }
+}
@@ -0,0 +1,44 @@
+package com.wire.bots.hold;
+
+import com.wire.bots.hold.utils.CoalescingStorage;
+import com.wire.xenon.backend.models.QualifiedId;
+
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * One decrypted page of notifications on its way to the persist stage.
+ */
+public class NotificationPage {
+    final QualifiedId userId;
+    final UUID last;
+    final PageBuffer rows;
+    final CoalescingStorage.Batch sessions;
+    final Drain drain;
+    final CompletableFuture<Void> committed = new CompletableFuture<>();
+
+    NotificationPage(QualifiedId userId, UUID last, PageBuffer rows, CoalescingStorage.Batch sessions, Drain drain) {
+        this.userId = userId;
+        this.last = last;
+        this.rows = rows;
+        this.sessions = sessions;
+        this.drain = drain;
+    }
+
+    /**
+     * Drops the page without persisting it.
+     */
+    void cancel(String reason) {
+        sessions.discarded();
+        committed.completeExceptionally(new CancellationException(reason));
+    }
+
+    /**
+     * Pages fetched for one device in one cycle. Once a page of the drain fails to persist, the pages queued after it
+     * are dropped so {@code Access.last} never skips over it.
+     */
+    static class Drain {
+        volatile boolean failed;
+    }
+}
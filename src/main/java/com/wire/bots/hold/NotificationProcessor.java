@@ -1,12 +1,19 @@
 package com.wire.bots.hold;
 
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.wire.bots.hold.DAO.AccessDAO;
 import com.wire.bots.hold.model.database.LHAccess;
+import com.wire.bots.hold.utils.AccessTokenCache;
+import com.wire.bots.hold.utils.CoalescingStorage;
+import com.wire.bots.hold.utils.DeviceRegistry;
+import com.wire.bots.hold.utils.SeenEvents;
 import com.wire.helium.API;
-import com.wire.helium.LoginClient;
-import com.wire.helium.models.Access;
 import com.wire.helium.models.Event;
 import com.wire.helium.models.NotificationList;
 import com.wire.xenon.backend.models.Payload;
@@ -16,96 +23,305 @@ import com.wire.xenon.exceptions.HttpException;
 import com.wire.xenon.tools.Logger;
 
 import javax.ws.rs.client.Client;
-import javax.ws.rs.core.Cookie;
+import java.util.Collections;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.logging.Level;
 
-public class NotificationProcessor implements Runnable {
-    private static final int DEFAULT_NOTIFICATION_SIZE = 100;
+public class NotificationProcessor {
+    // Offset between the UUIDv1 epoch (1582-10-15) and the Unix epoch, in 100ns units
+    private static final long UUID_EPOCH_OFFSET = 0x01B21DD213814000L;
 
     private final Client client;
     private final AccessDAO accessDAO;
+    private final DeviceRegistry registry;
+    private final AccessTokenCache tokens;
     private final HoldMessageResource messageResource;
+    private final MessageHandler messageHandler;
+    private final CoalescingStorage cryptoStorage;
+    private final PersistStage persistStage;
+    private final SeenEvents seen;
+    private final ConcurrentHashMap<QualifiedId, Integer> pageSizes = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<QualifiedId, Integer> backlog = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<QualifiedId, Long> lag = new ConcurrentHashMap<>();
+    private final MetricRegistry metrics;
+    private final Histogram drainedEvents;
+    private final Histogram lagHistogram;
+    private final Meter fetchedEvents;
+    private final Meter duplicates;
+    private final Timer drainTimer;
+    private final Timer fetchTimer;
+    private final Timer decryptTimer;
+    private final int minPageSize;
+    private final int maxPageSize;
+    private final int drainEvents;
+    private final long drainTime;
 
-    NotificationProcessor(Client client, AccessDAO accessDAO, HoldMessageResource messageResource) {
+    /**
+     * Fetches, decrypts and persists the notifications of one legal hold device at a time.
+     * <p>
+     *     A device keeps paging through its notifications until it is caught up, bounded by the time and event
+     *     budget in {@link Config.Notifications} so a busy device cannot starve the others.
+     * </p>
+     * <p>
+     *     Ingestion runs as a pipeline: the calling worker fetches and decrypts a page, then hands it to the
+     *     {@link PersistStage} and goes on fetching the next page while the previous one is being committed.
+     * </p>
+     * @param config  paging and budget settings
+     * @param metrics registry for the ingestion metrics
+     */
+    NotificationProcessor(Client client,
+                          AccessDAO accessDAO,
+                          DeviceRegistry registry,
+                          AccessTokenCache tokens,
+                          HoldMessageResource messageResource,
+                          MessageHandler messageHandler,
+                          CoalescingStorage cryptoStorage,
+                          PersistStage persistStage,
+                          SeenEvents seen,
+                          Config.Notifications config,
+                          MetricRegistry metrics) {
         this.client = client;
         this.accessDAO = accessDAO;
+        this.registry = registry;
+        this.tokens = tokens;
         this.messageResource = messageResource;
-    }
-
-    @Override
-    public void run() {
-        try {
-            List<LHAccess> devices = accessDAO.listEnabled();
-            Logger.info("Devices: %d", devices.size());
+        this.messageHandler = messageHandler;
+        this.cryptoStorage = cryptoStorage;
+        this.persistStage = persistStage;
+        this.seen = seen;
+        this.minPageSize = config.minPageSize;
+        this.maxPageSize = Math.max(config.maxPageSize, config.minPageSize);
+        this.drainEvents = config.drainEvents;
+        this.drainTime = config.drainTime.toMilliseconds();
+        this.metrics = metrics;
+        this.drainedEvents = metrics.histogram(MetricRegistry.name(NotificationProcessor.class, "drained"));
+        this.lagHistogram = metrics.histogram(MetricRegistry.name(NotificationProcessor.class, "lag"));
+        this.fetchedEvents = metrics.meter(MetricRegistry.name(NotificationProcessor.class, "fetched"));
+        this.duplicates = metrics.meter(MetricRegistry.name(NotificationProcessor.class, "duplicates"));
+        this.drainTimer = metrics.timer(MetricRegistry.name(NotificationProcessor.class, "drain"));
+        this.fetchTimer = metrics.timer(MetricRegistry.name(NotificationProcessor.class, "fetch"));
+        this.decryptTimer = metrics.timer(MetricRegistry.name(NotificationProcessor.class, "decrypt"));
 
-            for (LHAccess device : devices) {
-                process(device);
-            }
-        } catch (Exception e) {
-            Logger.exception(e, "NotificationProcessor: %s", e.getMessage());
-        }
+        metrics.gauge(MetricRegistry.name(AccessTokenCache.class, "size"), () -> (Gauge<Integer>) tokens::size);
+        metrics.gauge(MetricRegistry.name(NotificationProcessor.class, "backlog", "devices"), () -> (Gauge<Integer>) backlog::size);
+        metrics.gauge(MetricRegistry.name(NotificationProcessor.class, "backlog", "max"),
+                () -> (Gauge<Integer>) () -> backlog.values().stream().mapToInt(Integer::intValue).max().orElse(0));
+        metrics.gauge(MetricRegistry.name(NotificationProcessor.class, "lag", "max"),
+                () -> (Gauge<Long>) () -> lag.values().stream().mapToLong(Long::longValue).max().orElse(0L));
     }
 
-    private Access getAccess(Cookie cookie) throws HttpException {
-        LoginClient loginClient = new LoginClient(client);
-        return loginClient.renewAccessToken(cookie);
-    }
+    /**
+     * Fetches and processes the device's notifications starting at {@code device.last}.
+     * <p>
+     *     Returns only once every page handed to the persist stage is committed. If one of them failed,
+     *     {@code device.last} is reset to the checkpoint stored in the database.
+     * </p>
+     * @param device  legal hold device, must not be drained by two threads at the same time
+     * @param bounded stop once the device has used up its time and event budget, otherwise page until caught up
+     * @return true if the device is caught up, false if notifications are left or processing failed
+     */
+    boolean drain(LHAccess device, boolean bounded) {
+        final NotificationPage.Drain drain = new NotificationPage.Drain();
+        final Timer.Context timer = drainTimer.time();
+        CompletableFuture<Void> committed = CompletableFuture.completedFuture(null);
+        boolean caughtUp = false;
+        int drained = 0;
 
-    private void process(LHAccess device) {
         try {
-            Logger.debug("`GET /notifications`: user: %s, last: %s", device.userId, device.last);
-
-            String cookieValue = device.cookie;
-
-            Cookie cookie = new Cookie("zuid", device.cookie);
+            final API api = new API(client, null, tokens.getToken(device));
+            final long deadline = bounded ? System.currentTimeMillis() + drainTime : Long.MAX_VALUE;
+            final int maxEvents = bounded ? drainEvents : Integer.MAX_VALUE;
+            int pageSize = pageSizes.getOrDefault(device.userId, minPageSize);
+            boolean hasMore;
 
-            Access access = getAccess(cookie);
+            // Keep paging until the device is caught up or it has used up its share of this cycle.
+            // The next page is fetched and decrypted while the persist stage is still committing the previous one.
+            do {
+                Logger.debug("`GET /notifications`: user: %s, last: %s, size: %d", device.userId, device.last, pageSize);
 
-            if (access.getCookie() != null) {
-                Logger.info("Set-Cookie: user: %s", device.userId);
-                cookieValue = access.getCookie().value;
-            }
+                final NotificationList notificationList;
+                try (Timer.Context ignored = fetchTimer.time()) {
+                    notificationList = api.retrieveNotifications(
+                        device.clientId,
+                        device.last,
+                        pageSize
+                    );
+                }
 
-            accessDAO.update(device.userId.id, device.userId.domain, access.getAccessToken(), cookieValue);
+                final int fetched = notificationList.notifications.size();
+                fetchedEvents.mark(fetched);
+                if (fetched > 0) {
+                    final NotificationPage page = decrypt(device, notificationList.notifications, drain);
+                    committed = persistStage.submit(page);
+                    device.last = page.last;
+                }
 
-            device.token = access.getAccessToken();
+                drained += fetched;
+                hasMore = Boolean.TRUE.equals(notificationList.hasMore) && fetched > 0;
+                pageSize = nextPageSize(pageSize, fetched, hasMore);
+            } while (hasMore && !drain.failed && drained < maxEvents && System.currentTimeMillis() < deadline);
 
-            final API api = new API(client, null, device.token);
-            NotificationList notificationList = api.retrieveNotifications(
-                device.clientId,
-                device.last,
-                DEFAULT_NOTIFICATION_SIZE
-            );
+            pageSizes.put(device.userId, pageSize);
+            drainedEvents.update(drained);
 
-            process(device.userId, notificationList);
+            if (hasMore) {
+                backlog.put(device.userId, drained);
+                Logger.info("NotificationProcessor: user: %s still has notifications after %d events", device.userId, drained);
+            } else {
+                backlog.remove(device.userId);
+            }
+            caughtUp = !hasMore;
         } catch (AuthException e) {
-            accessDAO.disable(device.userId.id, device.userId.domain);
+            failed(e);
+            tokens.invalidate(device.userId);
+            backlog.remove(device.userId);
+            lag.remove(device.userId);
+            registry.disable(device.userId);
             Logger.exception(e, "NotificationProcessor: Disabled LH device for user: %s, error: %s", device.userId, e.getMessage());
         } catch (HttpException e) {
+            failed(e);
             Logger.exception(e, "NotificationProcessor: Couldn't retrieve notifications, error: %s", e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         } catch (Exception e) {
+            failed(e);
             Logger.exception(e, "NotificationProcessor: user: %s, last: %s, error: %s", device.userId, device.last, e.getMessage());
         }
+
+        // The device is released only once all of its pages are committed, the next drain starts from Access.last
+        try {
+            if (!await(committed)) {
+                resync(device);
+                return false;
+            }
+
+            if (caughtUp) {
+                lag.remove(device.userId);
+            } else if (drained > 0) {
+                lag.put(device.userId, age(device.last));
+            }
+            if (drained > 0)
+                lagHistogram.update(age(device.last));
+
+            return caughtUp;
+        } finally {
+            timer.stop();
+        }
+    }
+
+    /**
+     * Processes a single notification pushed over the websocket, through the same decrypt and persist stages
+     * as the polled pages.
+     * @param device legal hold device, {@code device.last} is moved to this notification once it is committed
+     * @param event  notification
+     * @param drain  the pages of the current connection
+     * @return completes once the notification and its checkpoint are committed
+     * @throws InterruptedException if interrupted while waiting for space in the persist stage
+     */
+    CompletableFuture<Void> process(LHAccess device, Event event, NotificationPage.Drain drain) throws InterruptedException {
+        final NotificationPage page = decrypt(device, Collections.singletonList(event), drain);
+        return persistStage.submit(page).thenRun(() -> {
+            device.last = page.last;
+            lagHistogram.update(age(page.last));
+        });
     }
 
-    private void process(QualifiedId userId, NotificationList notificationList) {
-        for (Event event : notificationList.notifications) {
-            for (Payload payload : event.payload) {
-                if (!process(userId, payload, event.id)) {
-                    Logger.error("Failed to process: user: %s, event: %s", userId, event.id);
-                } else {
-                    Logger.debug("Processed: `%s` conv: %s, user: %s, eventId: %s",
-                            payload.type,
-                            payload.conversation,
-                            userId,
-                            event.id);
+    private boolean await(CompletableFuture<Void> committed) {
+        try {
+            committed.get();
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            // Already logged by the persist stage
+            return false;
+        }
+    }
+
+    private void failed(Exception e) {
+        metrics.meter(MetricRegistry.name(NotificationProcessor.class, "failures", e.getClass().getSimpleName())).mark();
+    }
+
+    /**
+     * Age of a notification in ms, derived from the timestamp in its UUIDv1 id.
+     */
+    static long age(UUID id) {
+        if (id == null || id.version() != 1)
+            return 0L;
+        final long millis = (id.timestamp() - UUID_EPOCH_OFFSET) / 10_000;
+        return Math.max(0L, System.currentTimeMillis() - millis);
+    }
+
+    private void resync(LHAccess device) {
+        try {
+            final LHAccess stored = accessDAO.get(device.userId.id, device.userId.domain);
+            if (stored != null)
+                device.last = stored.last;
+        } catch (Exception e) {
+            Logger.exception(e, "NotificationProcessor: resync user: %s, error: %s", device.userId, e.getMessage());
+        }
+    }
+
+    /**
+     * Grows the page while the device is lagging behind (full pages with more to come) and shrinks it back
+     * once the pages come back mostly empty.
+     */
+    private int nextPageSize(int pageSize, int fetched, boolean hasMore) {
+        if (hasMore && fetched >= pageSize)
+            return Math.min(pageSize * 2, maxPageSize);
+        if (fetched < pageSize / 2)
+            return Math.max(pageSize / 2, minPageSize);
+        return pageSize;
+    }
+
+    /**
+     * Decrypts one page of notifications into a {@link PageBuffer}.
+     * <p>
+     *     Nothing is written here: the rows, the updated cryptobox sessions and the new {@code Access.last} checkpoint
+     *     are committed together by the {@link PersistStage}, so {@code last} never moves ahead of data that was not
+     *     stored.
+     * </p>
+     */
+    private NotificationPage decrypt(LHAccess device, List<Event> notifications, NotificationPage.Drain drain) {
+        final QualifiedId userId = device.userId;
+        UUID checkpoint = null;
+        PageBuffer rows;
+        CoalescingStorage.Batch sessions;
+        boolean decrypted = false;
+
+        try (Timer.Context ignored = decryptTimer.time()) {
+            messageHandler.beginPage();
+            cryptoStorage.begin();
+            try {
+                for (Event event : notifications) {
+                    for (Payload payload : event.payload) {
+                        if (!process(userId, payload, event.id)) {
+                            Logger.error("Failed to process: user: %s, event: %s", userId, event.id);
+                        } else {
+                            Logger.debug("Processed: `%s` conv: %s, user: %s, eventId: %s",
+                                    payload.type,
+                                    payload.conversation,
+                                    userId,
+                                    event.id);
+                        }
+                    }
+                    checkpoint = event.id;
                 }
+                decrypted = true;
+            } finally {
+                rows = messageHandler.endPage();
+                sessions = cryptoStorage.end();
+                if (!decrypted)
+                    sessions.discarded();
             }
-
-            accessDAO.updateLast(userId.id, userId.domain, event.id);
         }
+
+        return new NotificationPage(userId, checkpoint, rows, sessions, drain);
     }
 
     private boolean process(QualifiedId userId, Payload payload, UUID id) {
@@ -115,6 +331,13 @@ public class NotificationProcessor implements Runnable {
 
         if (payload.from == null || payload.data == null) return true;
 
+        // Unencrypted events are not tied to the session of this device, a copy stored for another user is dropped
+        // here. Encrypted ones are always decrypted so the session moves on, see MessageHandler.persist
+        if (!Const.CONVERSATION_OTR_MESSAGE_ADD.equals(payload.type) && seen.contains(id)) {
+            duplicates.mark();
+            return true;
+        }
+
         final boolean wasMessageSent = messageResource.onNewMessage(userId, id, payload);
 
         if (!wasMessageSent) {
@@ -0,0 +1,175 @@
+package com.wire.bots.hold;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.wire.helium.models.Event;
+import com.wire.xenon.tools.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.WebSocket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Listener for the notification websocket ({@code /await}) of one legal hold client.
+ * <p>
+ *     The socket only asks for the next frame once the previous notification has been committed, so a slow consumer
+ *     holds frames back on the server side instead of buffering them here and the checkpoint never gets ahead of the
+ *     stored notifications. The first frame is only requested once {@link Handler#onConnected()} filled the gap since
+ *     the last processed notification.
+ * </p>
+ */
+public class NotificationSocket implements WebSocket.Listener {
+    private static final ObjectMapper mapper = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    private final Handler handler;
+    private final ByteArrayOutputStream frame = new ByteArrayOutputStream();
+
+    NotificationSocket(Handler handler) {
+        this.handler = handler;
+    }
+
+    /**
+     * Opens the websocket for this client.
+     * @param http     client used for the upgrade request
+     * @param base     websocket endpoint, i.e. {@code wss://prod-nginz-ssl.wire.com/await}
+     * @param clientId legal hold client
+     * @param token    access token of the legal hold user
+     * @param handler  receives the notifications
+     * @return completes once the socket is open
+     */
+    static CompletableFuture<WebSocket> connect(HttpClient http, String base, String clientId, String token, Handler handler) {
+        final URI uri = URI.create(String.format("%s?client=%s", base, clientId));
+        return http.newWebSocketBuilder()
+                .header("Authorization", "Bearer " + token)
+                .connectTimeout(Duration.ofSeconds(30))
+                .buildAsync(uri, new NotificationSocket(handler));
+    }
+
+    @Override
+    public void onOpen(WebSocket webSocket) {
+        final CompletionStage<?> connected;
+        try {
+            connected = handler.onConnected();
+        } catch (Exception e) {
+            onOpenFailed(webSocket, e);
+            return;
+        }
+
+        connected.whenComplete((ignored, error) -> {
+            if (error != null)
+                onOpenFailed(webSocket, error);
+            else
+                webSocket.request(1);
+        });
+    }
+
+    private void onOpenFailed(WebSocket webSocket, Throwable error) {
+        Logger.exception(error, "NotificationSocket.onOpen: %s", error.getMessage());
+        webSocket.abort();
+        handler.onClosed(error);
+    }
+
+    private void onFrameFailed(WebSocket webSocket, Throwable error) {
+        Logger.exception(error, "NotificationSocket.onFrame: %s", error.getMessage());
+        webSocket.abort();
+        handler.onClosed(error);
+    }
+
+    @Override
+    public CompletionStage<?> onBinary(WebSocket webSocket, ByteBuffer data, boolean last) {
+        final byte[] bytes = new byte[data.remaining()];
+        data.get(bytes);
+        frame.write(bytes, 0, bytes.length);
+        return onFrame(webSocket, last);
+    }
+
+    @Override
+    public CompletionStage<?> onText(WebSocket webSocket, CharSequence data, boolean last) {
+        final byte[] bytes = data.toString().getBytes(StandardCharsets.UTF_8);
+        frame.write(bytes, 0, bytes.length);
+        return onFrame(webSocket, last);
+    }
+
+    @Override
+    public CompletionStage<?> onPong(WebSocket webSocket, ByteBuffer message) {
+        handler.onPong();
+        webSocket.request(1);
+        return null;
+    }
+
+    @Override
+    public CompletionStage<?> onClose(WebSocket webSocket, int statusCode, String reason) {
+        Logger.info("NotificationSocket: closed: %d %s", statusCode, reason);
+        handler.onClosed(null);
+        return null;
+    }
+
+    @Override
+    public void onError(WebSocket webSocket, Throwable error) {
+        Logger.exception(error, "NotificationSocket.onError: %s", error.getMessage());
+        handler.onClosed(error);
+    }
+
+    private CompletionStage<?> onFrame(WebSocket webSocket, boolean last) {
+        if (!last) {
+            webSocket.request(1);
+            return null;
+        }
+
+        final CompletionStage<?> handled;
+        try {
+            final Event event = mapper.readValue(frame.toByteArray(), Event.class);
+            frame.reset();
+
+            handled = event.id != null && event.payload != null ? handler.onEvent(event) : null;
+        } catch (Exception e) {
+            frame.reset();
+            onFrameFailed(webSocket, e);
+            return null;
+        }
+
+        if (handled == null) {
+            webSocket.request(1);
+            return null;
+        }
+
+        handled.whenComplete((ignored, error) -> {
+            if (error != null)
+                onFrameFailed(webSocket, error);
+            else
+                webSocket.request(1);
+        });
+        return null;
+    }
+
+    interface Handler {
+        /**
+         * Called once the socket is open. Must not block the callback thread.
+         *
+         * @return completes once the first notification can be requested
+         */
+        CompletionStage<?> onConnected() throws Exception;
+
+        /**
+         * @return completes once the notification is committed, null if there was nothing to commit
+         */
+        CompletionStage<?> onEvent(Event event) throws Exception;
+
+        /**
+         * The server answered a ping. Pongs are held back like frames while a notification is being committed.
+         */
+        void onPong();
+
+        /**
+         * @param error null if the socket was closed by the server
+         */
+        void onClosed(Throwable error);
+    }
+}
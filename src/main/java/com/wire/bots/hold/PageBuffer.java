@@ -0,0 +1,82 @@
+package com.wire.bots.hold;
+
+import com.wire.bots.hold.DAO.AssetJobsDAO;
+import com.wire.bots.hold.DAO.AssetsDAO;
+import com.wire.bots.hold.DAO.EventsDAO;
+import com.wire.bots.hold.model.database.AssetJob;
+import com.wire.bots.hold.model.database.Event;
+import com.wire.bots.hold.utils.ExportCache;
+import com.wire.bots.hold.utils.SeenEvents;
+import org.jdbi.v3.core.Handle;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Rows produced while decrypting one notification page, written in batches once the page is persisted.
+ */
+public class PageBuffer {
+    private final List<Event> events = new ArrayList<>();
+    // Keyed by messageId: one batched upsert must not touch the same row twice
+    private final Map<UUID, AssetsDAO.Asset> mimeTypes = new LinkedHashMap<>();
+    private final Map<UUID, AssetJob> assetJobs = new LinkedHashMap<>();
+
+    void addEvent(Event event) {
+        events.add(event);
+    }
+
+    void addMimeType(UUID messageId, String mimeType) {
+        AssetsDAO.Asset asset = new AssetsDAO.Asset();
+        asset.messageId = messageId;
+        asset.mimeType = mimeType;
+        mimeTypes.put(messageId, asset);
+    }
+
+    void addAssetJob(AssetJob job) {
+        assetJobs.put(job.messageId, job);
+    }
+
+    /**
+     * Records the events of the page as stored, once it is committed.
+     */
+    public void markSeen(SeenEvents seen) {
+        for (Event event : events) {
+            seen.add(event.eventId);
+        }
+    }
+
+    /**
+     * Drops the rendered exports of the conversations the page added to, once it is committed.
+     */
+    public void invalidateExports(ExportCache exports) {
+        final Set<UUID> conversations = new HashSet<>();
+        for (Event event : events) {
+            if (conversations.add(event.conversationId))
+                exports.invalidate(event.conversationId);
+        }
+    }
+
+    public int size() {
+        return events.size();
+    }
+
+    /**
+     * Writes the buffered rows using the given handle. The caller owns the transaction.
+     * @param handle handle with an open transaction
+     */
+    public void flush(Handle handle) {
+        if (!events.isEmpty())
+            handle.attach(EventsDAO.class).insert(events);
+
+        if (!mimeTypes.isEmpty())
+            handle.attach(AssetsDAO.class).insertMimeTypes(mimeTypes.values());
+
+        if (!assetJobs.isEmpty())
+            handle.attach(AssetJobsDAO.class).insert(assetJobs.values());
+    }
+}
@@ -0,0 +1,178 @@
+package com.wire.bots.hold;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.wire.bots.hold.DAO.AccessDAO;
+import com.wire.bots.hold.utils.ExportCache;
+import com.wire.bots.hold.utils.SeenEvents;
+import com.wire.xenon.tools.Logger;
+import io.dropwizard.lifecycle.Managed;
+import org.jdbi.v3.core.Jdbi;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Last stage of the ingestion pipeline: commits decrypted pages together with their {@code Access.last} checkpoint.
+ * <p>
+ *     Pages are spread over a fixed number of lanes by user, each lane with its own bounded queue and a single writer
+ *     thread, so the pages of one device are always committed in the order they were fetched. When Postgres slows
+ *     down the lane queues fill up and {@link #submit(NotificationPage)} blocks the fetching workers.
+ * </p>
+ * <p>
+ *     The checkpoint is only moved while this replica still holds the lease on the device and the device is enabled,
+ *     otherwise the whole page is rolled back and left to the new owner, or dropped with the removed device.
+ * </p>
+ * <p>
+ *     On shutdown the lanes first commit what is still queued, for at most {@code DRAIN_TIMEOUT}. Pages left after
+ *     that are cancelled and fetched again from {@code Access.last}.
+ * </p>
+ */
+public class PersistStage implements Managed {
+    private static final long DRAIN_TIMEOUT = 10_000;  // ms the lanes get to commit what is queued on shutdown
+    private static final long POLL_TIMEOUT = 100;      // ms
+    private final Jdbi jdbi;
+    private final String owner;
+    private final SeenEvents seen;
+    private final ExportCache exports;
+    private final Lane[] lanes;
+    private final MetricRegistry metrics;
+    private final Timer persistTimer;
+    private final Meter persistedEvents;
+    private volatile boolean stopping;
+
+    /**
+     * @param owner lease owner of this replica, see {@link DeviceLeases}
+     * @param seen  the events of every committed page are added here
+     * @param exports the exports of the conversations of every committed page are dropped here
+     */
+    PersistStage(Jdbi jdbi, String owner, SeenEvents seen, ExportCache exports, int lanes, int queueSize, MetricRegistry metrics) {
+        this.jdbi = jdbi;
+        this.owner = owner;
+        this.seen = seen;
+        this.exports = exports;
+        this.lanes = new Lane[lanes];
+        for (int i = 0; i < lanes; i++) {
+            this.lanes[i] = new Lane(i, queueSize);
+        }
+
+        this.metrics = metrics;
+        persistTimer = metrics.timer(MetricRegistry.name(PersistStage.class, "pages"));
+        persistedEvents = metrics.meter(MetricRegistry.name(PersistStage.class, "events"));
+        metrics.gauge(MetricRegistry.name(PersistStage.class, "queue"), () -> (Gauge<Integer>) this::queued);
+    }
+
+    /**
+     * Queues the page for persisting, blocking while the lane of this user is full.
+     * @param page decrypted page
+     * @return completes once the page and its checkpoint are committed
+     * @throws InterruptedException if interrupted while waiting for space in the lane
+     */
+    CompletableFuture<Void> submit(NotificationPage page) throws InterruptedException {
+        try {
+            lanes[Math.floorMod(page.userId.hashCode(), lanes.length)].queue.put(page);
+        } catch (InterruptedException e) {
+            page.cancel("Interrupted");
+            throw e;
+        }
+        return page.committed;
+    }
+
+    int queued() {
+        int queued = 0;
+        for (Lane lane : lanes) {
+            queued += lane.queue.size();
+        }
+        return queued;
+    }
+
+    @Override
+    public void start() {
+        for (Lane lane : lanes) {
+            lane.start();
+        }
+    }
+
+    @Override
+    public void stop() throws InterruptedException {
+        // The workers are stopped by now, so the queues only get shorter
+        stopping = true;
+        final long deadline = System.currentTimeMillis() + DRAIN_TIMEOUT;
+        for (Lane lane : lanes) {
+            lane.join(Math.max(1, deadline - System.currentTimeMillis()));
+        }
+
+        for (Lane lane : lanes) {
+            lane.interrupt();
+        }
+        for (Lane lane : lanes) {
+            lane.join();
+        }
+    }
+
+    private void persist(NotificationPage page) {
+        if (page.drain.failed) {
+            page.cancel("Previous page failed");
+            return;
+        }
+
+        try (Timer.Context ignored = persistTimer.time()) {
+            jdbi.useTransaction(handle -> {
+                // First, so a removal waits on the lock of the Access row until this page is committed
+                final int updated = handle.attach(AccessDAO.class)
+                        .updateLast(page.userId.id, page.userId.domain, page.last, owner);
+                if (updated == 0)
+                    throw new IllegalStateException("Lost the lease on the device of " + page.userId + " or it was removed");
+
+                page.rows.flush(handle);
+                page.sessions.flush(handle);
+            });
+
+            page.sessions.committed();
+            page.rows.markSeen(seen);
+            page.rows.invalidateExports(exports);
+            persistedEvents.mark(page.rows.size());
+            page.committed.complete(null);
+        } catch (Exception e) {
+            page.drain.failed = true;
+            page.sessions.discarded();
+            page.committed.completeExceptionally(e);
+            metrics.meter(MetricRegistry.name(PersistStage.class, "failures", e.getClass().getSimpleName())).mark();
+            Logger.exception(e, "PersistStage: user: %s, last: %s, error: %s", page.userId, page.last, e.getMessage());
+        }
+    }
+
+    private class Lane extends Thread {
+        final BlockingQueue<NotificationPage> queue;
+
+        Lane(int index, int queueSize) {
+            super("persist-" + index);
+            this.queue = new ArrayBlockingQueue<>(queueSize);
+        }
+
+        @Override
+        public void run() {
+            while (!isInterrupted()) {
+                try {
+                    final NotificationPage page = queue.poll(POLL_TIMEOUT, TimeUnit.MILLISECONDS);
+                    if (page != null)
+                        persist(page);
+                    else if (stopping)
+                        break;
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+
+            // Did not drain in time, fail the rest so nothing waits on it forever
+            NotificationPage page;
+            while ((page = queue.poll()) != null) {
+                page.cancel("Shutting down");
+            }
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package com.wire.bots.hold;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.wire.bots.hold.model.database.LHAccess;
+import com.wire.xenon.backend.models.QualifiedId;
+import com.wire.xenon.tools.Logger;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Polls every legal hold device leased to this replica on its own schedule.
+ * <p>
+ *     Each device has a next poll time kept in a priority queue. A device that had new notifications is polled again
+ *     after {@code minInterval}, or right away if it still has a backlog. Every poll that comes back empty doubles the
+ *     interval up to {@code maxInterval}, so idle devices cost few backend calls while active ones are followed closely.
+ * </p>
+ * <p>
+ *     {@link #run()} is meant to be ticked at a short fixed rate: it refreshes the devices leased to this replica
+ *     (see {@link DeviceLeases}) every {@code sleep} and hands the due devices to the worker pool. A device is never
+ *     handed to more than one worker at a time so its notifications are always processed strictly in order.
+ * </p>
+ * <p>
+ *     Devices confirmed or removed in between are added or dropped as soon as the {@link AccessChangeListener}
+ *     hears about them, a new device is polled right away.
+ * </p>
+ */
+public class PollScheduler implements Runnable, AccessChangeListener.Handler {
+    private final DeviceLeases leases;
+    private final NotificationProcessor processor;
+    private final Executor workers;
+    private final long minInterval;
+    private final long maxInterval;
+    private final long refreshInterval;
+    private final Clock clock;
+    private final Timer refreshTimer;
+    private final PriorityQueue<Schedule> queue = new PriorityQueue<>(Comparator.comparingLong(s -> s.nextPoll));
+    private final Map<QualifiedId, Schedule> schedules = new HashMap<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile long nextRefresh;
+
+    /**
+     * @param config    poll intervals
+     * @param sleep     how often the device leases are refreshed
+     * @param workers   bounded pool the devices are polled on
+     * @param workQueue the work queue backing the pool, exposed as the queue depth metric
+     * @param metrics   registry for the scheduler metrics
+     */
+    PollScheduler(DeviceLeases leases,
+                  NotificationProcessor processor,
+                  Config.Notifications config,
+                  io.dropwizard.util.Duration sleep,
+                  Executor workers,
+                  BlockingQueue<Runnable> workQueue,
+                  MetricRegistry metrics) {
+        this(leases, processor, config, sleep, workers, workQueue, metrics, Clock.systemUTC());
+    }
+
+    PollScheduler(DeviceLeases leases,
+                  NotificationProcessor processor,
+                  Config.Notifications config,
+                  io.dropwizard.util.Duration sleep,
+                  Executor workers,
+                  BlockingQueue<Runnable> workQueue,
+                  MetricRegistry metrics,
+                  Clock clock) {
+        this.leases = leases;
+        this.processor = processor;
+        this.workers = workers;
+        this.minInterval = config.minInterval.toMilliseconds();
+        this.maxInterval = Math.max(config.maxInterval.toMilliseconds(), minInterval);
+        this.refreshInterval = sleep.toMilliseconds();
+        this.clock = clock;
+        this.refreshTimer = metrics.timer(MetricRegistry.name(PollScheduler.class, "refresh"));
+
+        metrics.gauge(MetricRegistry.name(PollScheduler.class, "queue"), () -> (Gauge<Integer>) workQueue::size);
+        metrics.gauge(MetricRegistry.name(PollScheduler.class, "inflight"), () -> (Gauge<Integer>) inFlight::get);
+        metrics.gauge(MetricRegistry.name(PollScheduler.class, "devices"), () -> (Gauge<Integer>) this::size);
+        metrics.gauge(MetricRegistry.name(PollScheduler.class, "idle"), () -> (Gauge<Integer>) this::idle);
+    }
+
+    @Override
+    public void run() {
+        try {
+            tick(clock.millis());
+        } catch (Exception e) {
+            Logger.exception(e, "PollScheduler: %s", e.getMessage());
+        }
+    }
+
+    void tick(long now) {
+        if (now >= nextRefresh) {
+            refresh(now);
+            nextRefresh = now + refreshInterval;
+        }
+
+        dispatch(now);
+    }
+
+    @Override
+    public void onEnabled(LHAccess device) {
+        final long now = clock.millis();
+        synchronized (this) {
+            final Schedule schedule = schedules.get(device.userId);
+            if (schedule == null) {
+                final Schedule added = new Schedule(device, now);
+                schedules.put(device.userId, added);
+                queue.add(added);
+            } else {
+                schedule.removed = false;
+                if (!schedule.inFlight)
+                    schedule.device = device;
+                return;
+            }
+        }
+        dispatch(now);
+    }
+
+    @Override
+    public synchronized void onDisabled(QualifiedId userId) {
+        final Schedule schedule = schedules.get(userId);
+        if (schedule == null)
+            return;
+
+        schedule.removed = true;
+        if (!schedule.inFlight)
+            schedules.remove(userId, schedule);
+    }
+
+    @Override
+    public void onResync() {
+        nextRefresh = 0;
+    }
+
+    private void dispatch(long now) {
+        for (Schedule schedule : due(now)) {
+            try {
+                workers.execute(() -> poll(schedule));
+            } catch (RejectedExecutionException e) {
+                Logger.warning("PollScheduler: work queue is full, deferring user: %s", schedule.device.userId);
+                inFlight.decrementAndGet();
+                synchronized (this) {
+                    schedule.inFlight = false;
+                    schedule.nextPoll = now + minInterval;
+                    if (schedule.removed)
+                        schedules.remove(schedule.device.userId, schedule);
+                    else
+                        queue.add(schedule);
+                }
+            }
+        }
+    }
+
+    private void refresh(long now) {
+        final List<LHAccess> devices;
+        try (Timer.Context ignored = refreshTimer.time()) {
+            devices = leases.refresh();
+        }
+        final Set<QualifiedId> enabled = new HashSet<>();
+
+        synchronized (this) {
+            for (LHAccess device : devices) {
+                enabled.add(device.userId);
+
+                final Schedule schedule = schedules.get(device.userId);
+                if (schedule == null) {
+                    final Schedule added = new Schedule(device, now);
+                    schedules.put(device.userId, added);
+                    queue.add(added);
+                } else {
+                    schedule.removed = false;
+                    if (!schedule.inFlight)
+                        schedule.device = device;
+                }
+            }
+
+            // Removed devices are skipped once they come up in the queue, the ones still being polled are dropped
+            // when their worker is done so a device that is enabled again is never polled twice at the same time
+            schedules.values().removeIf(schedule -> {
+                schedule.removed = !enabled.contains(schedule.device.userId);
+                return schedule.removed && !schedule.inFlight;
+            });
+        }
+
+        Logger.info("Devices: %d, idle: %d, inflight: %d", devices.size(), idle(), inFlight.get());
+    }
+
+    private synchronized List<Schedule> due(long now) {
+        final List<Schedule> due = new ArrayList<>();
+        while (!queue.isEmpty() && queue.peek().nextPoll <= now) {
+            final Schedule schedule = queue.poll();
+            if (schedule.removed)
+                continue;
+
+            schedule.inFlight = true;
+            inFlight.incrementAndGet();
+            due.add(schedule);
+        }
+        return due;
+    }
+
+    private void poll(Schedule schedule) {
+        final UUID before = schedule.device.last;
+        boolean caughtUp = false;
+        try {
+            caughtUp = processor.drain(schedule.device, true);
+        } finally {
+            final boolean active = !Objects.equals(before, schedule.device.last);
+            reschedule(schedule, active, caughtUp, clock.millis());
+            inFlight.decrementAndGet();
+        }
+    }
+
+    private synchronized void reschedule(Schedule schedule, boolean active, boolean caughtUp, long now) {
+        schedule.inFlight = false;
+        if (schedule.removed) {
+            schedules.remove(schedule.device.userId, schedule);
+            return;
+        }
+
+        if (active) {
+            schedule.interval = minInterval;
+            schedule.nextPoll = caughtUp ? now + minInterval : now;
+        } else {
+            schedule.interval = Math.min(schedule.interval * 2, maxInterval);
+            schedule.nextPoll = now + schedule.interval;
+        }
+        queue.add(schedule);
+    }
+
+    synchronized int size() {
+        return schedules.size();
+    }
+
+    synchronized int idle() {
+        return (int) schedules.values().stream().filter(s -> s.interval >= maxInterval).count();
+    }
+
+    private class Schedule {
+        LHAccess device;
+        long nextPoll;
+        long interval = minInterval;
+        boolean inFlight;
+        boolean removed;
+
+        Schedule(LHAccess device, long nextPoll) {
+            this.device = device;
+            this.nextPoll = nextPoll;
+        }
+    }
+}
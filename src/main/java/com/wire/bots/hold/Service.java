@@ -17,12 +17,17 @@
 
 package com.wire.bots.hold;
 
+import com.codahale.metrics.Gauge;
 import com.codahale.metrics.MetricRegistry;
 import com.fasterxml.jackson.jaxrs.json.JacksonJsonProvider;
 import com.wire.bots.cryptobox.CryptoException;
+import com.wire.bots.cryptobox.IStorage;
 import com.wire.bots.hold.DAO.AccessDAO;
+import com.wire.bots.hold.DAO.AssetJobsDAO;
 import com.wire.bots.hold.DAO.EventsDAO;
+import com.wire.bots.hold.DAO.ExportJobsDAO;
 import com.wire.bots.hold.DAO.MetadataDAO;
+import com.wire.bots.hold.DAO.ReplicasDAO;
 import com.wire.bots.hold.filters.ServiceAuthenticationFilter;
 import com.wire.bots.hold.healthchecks.SanityCheck;
 import com.wire.bots.hold.monitoring.ApiVersionResource;
@@ -35,16 +40,26 @@ import com.wire.bots.hold.resource.v0.backend.RemoveResourceV0;
 import com.wire.bots.hold.resource.v1.backend.ConfirmResourceV1;
 import com.wire.bots.hold.resource.v1.backend.InitiateResourceV1;
 import com.wire.bots.hold.resource.v1.backend.RemoveResourceV1;
+import com.wire.bots.hold.service.ConversationExporter;
 import com.wire.bots.hold.service.DeviceManagementService;
+import com.wire.bots.hold.utils.AccessTokenCache;
+import com.wire.bots.hold.utils.AssetDownloader;
+import com.wire.bots.hold.utils.AssetStorage;
+import com.wire.bots.hold.utils.CoalescingStorage;
+import com.wire.bots.hold.utils.CryptoCache;
 import com.wire.bots.hold.utils.CryptoDatabaseFactory;
+import com.wire.bots.hold.utils.DeviceRegistry;
+import com.wire.bots.hold.utils.ExportCache;
+import com.wire.bots.hold.utils.FileAssetStorage;
 import com.wire.bots.hold.utils.HoldClientRepo;
+import com.wire.bots.hold.utils.PdfRenderer;
 import com.wire.bots.hold.utils.ImagesBundle;
+import com.wire.bots.hold.utils.SeenEvents;
 import com.wire.helium.LoginClient;
 import com.wire.xenon.Const;
 import com.wire.xenon.backend.models.QualifiedId;
 import com.wire.xenon.crypto.Crypto;
 import com.wire.xenon.crypto.CryptoDatabase;
-import com.wire.xenon.crypto.storage.JdbiStorage;
 import io.dropwizard.Application;
 import io.dropwizard.assets.AssetsBundle;
 import io.dropwizard.client.JerseyClientBuilder;
@@ -64,10 +79,10 @@ import org.jdbi.v3.core.Jdbi;
 import org.jdbi.v3.sqlobject.SqlObjectPlugin;
 
 import javax.ws.rs.client.Client;
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.UUID;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.*;
 
 public class Service extends Application<Config> {
     public static Service instance;
@@ -99,12 +114,14 @@ public class Service extends Application<Config> {
 
         bootstrap.addBundle(new JdbiExceptionsBundle());
 
+        bootstrap.addCommand(new MoveAssetsCommand());
+
         Application<Config> application = bootstrap.getApplication();
         instance = (Service) application;
     }
 
     @Override
-    public void run(Config config, Environment environment) throws ExecutionException, InterruptedException {
+    public void run(Config config, Environment environment) throws ExecutionException, InterruptedException, IOException {
         this.config = config;
         this.environment = environment;
         Service.metrics = environment.metrics();
@@ -115,15 +132,64 @@ public class Service extends Application<Config> {
         setupDatabase(config.database);
 
         final Client httpClient = createHttpClient(config, environment);
+        // Lets the driver collapse the per-page @SqlBatch inserts into multi-row statements. Kept next to the
+        // properties set in hold.yaml, which replace the defaults of Config.Database
+        config.database.getProperties().putIfAbsent("reWriteBatchedInserts", "true");
         jdbi = buildJdbi(config.database, environment);
 
-        final CryptoDatabaseFactory cf = getCryptoFactory(jdbi);
+        final CoalescingStorage cryptoStorage = new CoalescingStorage(jdbi);
+        final CryptoDatabaseFactory cf = getCryptoFactory(cryptoStorage);
+        metrics.gauge(MetricRegistry.name(CoalescingStorage.class, "pending"), () -> (Gauge<Integer>) cryptoStorage::pending);
 
         final AccessDAO accessDAO = jdbi.onDemand(AccessDAO.class);
         final EventsDAO eventsDAO = jdbi.onDemand(EventsDAO.class);
         final MetadataDAO metadataDAO = jdbi.onDemand(MetadataDAO.class);
+        final AssetStorage assetStorage = new FileAssetStorage(Paths.get(config.assets.storagePath));
+        final ExportCache exportCache = new ExportCache(
+                Paths.get(config.exports.cachePath),
+                config.exports.cacheSize.toBytes(),
+                metrics
+        );
+        final AssetStorage exportJobStorage = new FileAssetStorage(Paths.get(config.exports.jobStoragePath));
+        final ConversationExporter exporter = new ConversationExporter(jdbi, httpClient, assetStorage);
+        final PdfRenderer renderer = new PdfRenderer(
+                config.exports.renderThreads,
+                config.exports.renderQueue,
+                config.exports.renderWait.toMilliseconds(),
+                metrics
+        );
 
-        final DeviceManagementService deviceManagementService = new DeviceManagementService(accessDAO, cf);
+        final DeviceRegistry registry = new DeviceRegistry(accessDAO);
+        environment.lifecycle().manage(registry);
+        metrics.gauge(MetricRegistry.name(DeviceRegistry.class, "size"), () -> (Gauge<Integer>) registry::size);
+
+        final AccessTokenCache tokens = new AccessTokenCache(
+                new LoginClient(httpClient),
+                registry,
+                config.notifications.tokenRenewMargin.toJavaDuration(),
+                config.notifications.tokenRenewJitter.toJavaDuration()
+        );
+
+        // Registered first so the cryptoboxes are closed only once nothing decrypts anymore
+        final CryptoCache cryptoCache = new CryptoCache(
+                cf,
+                config.notifications.cryptoCacheSize,
+                config.notifications.cryptoIdleTime.toJavaDuration()
+        );
+        environment.lifecycle().manage(cryptoCache);
+        environment.lifecycle()
+                .scheduledExecutorService("crypto-cache")
+                .build()
+                .scheduleWithFixedDelay(cryptoCache::evictIdle, 1, 1, TimeUnit.MINUTES);
+        metrics.gauge(MetricRegistry.name(CryptoCache.class, "size"), () -> (Gauge<Integer>) cryptoCache::size);
+
+        // Bounded so a batch of thousands of users does not generate all their prekeys at once
+        final ExecutorService cryptoPool = environment.lifecycle()
+                .executorService("crypto-%d")
+                .minThreads(config.cryptoThreads)
+                .maxThreads(config.cryptoThreads)
+                .build();
+        final DeviceManagementService deviceManagementService = new DeviceManagementService(registry, cf, cryptoCache, tokens, cryptoPool);
 
         // Monitoring resources
         addResource(new StatusResource());
@@ -142,8 +208,10 @@ public class Service extends Application<Config> {
         addResource(new AuthorizeResource());
         addResource(new DevicesResource(accessDAO, cf));
         addResource(new EventsResource(eventsDAO));
-        addResource(new ConversationResource(jdbi, httpClient));
+        addResource(new ConversationResource(exporter, exportCache, renderer));
         addResource(new IndexResource(eventsDAO));
+        addResource(new AssetJobsResource(jdbi.onDemand(AssetJobsDAO.class)));
+        addResource(new ExportJobsResource(jdbi.onDemand(ExportJobsDAO.class), exportJobStorage));
 
         addResource(ServiceAuthenticationFilter.ServiceAuthenticationFeature.class);
 
@@ -165,15 +233,145 @@ public class Service extends Application<Config> {
             new SanityCheck(accessDAO, httpClient)
         );
 
-        final HoldClientRepo repo = new HoldClientRepo(jdbi, cf, httpClient);
+        final HoldClientRepo repo = new HoldClientRepo(registry, cryptoCache, httpClient);
 
-        final HoldMessageResource holdMessageResource = new HoldMessageResource(new MessageHandler(jdbi), repo);
-        final NotificationProcessor notificationProcessor = new NotificationProcessor(httpClient, accessDAO, holdMessageResource);
+        final SeenEvents seenEvents = new SeenEvents(config.notifications.seenEvents);
+        final MessageHandler messageHandler = new MessageHandler(jdbi, seenEvents, exportCache, metrics);
+        final HoldMessageResource holdMessageResource = new HoldMessageResource(messageHandler, repo, metrics);
+
+        // Registered first so the leases are released only once nothing is processed anymore
+        final DeviceLeases leases = new DeviceLeases(
+                accessDAO,
+                jdbi.onDemand(ReplicasDAO.class),
+                registry,
+                config.notifications.leaseTime.toSeconds(),
+                metrics
+        );
+        environment.lifecycle().manage(leases);
+
+        // Registered before the workers so it is stopped after them and commits what they queued before it stops
+        final PersistStage persistStage = new PersistStage(
+                jdbi,
+                leases.getOwner(),
+                seenEvents,
+                exportCache,
+                config.notifications.persistLanes,
+                config.notifications.persistQueueSize,
+                metrics
+        );
+        environment.lifecycle().manage(persistStage);
+
+        final BlockingQueue<Runnable> workQueue = new LinkedBlockingQueue<>(config.notifications.queueSize);
+        final ExecutorService workers = environment.lifecycle()
+                .executorService("notification-worker-%d")
+                .minThreads(config.notifications.workers)
+                .maxThreads(config.notifications.workers)
+                .workQueue(workQueue)
+                .build();
+
+        final NotificationProcessor notificationProcessor = new NotificationProcessor(
+                httpClient,
+                accessDAO,
+                registry,
+                tokens,
+                holdMessageResource,
+                messageHandler,
+                cryptoStorage,
+                persistStage,
+                seenEvents,
+                config.notifications,
+                metrics
+        );
 
+        // Assets are downloaded apart from the ingestion, see MessageHandler.onAssetData
+        final AssetWorker assetWorker = new AssetWorker(
+                jdbi,
+                registry,
+                tokens,
+                new AssetDownloader(httpClient, config.apiHost),
+                assetStorage,
+                environment.lifecycle()
+                        .executorService("asset-worker-%d")
+                        .minThreads(config.assets.workers)
+                        .maxThreads(config.assets.workers)
+                        .build(),
+                config.assets,
+                metrics
+        );
         environment.lifecycle()
-                .scheduledExecutorService("notifications")
+                .scheduledExecutorService("asset-jobs")
                 .build()
-                .scheduleWithFixedDelay(notificationProcessor, 10, config.sleep.toSeconds(), TimeUnit.SECONDS);
+                .scheduleWithFixedDelay(assetWorker, config.assets.pollInterval.toSeconds(), config.assets.pollInterval.toSeconds(), TimeUnit.SECONDS);
+
+        // Large exports are rendered apart from the request threads, see ExportJobsResource
+        final ExportWorker exportWorker = new ExportWorker(
+                jdbi,
+                exporter,
+                renderer,
+                exportJobStorage,
+                environment.lifecycle()
+                        .executorService("export-worker-%d")
+                        .minThreads(config.exports.jobWorkers)
+                        .maxThreads(config.exports.jobWorkers)
+                        .build(),
+                config.exports,
+                metrics
+        );
+        environment.lifecycle()
+                .scheduledExecutorService("export-jobs")
+                .build()
+                .scheduleWithFixedDelay(exportWorker, config.exports.jobPollInterval.toSeconds(), config.exports.jobPollInterval.toSeconds(), TimeUnit.SECONDS);
+
+        final ScheduledExecutorService notifications = environment.lifecycle()
+                .scheduledExecutorService("notifications")
+                .build();
+
+        final AccessChangeListener.Handler ingestion;
+        if (config.notifications.mode == Config.IngestionMode.WEBSOCKET) {
+            // The socket callbacks get threads of their own, the gap filling is handed to the workers
+            final ExecutorService sockets = environment.lifecycle()
+                    .executorService("notification-socket-%d")
+                    .minThreads(config.notifications.workers)
+                    .maxThreads(config.notifications.workers)
+                    .build();
+            final WebSocketIngestion webSocketIngestion = new WebSocketIngestion(
+                    leases,
+                    tokens,
+                    notificationProcessor,
+                    getWebsocketUrl(config),
+                    sockets,
+                    workers,
+                    metrics
+            );
+            environment.lifecycle().manage(webSocketIngestion);
+            notifications.scheduleWithFixedDelay(webSocketIngestion, 10, config.sleep.toSeconds(), TimeUnit.SECONDS);
+            ingestion = webSocketIngestion;
+        } else {
+            final PollScheduler pollScheduler = new PollScheduler(
+                    leases,
+                    notificationProcessor,
+                    config.notifications,
+                    config.sleep,
+                    workers,
+                    workQueue,
+                    metrics
+            );
+            // Ticks often, each device is polled on its own schedule
+            notifications.scheduleWithFixedDelay(pollScheduler, 10, 1, TimeUnit.SECONDS);
+            ingestion = pollScheduler;
+        }
+
+        // New and removed devices are picked up right away instead of at the next refresh
+        if (config.notifications.listenChanges) {
+            environment.lifecycle().manage(new AccessChangeListener(
+                    config.database,
+                    leases,
+                    registry,
+                    tokens,
+                    ingestion,
+                    metrics
+            ));
+        }
 
         CollectorRegistry.defaultRegistry.register(new DropwizardExports(metrics));
 
@@ -188,6 +386,13 @@ public class Service extends Application<Config> {
         return jdbi;
     }
 
+    private static String getWebsocketUrl(Config config) {
+        if (config.notifications.websocketUrl != null && !config.notifications.websocketUrl.isEmpty())
+            return config.notifications.websocketUrl;
+
+        return config.apiHost.replaceFirst("^http", "ws") + "/await";
+    }
+
     protected void addResource(Object component) {
         environment.jersey().register(component);
     }
@@ -215,7 +420,7 @@ public class Service extends Application<Config> {
         flyway.migrate();
     }
 
-    public CryptoDatabaseFactory getCryptoFactory(Jdbi jdbi) {
+    public CryptoDatabaseFactory getCryptoFactory(IStorage storage) {
         return new CryptoDatabaseFactory() {
             @Override
             public Crypto create(UUID botId) throws CryptoException {
@@ -223,7 +428,7 @@ public class Service extends Application<Config> {
                 //  but in the Xenon library used by bots and LegalHold, this param was called botId
                 return new CryptoDatabase(
                     new QualifiedId(botId, null),
-                    new JdbiStorage(jdbi)
+                    storage
                 );
             }
 
@@ -231,7 +436,7 @@ public class Service extends Application<Config> {
             public Crypto create(QualifiedId userId) throws CryptoException {
                 return new CryptoDatabase(
                     userId,
-                    new JdbiStorage(jdbi)
+                    storage
                 );
             }
         };
@@ -0,0 +1,254 @@
+package com.wire.bots.hold;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.wire.bots.hold.model.database.LHAccess;
+import com.wire.bots.hold.utils.AccessTokenCache;
+import com.wire.helium.models.Event;
+import com.wire.xenon.backend.models.QualifiedId;
+import com.wire.xenon.tools.Logger;
+import io.dropwizard.lifecycle.Managed;
+
+import java.net.http.HttpClient;
+import java.net.http.WebSocket;
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Push based ingestion: keeps one notification websocket open per legal hold client.
+ * <p>
+ *     Every time a socket is (re)opened the notifications missed since {@code Access.last} are fetched with
+ *     {@link NotificationProcessor#drain(LHAccess, boolean)} on the notification workers first, then the pushed
+ *     notifications are processed as they arrive on the threads of the websocket client, each one committed before
+ *     the next is requested.
+ * </p>
+ * <p>
+ *     {@link #run()} is scheduled with the usual {@code sleep} delay and opens sockets for the devices leased to this
+ *     replica, reconnects dropped ones and closes the sockets of devices that are no longer enabled or leased. It
+ *     also pings every socket, one that did not answer the previous ping is dropped and opened again on the next run.
+ *     Devices confirmed or removed in between are connected or closed as soon as the {@link AccessChangeListener}
+ *     hears about them.
+ * </p>
+ */
+public class WebSocketIngestion implements Runnable, Managed, AccessChangeListener.Handler {
+    private static final long CLOSE_GRACE_SECONDS = 5;   // Wait for the server to answer a close before aborting
+    private final DeviceLeases leases;
+    private final AccessTokenCache tokens;
+    private final NotificationProcessor processor;
+    private final Executor workers;
+    private final HttpClient http;
+    private final String url;
+    private final ConcurrentHashMap<QualifiedId, Connection> connections = new ConcurrentHashMap<>();
+
+    /**
+     * @param url     websocket endpoint, i.e. {@code wss://prod-nginz-ssl.wire.com/await}
+     * @param sockets pool of the websocket client, the socket callbacks run on
+     * @param workers bounded pool the gap filling runs on
+     */
+    WebSocketIngestion(DeviceLeases leases,
+                       AccessTokenCache tokens,
+                       NotificationProcessor processor,
+                       String url,
+                       Executor sockets,
+                       Executor workers,
+                       MetricRegistry metrics) {
+        this.leases = leases;
+        this.tokens = tokens;
+        this.processor = processor;
+        this.url = url;
+        this.workers = workers;
+        this.http = HttpClient.newBuilder()
+                .executor(sockets)
+                .build();
+
+        metrics.gauge(MetricRegistry.name(WebSocketIngestion.class, "connections"), () -> (Gauge<Integer>) connections::size);
+    }
+
+    @Override
+    public void run() {
+        refresh();
+
+        for (Connection connection : connections.values()) {
+            connection.ping();
+        }
+    }
+
+    private void refresh() {
+        try {
+            final List<LHAccess> devices = leases.refresh();
+            final Set<QualifiedId> enabled = new HashSet<>();
+
+            for (LHAccess device : devices) {
+                enabled.add(device.userId);
+                if (!connections.containsKey(device.userId))
+                    connect(device);
+            }
+
+            for (Connection connection : connections.values()) {
+                if (!enabled.contains(connection.device.userId))
+                    connection.close();
+            }
+
+            Logger.info("Devices: %d, connected: %d", devices.size(), connections.size());
+        } catch (Exception e) {
+            Logger.exception(e, "WebSocketIngestion: %s", e.getMessage());
+        }
+    }
+
+    @Override
+    public void onEnabled(LHAccess device) {
+        if (!connections.containsKey(device.userId))
+            connect(device);
+    }
+
+    @Override
+    public void onDisabled(QualifiedId userId) {
+        final Connection connection = connections.get(userId);
+        if (connection != null)
+            connection.close();
+    }
+
+    @Override
+    public void onResync() {
+        refresh();
+    }
+
+    @Override
+    public void start() {
+    }
+
+    @Override
+    public void stop() {
+        for (Connection connection : connections.values()) {
+            connection.close();
+        }
+    }
+
+    private void connect(LHAccess device) {
+        // Runs on the scheduler and on the change listener, only one of them gets to open the socket
+        final Connection connection = new Connection(device);
+        if (connections.putIfAbsent(device.userId, connection) != null)
+            return;
+
+        try {
+            final String token = tokens.getToken(device);
+
+            NotificationSocket.connect(http, url, device.clientId, token, connection)
+                    .whenComplete((webSocket, error) -> {
+                        if (error != null) {
+                            Logger.exception(error, "WebSocketIngestion: user: %s, error: %s", device.userId, error.getMessage());
+                            connections.remove(device.userId, connection);
+                        } else {
+                            connection.webSocket = webSocket;
+                            // Closed while the socket was being opened
+                            if (connection.closed)
+                                connection.close();
+                        }
+                    });
+        } catch (Exception e) {
+            Logger.exception(e, "WebSocketIngestion: user: %s, error: %s", device.userId, e.getMessage());
+            connections.remove(device.userId, connection);
+        }
+    }
+
+    /**
+     * UUIDv1 notification ids are ordered by their timestamp, anything not newer than the checkpoint was already
+     * picked up by the gap filling.
+     */
+    static boolean isNewer(UUID id, UUID last) {
+        if (last == null || id.version() != 1 || last.version() != 1)
+            return !id.equals(last);
+        return id.timestamp() > last.timestamp() || (id.timestamp() == last.timestamp() && !id.equals(last));
+    }
+
+    private class Connection implements NotificationSocket.Handler {
+        final LHAccess device;
+        final NotificationPage.Drain drain = new NotificationPage.Drain();
+        volatile WebSocket webSocket;
+        volatile boolean closed;    // Events still pushed until the server answers the close are dropped
+        volatile boolean busy;      // Filling the gap or committing, pongs are held back meanwhile
+        volatile boolean pinged;    // No pong or frame since the last ping
+
+        Connection(LHAccess device) {
+            this.device = device;
+        }
+
+        @Override
+        public CompletionStage<?> onConnected() {
+            // A full work queue throws here and the socket is opened again on the next run
+            busy = true;
+            return CompletableFuture.runAsync(() -> {
+                if (!processor.drain(device, false))
+                    throw new IllegalStateException("Could not catch up with the notifications of " + device.userId);
+            }, workers).whenComplete((ignored, error) -> idle());
+        }
+
+        @Override
+        public CompletionStage<?> onEvent(Event event) throws Exception {
+            pinged = false;
+            if (closed || !isNewer(event.id, device.last))
+                return null;
+
+            if (drain.failed)
+                throw new IllegalStateException("Failed to persist the notifications of " + device.userId);
+
+            busy = true;
+            try {
+                return processor.process(device, event, drain).whenComplete((ignored, error) -> idle());
+            } catch (Exception e) {
+                idle();
+                throw e;
+            }
+        }
+
+        @Override
+        public void onPong() {
+            pinged = false;
+        }
+
+        @Override
+        public void onClosed(Throwable error) {
+            connections.remove(device.userId, this);
+        }
+
+        private void idle() {
+            pinged = false;
+            busy = false;
+        }
+
+        void ping() {
+            final WebSocket socket = webSocket;
+            if (socket == null || closed || busy)
+                return;
+
+            if (pinged) {
+                Logger.warning("WebSocketIngestion: user: %s, no pong, reconnecting", device.userId);
+                closed = true;
+                connections.remove(device.userId, this);
+                socket.abort();
+                return;
+            }
+
+            pinged = true;
+            socket.sendPing(ByteBuffer.allocate(0));
+        }
+
+        void close() {
+            closed = true;
+            connections.remove(device.userId, this);
+            final WebSocket socket = webSocket;
+            if (socket != null) {
+                socket.sendClose(WebSocket.NORMAL_CLOSURE, "");
+                CompletableFuture.delayedExecutor(CLOSE_GRACE_SECONDS, TimeUnit.SECONDS).execute(socket::abort);
+            }
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.wire.bots.hold.model.api.v1;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.wire.xenon.backend.models.QualifiedId;
+
+import javax.validation.Valid;
+import javax.validation.constraints.NotEmpty;
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Size;
+import java.util.List;
+import java.util.UUID;
+
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class BatchConfirmPayloadV1 {
+    @JsonProperty("devices")
+    @NotNull
+    @NotEmpty
+    @Size(max = BatchInitPayloadV1.MAX_USERS)
+    @Valid
+    public List<@NotNull Device> devices;
+
+    @JsonProperty("team_id")
+    @NotNull
+    public UUID teamId;
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class Device {
+        @JsonProperty("refresh_token")
+        @NotNull
+        public String refreshToken;
+
+        @JsonProperty("client_id")
+        @NotNull
+        public String clientId;
+
+        @JsonProperty("qualified_user_id")
+        @NotNull
+        public QualifiedId userId;
+    }
+}
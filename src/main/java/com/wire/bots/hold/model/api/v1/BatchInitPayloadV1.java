@@ -0,0 +1,26 @@
+package com.wire.bots.hold.model.api.v1;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.wire.xenon.backend.models.QualifiedId;
+
+import javax.validation.constraints.NotEmpty;
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Size;
+import java.util.List;
+import java.util.UUID;
+
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class BatchInitPayloadV1 {
+    public static final int MAX_USERS = 1000;
+
+    @JsonProperty("qualified_user_ids")
+    @NotNull
+    @NotEmpty
+    @Size(max = MAX_USERS)
+    public List<@NotNull QualifiedId> userIds;
+
+    @JsonProperty("team_id")
+    @NotNull
+    public UUID teamId;
+}
@@ -0,0 +1,47 @@
+package com.wire.bots.hold.model.api.v1;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.wire.bots.hold.model.api.shared.InitResponse;
+import com.wire.bots.hold.model.dto.DeviceResultDTO;
+import com.wire.bots.hold.model.dto.InitializedDeviceDTO;
+import com.wire.xenon.backend.models.QualifiedId;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Result per user of a batch call, in the order of the request. Users that failed carry an {@code error} and can
+ * be retried on their own.
+ */
+public class BatchResponseV1 {
+    @JsonProperty
+    public List<Result> results = new ArrayList<>();
+
+    public static BatchResponseV1 of(List<DeviceResultDTO> results) {
+        final BatchResponseV1 response = new BatchResponseV1();
+        for (DeviceResultDTO dto : results) {
+            final Result result = new Result();
+            result.userId = dto.getUserId();
+            result.error = dto.getError();
+
+            final InitializedDeviceDTO device = dto.getDevice();
+            if (device != null) {
+                result.preKeys = device.getPreKeys();
+                result.lastPreKey = device.getLastPreKey();
+                result.fingerprint = device.getFingerprint();
+            }
+            response.results.add(result);
+        }
+        return response;
+    }
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public static class Result extends InitResponse {
+        @JsonProperty("qualified_user_id")
+        public QualifiedId userId;
+
+        @JsonProperty
+        public String error;
+    }
+}
@@ -0,0 +1,25 @@
+package com.wire.bots.hold.model.database;
+
+import java.util.UUID;
+
+/**
+ * Asset download queued by the ingestion, see {@link com.wire.bots.hold.DAO.AssetJobsDAO}.
+ */
+public class AssetJob {
+    public static final String PENDING = "PENDING";
+    public static final String RUNNING = "RUNNING";     // Claimed by a worker until `nextAttempt`, then pending again
+    public static final String FAILED = "FAILED";       // Out of attempts, kept until retried
+
+    public UUID messageId;
+    public UUID userId;             // Legal hold user the asset is downloaded as
+    public String userDomain;
+    public String assetId;
+    public String assetDomain;
+    public String assetToken;
+    public byte[] otrKey;
+    public byte[] sha256;
+    public String status;
+    public int attempts;
+    public String lastError;
+    public String updated;
+}
@@ -0,0 +1,26 @@
+package com.wire.bots.hold.model.database;
+
+import java.util.UUID;
+
+/**
+ * Pdf export of a conversation rendered in the background, see {@link com.wire.bots.hold.DAO.ExportJobsDAO}.
+ */
+public class ExportJob {
+    public static final String PENDING = "PENDING";
+    public static final String RUNNING = "RUNNING";     // Claimed by a worker, pending again if it stops reporting
+    public static final String DONE = "DONE";           // The pdf is stored under `blobKey`
+    public static final String FAILED = "FAILED";       // Out of attempts
+
+    public UUID jobId;
+    public UUID conversationId;
+    public String status;
+    public int attempts;
+    public int events;              // Events of the conversation, known once the worker loaded them
+    public int eventsProcessed;
+    public Integer pages;
+    public String blobKey;
+    public Long size;
+    public String lastError;
+    public String created;
+    public String updated;
+}
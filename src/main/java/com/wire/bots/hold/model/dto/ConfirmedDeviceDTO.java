@@ -0,0 +1,27 @@
+package com.wire.bots.hold.model.dto;
+
+import com.wire.xenon.backend.models.QualifiedId;
+
+public class ConfirmedDeviceDTO {
+    private final QualifiedId userId;
+    private final String clientId;
+    private final String refreshToken;
+
+    public ConfirmedDeviceDTO(QualifiedId userId, String clientId, String refreshToken) {
+        this.userId = userId;
+        this.clientId = clientId;
+        this.refreshToken = refreshToken;
+    }
+
+    public QualifiedId getUserId() {
+        return userId;
+    }
+
+    public String getClientId() {
+        return clientId;
+    }
+
+    public String getRefreshToken() {
+        return refreshToken;
+    }
+}
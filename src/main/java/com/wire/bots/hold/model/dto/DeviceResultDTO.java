@@ -0,0 +1,46 @@
+package com.wire.bots.hold.model.dto;
+
+import com.wire.xenon.backend.models.QualifiedId;
+
+/**
+ * Outcome of one user of a batch operation, see {@link com.wire.bots.hold.service.DeviceManagementService}.
+ */
+public class DeviceResultDTO {
+    private final QualifiedId userId;
+    private final InitializedDeviceDTO device;
+    private final String error;
+
+    private DeviceResultDTO(QualifiedId userId, InitializedDeviceDTO device, String error) {
+        this.userId = userId;
+        this.device = device;
+        this.error = error;
+    }
+
+    public static DeviceResultDTO ok(QualifiedId userId) {
+        return new DeviceResultDTO(userId, null, null);
+    }
+
+    public static DeviceResultDTO ok(QualifiedId userId, InitializedDeviceDTO device) {
+        return new DeviceResultDTO(userId, device, null);
+    }
+
+    public static DeviceResultDTO failed(QualifiedId userId, String error) {
+        return new DeviceResultDTO(userId, null, error);
+    }
+
+    public QualifiedId getUserId() {
+        return userId;
+    }
+
+    public InitializedDeviceDTO getDevice() {
+        return device;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public boolean isSuccess() {
+        return error == null;
+    }
+}
@@ -0,0 +1,116 @@
+package com.wire.bots.hold.resource.v0.audit;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.wire.bots.hold.DAO.AssetJobsDAO;
+import com.wire.bots.hold.filters.ServiceAuthorization;
+import com.wire.bots.hold.model.database.AssetJob;
+import com.wire.xenon.tools.Logger;
+import io.swagger.annotations.Api;
+import io.swagger.annotations.ApiOperation;
+import io.swagger.annotations.ApiResponse;
+import io.swagger.annotations.ApiResponses;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+@Api
+@Path("/assets/jobs")
+@Produces(MediaType.APPLICATION_JSON)
+public class AssetJobsResource {
+    private static final int FAILED_LIMIT = 100;
+    private final AssetJobsDAO jobsDAO;
+
+    public AssetJobsResource(AssetJobsDAO jobsDAO) {
+        this.jobsDAO = jobsDAO;
+    }
+
+    @GET
+    @ServiceAuthorization
+    @ApiOperation(value = "Asset download queue and the most recent failed downloads")
+    @ApiResponses(value = {
+            @ApiResponse(code = 500, message = "Something went wrong"),
+            @ApiResponse(code = 200, message = "Asset jobs")})
+    public Response list() {
+        try {
+            final Jobs jobs = new Jobs();
+            jobs.pending = jobsDAO.count(AssetJob.PENDING);
+            jobs.running = jobsDAO.count(AssetJob.RUNNING);
+            jobs.failedCount = jobsDAO.count(AssetJob.FAILED);
+            for (AssetJob job : jobsDAO.listFailed(FAILED_LIMIT)) {
+                final Failed failed = new Failed();
+                failed.messageId = job.messageId;
+                failed.userId = job.userId;
+                failed.assetId = job.assetId;
+                failed.attempts = job.attempts;
+                failed.error = job.lastError;
+                failed.updated = job.updated;
+                jobs.failed.add(failed);
+            }
+
+            return Response.
+                    ok(jobs).
+                    build();
+        } catch (Exception e) {
+            Logger.exception(e, "AssetJobsResource.list: %s", e.getMessage());
+            return Response
+                    .serverError()
+                    .build();
+        }
+    }
+
+    @POST
+    @Path("retry")
+    @ServiceAuthorization
+    @ApiOperation(value = "Queue all failed asset downloads again")
+    @ApiResponses(value = {
+            @ApiResponse(code = 500, message = "Something went wrong"),
+            @ApiResponse(code = 200, message = "Number of jobs queued again")})
+    public Response retry() {
+        try {
+            final int retried = jobsDAO.retryFailed();
+            Logger.info("AssetJobsResource: retrying %d failed downloads", retried);
+
+            return Response.
+                    ok(retried).
+                    build();
+        } catch (Exception e) {
+            Logger.exception(e, "AssetJobsResource.retry: %s", e.getMessage());
+            return Response
+                    .serverError()
+                    .build();
+        }
+    }
+
+    public static class Jobs {
+        @JsonProperty
+        public int pending;
+        @JsonProperty
+        public int running;
+        @JsonProperty("failed_count")
+        public int failedCount;
+        @JsonProperty
+        public List<Failed> failed = new ArrayList<>();
+    }
+
+    public static class Failed {
+        @JsonProperty("message_id")
+        public UUID messageId;
+        @JsonProperty("user_id")
+        public UUID userId;
+        @JsonProperty("asset_id")
+        public String assetId;
+        @JsonProperty
+        public int attempts;
+        @JsonProperty
+        public String error;
+        @JsonProperty
+        public String updated;
+    }
+}
@@ -0,0 +1,172 @@
+package com.wire.bots.hold.resource.v0.audit;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.wire.bots.hold.DAO.ExportJobsDAO;
+import com.wire.bots.hold.filters.ServiceAuthorization;
+import com.wire.bots.hold.model.database.ExportJob;
+import com.wire.bots.hold.utils.AssetStorage;
+import com.wire.xenon.tools.Logger;
+import io.swagger.annotations.*;
+
+import javax.ws.rs.*;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.InputStream;
+import java.nio.file.NoSuchFileException;
+import java.util.UUID;
+
+@Api
+@Path("/exports")
+@Produces(MediaType.APPLICATION_JSON)
+public class ExportJobsResource {
+    private final ExportJobsDAO jobsDAO;
+    private final AssetStorage storage;
+
+    public ExportJobsResource(ExportJobsDAO jobsDAO, AssetStorage storage) {
+        this.jobsDAO = jobsDAO;
+        this.storage = storage;
+    }
+
+    @POST
+    @Path("conv/{conversationId}")
+    @ServiceAuthorization
+    @ApiOperation(value = "Queue a pdf export of this conversation, rendered in the background")
+    @ApiResponses(value = {
+            @ApiResponse(code = 500, message = "Something went wrong"),
+            @ApiResponse(code = 202, message = "Export job")})
+    public Response create(@ApiParam @PathParam("conversationId") UUID conversationId) {
+        try {
+            final UUID jobId = UUID.randomUUID();
+            jobsDAO.insert(jobId, conversationId);
+
+            return Response.
+                    accepted(toStatus(jobsDAO.get(jobId))).
+                    build();
+        } catch (Exception e) {
+            Logger.exception(e, "ExportJobsResource.create: %s", e.getMessage());
+            return Response
+                    .serverError()
+                    .build();
+        }
+    }
+
+    @GET
+    @Path("{jobId}")
+    @ServiceAuthorization
+    @ApiOperation(value = "State and progress of an export job")
+    @ApiResponses(value = {
+            @ApiResponse(code = 500, message = "Something went wrong"),
+            @ApiResponse(code = 404, message = "Unknown or expired job"),
+            @ApiResponse(code = 200, message = "Export job")})
+    public Response get(@ApiParam @PathParam("jobId") UUID jobId) {
+        try {
+            final ExportJob job = jobsDAO.get(jobId);
+            if (job == null)
+                return Response.
+                        status(Response.Status.NOT_FOUND).
+                        build();
+
+            return Response.
+                    ok(toStatus(job)).
+                    build();
+        } catch (Exception e) {
+            Logger.exception(e, "ExportJobsResource.get: %s", e.getMessage());
+            return Response
+                    .serverError()
+                    .build();
+        }
+    }
+
+    @GET
+    @Path("{jobId}/pdf")
+    @Produces("application/pdf")
+    @ServiceAuthorization
+    @ApiOperation(value = "Pdf of a finished export job")
+    @ApiResponses(value = {
+            @ApiResponse(code = 500, message = "Something went wrong"),
+            @ApiResponse(code = 404, message = "Unknown or expired job"),
+            @ApiResponse(code = 409, message = "The job is not done"),
+            @ApiResponse(code = 410, message = "The pdf is gone from the storage"),
+            @ApiResponse(code = 200, message = "Pdf")})
+    public Response download(@ApiParam @PathParam("jobId") UUID jobId) {
+        try {
+            final ExportJob job = jobsDAO.get(jobId);
+            if (job == null)
+                return Response.
+                        status(Response.Status.NOT_FOUND).
+                        build();
+            if (!ExportJob.DONE.equals(job.status))
+                return Response.
+                        status(Response.Status.CONFLICT).
+                        build();
+
+            final InputStream in;
+            try {
+                in = storage.open(job.blobKey);
+            } catch (NoSuchFileException e) {
+                Logger.warning("ExportJobsResource.download: job: %s, pdf is missing: %s", jobId, job.blobKey);
+                return Response.
+                        status(Response.Status.GONE).
+                        build();
+            }
+            final StreamingOutput pdf = output -> {
+                try (in) {
+                    in.transferTo(output);
+                }
+            };
+            return Response.
+                    ok(pdf, "application/pdf").
+                    header(HttpHeaders.CONTENT_LENGTH, job.size).
+                    header("Content-Disposition", String.format("attachment; filename=\"%s.pdf\"", job.conversationId)).
+                    build();
+        } catch (Exception e) {
+            Logger.exception(e, "ExportJobsResource.download: %s", e.getMessage());
+            return Response
+                    .serverError()
+                    .build();
+        }
+    }
+
+    private static Status toStatus(ExportJob job) {
+        final Status status = new Status();
+        status.jobId = job.jobId;
+        status.conversationId = job.conversationId;
+        status.status = job.status;
+        status.attempts = job.attempts;
+        status.events = job.events;
+        status.eventsProcessed = job.eventsProcessed;
+        status.pages = job.pages;
+        status.size = job.size;
+        status.error = job.lastError;
+        status.created = job.created;
+        status.updated = job.updated;
+        return status;
+    }
+
+    public static class Status {
+        @JsonProperty("job_id")
+        public UUID jobId;
+        @JsonProperty("conversation_id")
+        public UUID conversationId;
+        @JsonProperty
+        public String status;
+        @JsonProperty
+        public int attempts;
+        @JsonProperty
+        public int events;
+        @JsonProperty("events_processed")
+        public int eventsProcessed;
+        @JsonProperty
+        public Integer pages;
+        @JsonProperty
+        public Long size;
+        @JsonProperty
+        public String error;
+        @JsonProperty
+        public String created;
+        @JsonProperty
+        public String updated;
+    }
+}
@@ -1,7 +1,11 @@
 package com.wire.bots.hold.resource.v1.backend;
 
 import com.wire.bots.hold.filters.ServiceAuthorization;
+import com.wire.bots.hold.model.api.v1.BatchConfirmPayloadV1;
+import com.wire.bots.hold.model.api.v1.BatchResponseV1;
 import com.wire.bots.hold.model.api.v1.ConfirmPayloadV1;
+import com.wire.bots.hold.model.dto.ConfirmedDeviceDTO;
+import com.wire.bots.hold.model.dto.DeviceResultDTO;
 import com.wire.bots.hold.service.DeviceManagementService;
 import com.wire.xenon.tools.Logger;
 import io.swagger.annotations.*;
@@ -13,6 +17,8 @@ import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import java.util.ArrayList;
+import java.util.List;
 
 @Api
 @Path("/v1/confirm")
@@ -50,4 +56,32 @@ public class ConfirmResourceV1 {
                 .build();
         }
     }
+
+    @POST
+    @Path("batch")
+    @ServiceAuthorization
+    @ApiOperation(value = "Confirm a batch of legal hold devices", response = BatchResponseV1.class)
+    @ApiResponses(value = {
+        @ApiResponse(code = 400, message = "Bad request. Invalid Payload"),
+        @ApiResponse(code = 500, message = "Something went wrong"),
+        @ApiResponse(code = 200, message = "Legal Hold Devices enabled, see the result of every device")})
+    public Response confirmBatch(@ApiParam @Valid @NotNull BatchConfirmPayloadV1 payload) {
+        try {
+            final List<ConfirmedDeviceDTO> devices = new ArrayList<>(payload.devices.size());
+            for (BatchConfirmPayloadV1.Device device : payload.devices) {
+                devices.add(new ConfirmedDeviceDTO(device.userId, device.clientId, device.refreshToken));
+            }
+
+            final List<DeviceResultDTO> results = deviceManagementService.confirmDevices(devices, payload.teamId);
+
+            return Response
+                .ok(BatchResponseV1.of(results))
+                .build();
+        } catch (Exception e) {
+            Logger.exception(e, "ConfirmResourceV1: batch of team %s err: %s", payload.teamId, e.getMessage());
+            return Response
+                .serverError()
+                .build();
+        }
+    }
 }
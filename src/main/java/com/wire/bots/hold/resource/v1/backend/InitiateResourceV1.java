@@ -2,7 +2,10 @@ package com.wire.bots.hold.resource.v1.backend;
 
 import com.wire.bots.hold.filters.ServiceAuthorization;
 import com.wire.bots.hold.model.api.shared.InitResponse;
+import com.wire.bots.hold.model.api.v1.BatchInitPayloadV1;
+import com.wire.bots.hold.model.api.v1.BatchResponseV1;
 import com.wire.bots.hold.model.api.v1.InitPayloadV1;
+import com.wire.bots.hold.model.dto.DeviceResultDTO;
 import com.wire.bots.hold.model.dto.InitializedDeviceDTO;
 import com.wire.bots.hold.service.DeviceManagementService;
 import com.wire.xenon.tools.Logger;
@@ -15,6 +18,7 @@ import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import java.util.List;
 
 @Api
 @Path("/v1/initiate")
@@ -55,4 +59,31 @@ public class InitiateResourceV1 {
                 .build();
         }
     }
+
+    @POST
+    @Path("batch")
+    @ServiceAuthorization
+    @ApiOperation(value = "Initiate a batch of users", response = BatchResponseV1.class)
+    @ApiResponses(value = {
+        @ApiResponse(code = 400, message = "Bad request. Invalid Payload"),
+        @ApiResponse(code = 500, message = "Something went wrong"),
+        @ApiResponse(code = 200, message = "CryptoBoxes initiated, see the result of every user")})
+    public Response initiateBatch(@ApiParam @Valid @NotNull BatchInitPayloadV1 init) {
+        try {
+            final List<DeviceResultDTO> results =
+                deviceManagementService.initiateLegalHoldDevices(
+                    init.userIds,
+                    init.teamId
+                );
+
+            return Response
+                .ok(BatchResponseV1.of(results))
+                .build();
+        } catch (Exception e) {
+            Logger.exception(e, "InitiateResourceV1 batch error: %s", e.getMessage());
+            return Response
+                .serverError()
+                .build();
+        }
+    }
 }
@@ -1,17 +1,22 @@
 package com.wire.bots.hold.resource.v1.backend;
 
 import com.wire.bots.hold.filters.ServiceAuthorization;
+import com.wire.bots.hold.model.api.v1.BatchInitPayloadV1;
+import com.wire.bots.hold.model.api.v1.BatchResponseV1;
 import com.wire.bots.hold.model.api.v1.InitPayloadV1;
+import com.wire.bots.hold.model.dto.DeviceResultDTO;
 import com.wire.bots.hold.service.DeviceManagementService;
 import com.wire.xenon.tools.Logger;
 import io.swagger.annotations.*;
 
 import javax.validation.Valid;
+import javax.validation.constraints.NotNull;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import java.util.List;
 
 @Api
 @Path("/v1/remove")
@@ -44,4 +49,27 @@ public class RemoveResourceV1 {
                 .build();
         }
     }
+
+    @POST
+    @Path("batch")
+    @ServiceAuthorization
+    @ApiOperation(value = "Remove a batch of legal hold devices", response = BatchResponseV1.class)
+    @ApiResponses(value = {
+        @ApiResponse(code = 400, message = "Bad request. Invalid Payload"),
+        @ApiResponse(code = 500, message = "Something went wrong"),
+        @ApiResponse(code = 200, message = "Legal Hold Devices were removed, see the result of every user")})
+    public Response removeBatch(@ApiParam @Valid @NotNull BatchInitPayloadV1 payload) {
+        try {
+            final List<DeviceResultDTO> results = deviceManagementService.removeDevices(payload.userIds, payload.teamId);
+
+            return Response
+                .ok(BatchResponseV1.of(results))
+                .build();
+        } catch (Exception e) {
+            Logger.exception(e, "RemoveResourceV1 batch error: %s", e.getMessage());
+            return Response
+                .serverError()
+                .build();
+        }
+    }
 }
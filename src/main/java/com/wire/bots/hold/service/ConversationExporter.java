@@ -0,0 +1,381 @@
+package com.wire.bots.hold.service;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.mustachejava.DefaultMustacheFactory;
+import com.github.mustachejava.Mustache;
+import com.github.mustachejava.MustacheFactory;
+import com.wire.bots.hold.DAO.AccessDAO;
+import com.wire.bots.hold.DAO.AssetJobsDAO;
+import com.wire.bots.hold.DAO.AssetsDAO;
+import com.wire.bots.hold.DAO.EventsDAO;
+import com.wire.bots.hold.model.database.Event;
+import com.wire.bots.hold.model.database.LHAccess;
+import com.wire.bots.hold.utils.AssetStorage;
+import com.wire.bots.hold.utils.Cache;
+import com.wire.bots.hold.utils.Collector;
+import com.wire.helium.API;
+import com.wire.xenon.backend.models.Conversation;
+import com.wire.xenon.backend.models.Member;
+import com.wire.xenon.backend.models.QualifiedId;
+import com.wire.xenon.backend.models.SystemMessage;
+import com.wire.xenon.models.*;
+import com.wire.xenon.tools.Logger;
+import org.jdbi.v3.core.Jdbi;
+
+import javax.annotation.Nullable;
+import javax.ws.rs.client.Client;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Turns the stored events of a conversation into the html its pdf export is rendered from.
+ * <p>
+ *     Shared by {@code /conv/{conversationId}}, which renders while the client waits, and the export jobs, which
+ *     render in the background and report their progress through {@link Progress}.
+ * </p>
+ */
+public class ConversationExporter {
+    public static final String BASE_URI = "file:/opt/hold";
+    private static final int PROGRESS_EVENTS = 1000;   // Events collected between two progress reports
+    private final static MustacheFactory mf = new DefaultMustacheFactory();
+    private final EventsDAO eventsDAO;
+    private final AccessDAO accessDAO;
+    private final AssetsDAO assetsDAO;
+    private final AssetJobsDAO assetJobsDAO;
+    private final AssetStorage assetStorage;
+    private final Client httpClient;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private volatile API api;
+
+    public interface Progress {
+        void onEvents(int processed, int total);
+    }
+
+    public ConversationExporter(Jdbi jdbi, Client httpClient, AssetStorage assetStorage) {
+        eventsDAO = jdbi.onDemand(EventsDAO.class);
+        accessDAO = jdbi.onDemand(AccessDAO.class);
+        assetsDAO = jdbi.onDemand(AssetsDAO.class);
+        assetJobsDAO = jdbi.onDemand(AssetJobsDAO.class);
+        this.assetStorage = assetStorage;
+        this.httpClient = httpClient;
+        api = getLHApi();
+    }
+
+    /**
+     * @return changes whenever an event of the conversation is added or removed, see {@code EventsDAO.getHighWaterMark}
+     */
+    public String getVersion(UUID conversationId) {
+        // TODO: When the exports accept a QualifiedId, then we will need to verify based on the domain which DAO
+        // query to call
+        return eventsDAO.getHighWaterMark(conversationId, Cache.getFallbackDomain());
+    }
+
+    /**
+     * Reads the events a page at a time and hands them to the {@link Collector} one by one, so only the rendered
+     * model is held, never the whole history of the conversation. Every page is one short query, no connection stays
+     * open while the users and assets of the events are resolved through the {@link Cache} of this export.
+     */
+    public Collector collect(UUID conversationId, @Nullable Progress progress) {
+        testAPI();
+
+        Cache cache = new Cache(api, assetsDAO, assetJobsDAO, assetStorage);
+        Collector collector = new Collector(cache);
+
+        final String domain = Cache.getFallbackDomain();
+        final int total = progress != null ? eventsDAO.countDefaultDomain(conversationId, domain) : 0;
+
+        int processed = 0;
+        List<Event> page = eventsDAO.listPageDefaultDomainAsc(conversationId, domain, null, null, EventsDAO.FETCH_SIZE);
+        while (!page.isEmpty()) {
+            for (Event event : page) {
+                onEvent(collector, cache, event);
+
+                if (progress != null && ++processed % PROGRESS_EVENTS == 0)
+                    progress.onEvents(processed, Math.max(processed, total));
+            }
+            if (page.size() < EventsDAO.FETCH_SIZE)
+                break;
+
+            final Event last = page.get(page.size() - 1);
+            page = eventsDAO.listPageDefaultDomainAsc(conversationId, domain, last.time, last.eventId, EventsDAO.FETCH_SIZE);
+        }
+        if (progress != null)
+            progress.onEvents(processed, processed);
+
+        return collector;
+    }
+
+    public void writeHtml(Collector.Conversation conversation, Writer writer) throws IOException {
+        Mustache mustache = compileTemplate();
+        mustache.execute(writer, conversation).flush();
+    }
+
+    /**
+     * The renderer lays out the whole document before the first page is out, the html waits for it on disk.
+     *
+     * @return temp file with the html. The caller deletes it
+     */
+    public File spoolHtml(Collector.Conversation conversation) throws IOException {
+        final File html = File.createTempFile("conv-", ".html");
+        try (Writer writer = Files.newBufferedWriter(html.toPath())) {
+            writeHtml(conversation, writer);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(html.toPath());
+            throw e;
+        }
+        return html;
+    }
+
+    private void onEvent(Collector collector, Cache cache, Event event) {
+        switch (event.type) {
+            case "conversation.create": {
+                onConversationCreate(collector, cache, event);
+            }
+            break;
+            case "conversation.rename": {
+                onConversationRename(collector, cache, event);
+            }
+            break;
+            case "conversation.otr-message-add.new-text": {
+                onText(collector, event);
+            }
+            break;
+            case "conversation.otr-message-add.edit-text": {
+                onTextEdit(collector, cache, event);
+            }
+            break;
+            case "conversation.otr-message-add.delete-text": {
+                onTextDelete(collector, cache, event);
+            }
+            break;
+            case "conversation.otr-message-add.image-preview": {
+                onImagePreview(collector, event);
+            }
+            break;
+            case "conversation.otr-message-add.file-preview": {
+                onFilePreview(collector, event);
+            }
+            break;
+            case "conversation.otr-message-add.audio-preview": {
+                onAudioPreview(collector, event);
+            }
+            break;
+            case "conversation.otr-message-add.video-preview": {
+                onVideoPreview(collector, event);
+            }
+            break;
+            case "conversation.otr-message-add.call": {
+                onCall(collector, cache, event);
+            }
+            break;
+            case "conversation.member-join": {
+                onMember(collector, cache, event, "added");
+            }
+            break;
+            case "conversation.member-leave": {
+                onMember(collector, cache, event, "removed");
+            }
+            break;
+        }
+    }
+
+    private void onText(Collector collector, Event event) {
+        try {
+            TextMessage message = mapper.readValue(event.payload, TextMessage.class);
+            collector.add(message);
+        } catch (Exception e) {
+            Logger.exception("onText: conv: %s, event: %s error: %s", e, event.conversationId, event.eventId, e.getMessage());
+        }
+    }
+
+    private void onTextEdit(Collector collector, Cache cache, Event event) {
+        try {
+            EditedTextMessage message = mapper.readValue(event.payload, EditedTextMessage.class);
+            String text = String.format("**%s** edited: %s",
+                    getUserName(cache, message.getUserId()), message.getText());
+            collector.addSystem(text, message.getTime(), event.type);
+        } catch (Exception e) {
+            Logger.exception("onTextEdit: conv: %s, event: %s error: %s", e, event.conversationId, event.eventId, e.getMessage());
+        }
+    }
+
+    private void onTextDelete(Collector collector, Cache cache, Event event) {
+        try {
+            DeletedTextMessage message = mapper.readValue(event.payload, DeletedTextMessage.class);
+            UUID deletedMessageId = message.getDeletedMessageId();
+            String orgText = getText(deletedMessageId);
+            String text = String.format("**%s** deleted text: '%s'",
+                    getUserName(cache, message.getUserId()),
+                    orgText);
+            collector.addSystem(text, message.getTime(), event.type);
+        } catch (Exception e) {
+            Logger.exception("onTextDelete: conv: %s, event: %s error: %s", e, event.conversationId, event.eventId, e.getMessage());
+        }
+    }
+
+    private void onCall(Collector collector, Cache cache, Event event) {
+        try {
+            CallingMessage message = mapper.readValue(event.payload, CallingMessage.class);
+            String json = message.getContent().replace("\\", "");
+            _CallingContent content = mapper.readValue(json, _CallingContent.class);
+            String text = String.format("**%s** called: %s", getUserName(cache, message.getUserId()), content.type);
+            collector.addSystem(text, message.getTime(), event.type);
+        } catch (Exception e) {
+            Logger.exception("onCall: conv: %s, event: %s error: %s", e, event.conversationId, event.eventId, e.getMessage());
+        }
+    }
+
+    private void onImagePreview(Collector collector, Event event) {
+        try {
+            PhotoPreviewMessage message = mapper.readValue(event.payload, PhotoPreviewMessage.class);
+            collector.add(message);
+        } catch (Exception e) {
+            Logger.exception("onImagePreview: conv: %s, event: %s error: %s", e, event.conversationId, event.eventId, e.getMessage());
+        }
+    }
+
+    private void onFilePreview(Collector collector, Event event) {
+        try {
+            FilePreviewMessage message = mapper.readValue(event.payload, FilePreviewMessage.class);
+            collector.add(message);
+        } catch (Exception e) {
+            Logger.exception("onFilePreview: conv: %s, event: %s error: %s", e, event.conversationId, event.eventId, e.getMessage());
+        }
+    }
+
+    private void onAudioPreview(Collector collector, Event event) {
+        try {
+            AudioPreviewMessage message = mapper.readValue(event.payload, AudioPreviewMessage.class);
+            collector.add(message);
+        } catch (Exception e) {
+            Logger.exception("onAudioPreview: conv: %s, event: %s error: %s", e, event.conversationId, event.eventId, e.getMessage());
+        }
+    }
+
+    private void onVideoPreview(Collector collector, Event event) {
+        try {
+            VideoPreviewMessage message = mapper.readValue(event.payload, VideoPreviewMessage.class);
+            collector.add(message);
+        } catch (Exception e) {
+            Logger.exception("onVideoPreview: conv: %s, event: %s error: %s", e, event.conversationId, event.eventId, e.getMessage());
+        }
+    }
+
+    private void onMember(Collector collector, Cache cache, Event event, String label) {
+        try {
+            SystemMessage msg = mapper.readValue(event.payload, SystemMessage.class);
+            for (QualifiedId userId : msg.users) {
+                String format = String.format("**%s** %s **%s**",
+                        getUserName(cache, msg.from),
+                        label,
+                        getUserName(cache, userId));
+                collector.addSystem(format, msg.time, event.type);
+            }
+        } catch (Exception e) {
+            Logger.exception("onMember: %s conv: %s, msg: %s error: %s", e, event.type, event.conversationId, event.eventId, e.getMessage());
+        }
+    }
+
+    private void onConversationCreate(Collector collector, Cache cache, Event event) {
+        try {
+            SystemMessage msg = mapper.readValue(event.payload, SystemMessage.class);
+            if (msg.conversation == null) {
+                Logger.warning("onConversationCreate: conv is null. Payload: %s", event.payload);
+                return;
+            }
+
+            collector.setConvName(msg.conversation.name);
+
+            String text = formatConversation(cache, msg.conversation);
+            collector.addSystem(text, msg.time, event.type);
+        } catch (Exception e) {
+            Logger.exception("onConversationCreate: conv: %s, msg: %s error: %s", e, event.conversationId, event.eventId, e.getMessage());
+        }
+    }
+
+    private void onConversationRename(Collector collector, Cache cache, Event event) {
+        try {
+            SystemMessage msg = mapper.readValue(event.payload, SystemMessage.class);
+            collector.setConvName(msg.conversation.name);
+
+            String userName = getUserName(cache, msg.from);
+            String text = String.format("**%s** renamed the conversation to **%s**", userName, msg.conversation.name);
+            collector.addSystem(text, msg.time, event.type);
+        } catch (Exception e) {
+            Logger.exception("onConversationRename: conv: %s, msg: %s error: %s", e, event.conversationId, event.eventId, e.getMessage());
+        }
+    }
+
+    private void testAPI() {
+        try {
+            api.getSelf();
+        } catch (Exception e) {
+            Logger.debug("reconnecting... %s", e);
+            api = getLHApi();
+        }
+    }
+
+    private API getLHApi() {
+        try {
+            LHAccess single = accessDAO.getSingle();
+
+            // if the db is empty just return a dummy API
+            if (single == null)
+                return new API(httpClient, null, null);
+
+            return new API(httpClient, null, single.token);
+        } catch (Exception e) {
+            Logger.exception("getLHApi: %s", e, e.getMessage());
+            return new API(httpClient, null, null);
+        }
+    }
+
+    private String formatConversation(Cache cache, Conversation conversation) {
+        StringBuilder sb = new StringBuilder();
+        QualifiedId creatorId = new QualifiedId(conversation.creator, Cache.getFallbackDomain());
+        sb.append(String.format("**%s** created conversation **%s** with: \n",
+                getUserName(cache, creatorId),
+                conversation.name));
+        for (Member member : conversation.members) {
+            sb.append(String.format("- **%s** \n", getUserName(cache, member.id)));
+        }
+        return sb.toString();
+    }
+
+    @Nullable
+    private String getText(UUID msgId) throws IOException {
+        Event event = eventsDAO.get(msgId);
+        if (event == null)
+            return null;
+        TextMessage orgMessage = mapper.readValue(event.payload, TextMessage.class);
+        return orgMessage.getText();
+    }
+
+    @Nullable
+    private String getUserName(Cache cache, QualifiedId userId) {
+        return cache.getUser(userId).name;
+    }
+
+    private Mustache compileTemplate() {
+        String path = "templates/conversation.html";
+        return mf.compile(path);
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    static class _CallingContent {
+        @JsonProperty
+        boolean resp;
+        @JsonProperty
+        String sessid;
+        @JsonProperty
+        String type;
+        @JsonProperty
+        String version;
+    }
+}
@@ -2,8 +2,13 @@ package com.wire.bots.hold.service;
 
 import com.wire.bots.cryptobox.CryptoException;
 import com.wire.bots.hold.DAO.AccessDAO;
+import com.wire.bots.hold.model.dto.ConfirmedDeviceDTO;
+import com.wire.bots.hold.model.dto.DeviceResultDTO;
 import com.wire.bots.hold.model.dto.InitializedDeviceDTO;
+import com.wire.bots.hold.utils.AccessTokenCache;
+import com.wire.bots.hold.utils.CryptoCache;
 import com.wire.bots.hold.utils.CryptoDatabaseFactory;
+import com.wire.bots.hold.utils.DeviceRegistry;
 import com.wire.xenon.backend.models.QualifiedId;
 import com.wire.xenon.crypto.Crypto;
 import com.wire.xenon.models.otr.PreKey;
@@ -11,17 +16,38 @@ import com.wire.xenon.tools.Logger;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import static com.wire.bots.hold.utils.Tools.hexify;
 
 public class DeviceManagementService {
     private final CryptoDatabaseFactory cf;
-    private final AccessDAO accessDAO;
+    private final DeviceRegistry registry;
+    private final CryptoCache cryptoCache;
+    private final AccessTokenCache tokens;
+    private final ExecutorService cryptoPool;
 
-    public DeviceManagementService(AccessDAO accessDAO, CryptoDatabaseFactory cf) {
-        this.accessDAO = accessDAO;
+    /**
+     * @param tokens     access tokens of this replica, dropped for every device confirmed or removed
+     * @param cryptoPool bounded pool the cryptoboxes of batch calls are set up and purged on
+     */
+    public DeviceManagementService(DeviceRegistry registry,
+                                   CryptoDatabaseFactory cf,
+                                   CryptoCache cryptoCache,
+                                   AccessTokenCache tokens,
+                                   ExecutorService cryptoPool) {
+        this.registry = registry;
         this.cf = cf;
+        this.cryptoCache = cryptoCache;
+        this.tokens = tokens;
+        this.cryptoPool = cryptoPool;
     }
 
     /**
@@ -38,6 +64,8 @@ public class DeviceManagementService {
      * @throws CryptoException
      */
     public InitializedDeviceDTO initiateLegalHoldDevice(QualifiedId userId, UUID teamId) throws IOException, CryptoException {
+        cryptoCache.invalidate(userId);
+
         try (Crypto crypto = cf.create(userId)) {
             ArrayList<PreKey> preKeys = crypto.newPreKeys(0, 50);
             PreKey lastKey = crypto.newLastPreKey();
@@ -66,8 +94,7 @@ public class DeviceManagementService {
      * @param refreshToken token used to get expiring api tokens
      */
     public void confirmDevice(QualifiedId userId, UUID teamId, String clientId, String refreshToken) {
-        int insert = accessDAO.insert(userId.id,
-            userId.domain,
+        int insert = registry.insert(userId,
             clientId,
             refreshToken);
 
@@ -78,6 +105,7 @@ public class DeviceManagementService {
 
             throw new RuntimeException("Cannot insert new device");
         }
+        tokens.invalidate(userId);
 
         Logger.info("ConfirmResource: team: %s, user:%s, client: %s",
             teamId,
@@ -93,11 +121,17 @@ public class DeviceManagementService {
      * @throws CryptoException
      */
     public void removeDevice(QualifiedId userId, UUID teamId) throws IOException, CryptoException {
+        // Disabled first: the device is dropped from the ingestion and pages still queued for it are rolled back
+        // instead of writing its sessions back after the purge
+        int removeAccess = registry.disable(userId);
+        tokens.invalidate(userId);
+
+        // Then the cached cryptobox is closed so nothing decrypts with it while it is purged
+        cryptoCache.invalidate(userId);
+
         try (Crypto crypto = cf.create(userId)) {
             crypto.purge();
 
-            int removeAccess = accessDAO.disable(userId.id, userId.domain);
-
             Logger.info(
                 "RemoveResource: team: %s, user: %s, removed: %s",
                 teamId,
@@ -109,4 +143,124 @@ public class DeviceManagementService {
             throw e;
         }
     }
+
+    /**
+     * Batch variant of {@link #initiateLegalHoldDevice(QualifiedId, UUID)}: the cryptoboxes are set up in parallel on
+     * the crypto pool. A user listed more than once is set up once and gets the same keys for every entry.
+     * @return result per user, in the given order
+     */
+    public List<DeviceResultDTO> initiateLegalHoldDevices(List<QualifiedId> userIds, UUID teamId) throws InterruptedException {
+        // Two setups of the same cryptobox must not run at once
+        final Map<QualifiedId, Future<InitializedDeviceDTO>> futures = new HashMap<>();
+        for (QualifiedId userId : userIds) {
+            futures.computeIfAbsent(userId, k -> cryptoPool.submit(() -> initiateLegalHoldDevice(userId, teamId)));
+        }
+
+        final List<DeviceResultDTO> results = new ArrayList<>(userIds.size());
+        for (QualifiedId userId : userIds) {
+            try {
+                results.add(DeviceResultDTO.ok(userId, futures.get(userId).get()));
+            } catch (ExecutionException e) {
+                results.add(DeviceResultDTO.failed(userId, e.getCause().getMessage()));
+            }
+        }
+
+        Logger.info("InitiateLegalHoldDevices: team: %s, users: %d", teamId, futures.size());
+        return results;
+    }
+
+    /**
+     * Batch variant of {@link #confirmDevice(QualifiedId, UUID, String, String)}, all devices are stored in a single
+     * batch. When a user is listed more than once the last device wins, the earlier ones are reported as failed.
+     * @return result per device, in the given order
+     */
+    public List<DeviceResultDTO> confirmDevices(List<ConfirmedDeviceDTO> devices, UUID teamId) {
+        // One batched upsert must not touch the same row twice
+        final Map<QualifiedId, Integer> last = new HashMap<>();
+        for (int i = 0; i < devices.size(); i++) {
+            last.put(devices.get(i).getUserId(), i);
+        }
+
+        final List<AccessDAO.NewDevice> stored = new ArrayList<>(last.size());
+        for (int i = 0; i < devices.size(); i++) {
+            final ConfirmedDeviceDTO device = devices.get(i);
+            if (last.get(device.getUserId()) != i)
+                continue;
+
+            final AccessDAO.NewDevice newDevice = new AccessDAO.NewDevice();
+            newDevice.userId = device.getUserId().id;
+            newDevice.userDomain = device.getUserId().domain;
+            newDevice.clientId = device.getClientId();
+            newDevice.cookie = device.getRefreshToken();
+            stored.add(newDevice);
+        }
+
+        // The batch is stored as a whole or not at all, rewritten batches do not report rows per device
+        String error = null;
+        try {
+            registry.insert(stored);
+        } catch (Exception e) {
+            Logger.exception(e, "ConfirmResource: Failed to insert %d devices: %s", stored.size(), e.getMessage());
+            error = "Cannot insert new device";
+        }
+        for (AccessDAO.NewDevice device : stored) {
+            tokens.invalidate(new QualifiedId(device.userId, device.userDomain));
+        }
+
+        final List<DeviceResultDTO> results = new ArrayList<>(devices.size());
+        for (int i = 0; i < devices.size(); i++) {
+            final QualifiedId userId = devices.get(i).getUserId();
+            if (last.get(userId) != i)
+                results.add(DeviceResultDTO.failed(userId, "Superseded by a later device of the same user"));
+            else if (error != null)
+                results.add(DeviceResultDTO.failed(userId, error));
+            else
+                results.add(DeviceResultDTO.ok(userId));
+        }
+
+        Logger.info("ConfirmResource: team: %s, devices: %d", teamId, stored.size());
+        return results;
+    }
+
+    /**
+     * Batch variant of {@link #removeDevice(QualifiedId, UUID)}: the devices are disabled in a single batch, then
+     * their cryptoboxes are purged in parallel on the crypto pool. A user listed more than once is removed once.
+     * @return result per distinct user, in the order they are first listed
+     */
+    public List<DeviceResultDTO> removeDevices(List<QualifiedId> userIds, UUID teamId) throws InterruptedException {
+        // Two purges of the same cryptobox must not run at once
+        final List<QualifiedId> distinct = new ArrayList<>(new LinkedHashSet<>(userIds));
+
+        registry.disable(distinct);
+        for (QualifiedId userId : distinct) {
+            tokens.invalidate(userId);
+        }
+
+        final List<Future<?>> futures = new ArrayList<>(distinct.size());
+        for (QualifiedId userId : distinct) {
+            cryptoCache.invalidate(userId);
+            futures.add(cryptoPool.submit(() -> {
+                try (Crypto crypto = cf.create(userId)) {
+                    crypto.purge();
+                }
+                return null;
+            }));
+        }
+
+        final List<DeviceResultDTO> results = new ArrayList<>(distinct.size());
+        final List<QualifiedId> purged = new ArrayList<>(distinct.size());
+        for (int i = 0; i < distinct.size(); i++) {
+            try {
+                futures.get(i).get();
+                purged.add(distinct.get(i));
+                results.add(DeviceResultDTO.ok(distinct.get(i)));
+            } catch (ExecutionException e) {
+                Logger.exception(e.getCause(), "RemoveLegalHoldDevice: %s", e.getCause().getMessage());
+                results.add(DeviceResultDTO.failed(distinct.get(i), e.getCause().getMessage()));
+            }
+        }
+
+        Logger.info("RemoveResource: team: %s, users: %d, removed: %d", teamId, distinct.size(), purged.size());
+        return results;
+    }
 }
@@ -0,0 +1,144 @@
+package com.wire.bots.hold.utils;
+
+import com.wire.bots.hold.model.database.LHAccess;
+import com.wire.helium.LoginClient;
+import com.wire.helium.models.Access;
+import com.wire.xenon.backend.models.QualifiedId;
+import com.wire.xenon.exceptions.HttpException;
+import com.wire.xenon.tools.Logger;
+
+import javax.ws.rs.core.Cookie;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Keeps the access token of every legal hold device in memory together with its expiry.
+ * <p>
+ *     A token is renewed only once it gets within {@code renewMargin} of its expiry. Every renewal is moved forward by a
+ *     random amount of up to {@code jitter} so devices confirmed at the same time do not all renew in the same second.
+ *     Margin and jitter together are capped at half the lifetime of the token, so a short lived token is not renewed
+ *     on every call. The Access row is written only when the token or the cookie actually changed.
+ * </p>
+ * <p>
+ *     A device that comes with a cookie the cache was neither built from nor handed out has been confirmed again, its
+ *     cached token is dropped and the new cookie is used.
+ * </p>
+ */
+public class AccessTokenCache {
+    private static final Duration DEFAULT_EXPIRY = Duration.ofMinutes(15);
+
+    private final ConcurrentHashMap<QualifiedId, Token> tokens = new ConcurrentHashMap<>();
+    private final LoginClient loginClient;
+    private final DeviceRegistry registry;
+    private final long renewMargin;
+    private final long jitter;
+    private final Clock clock;
+
+    public AccessTokenCache(LoginClient loginClient, DeviceRegistry registry, Duration renewMargin, Duration jitter) {
+        this(loginClient, registry, renewMargin, jitter, Clock.systemUTC());
+    }
+
+    AccessTokenCache(LoginClient loginClient, DeviceRegistry registry, Duration renewMargin, Duration jitter, Clock clock) {
+        this.loginClient = loginClient;
+        this.registry = registry;
+        this.renewMargin = renewMargin.toMillis();
+        this.jitter = jitter.toMillis();
+        this.clock = clock;
+    }
+
+    /**
+     * Returns a valid access token for this device, renewing it only when it is about to expire.
+     * <p>
+     *     {@code device} is only read, it may be a {@link DeviceRegistry} snapshot. A renewed token and cookie are
+     *     written through the registry.
+     * </p>
+     * @param device legal hold device
+     * @return access token
+     * @throws HttpException if the token could not be renewed. {@link com.wire.xenon.exceptions.AuthException} if the cookie was revoked
+     */
+    public String getToken(LHAccess device) throws HttpException {
+        Token cached = tokens.get(device.userId);
+        if (cached != null && !cached.knows(device.cookie)) {
+            tokens.remove(device.userId, cached);
+            cached = null;
+        }
+
+        if (cached != null && clock.millis() < cached.renewAt)
+            return cached.value;
+
+        return renew(device, cached);
+    }
+
+    /**
+     * Drops the cached token, i.e. when the device has been disabled, removed or confirmed again.
+     * @param userId legal hold user
+     */
+    public void invalidate(QualifiedId userId) {
+        tokens.remove(userId);
+    }
+
+    /**
+     * Drops the cached token if the device has been confirmed again with a new cookie since. A renewed token or cookie
+     * of this cache keeps it.
+     * @param device legal hold device as just read from the Access table
+     */
+    public void invalidateIfChanged(LHAccess device) {
+        tokens.computeIfPresent(device.userId, (userId, cached) -> cached.knows(device.cookie) ? cached : null);
+    }
+
+    public int size() {
+        return tokens.size();
+    }
+
+    private String renew(LHAccess device, Token cached) throws HttpException {
+        final String cookie = cached != null ? cached.cookie : device.cookie;
+
+        final long now = clock.millis();
+        final Access access = loginClient.renewAccessToken(new Cookie("zuid", cookie));
+
+        String cookieValue = cookie;
+        if (access.getCookie() != null) {
+            Logger.info("Set-Cookie: user: %s", device.userId);
+            cookieValue = access.getCookie().value;
+        }
+
+        final String token = access.getAccessToken();
+        final long expiresIn = access.getExpiresIn() > 0
+                ? Duration.ofSeconds(access.getExpiresIn()).toMillis()
+                : DEFAULT_EXPIRY.toMillis();
+
+        // The device may be a copy older than the cached token
+        final String storedToken = cached != null ? cached.value : device.token;
+        if (!Objects.equals(token, storedToken) || !Objects.equals(cookieValue, cookie)) {
+            registry.updateToken(device.userId, token, cookieValue);
+        }
+
+        final long spread = jitter > 0 ? ThreadLocalRandom.current().nextLong(jitter + 1) : 0;
+        final long early = Math.min(renewMargin + spread, expiresIn / 2);
+        final String origin = cached != null ? cached.origin : device.cookie;
+        tokens.put(device.userId, new Token(token, origin, cookieValue, now + expiresIn - early));
+
+        return token;
+    }
+
+    private static class Token {
+        final String value;
+        final String origin;    // Cookie of the device the cache was built from, older device copies still have it
+        final String cookie;
+        final long renewAt;
+
+        Token(String value, String origin, String cookie, long renewAt) {
+            this.value = value;
+            this.origin = origin;
+            this.cookie = cookie;
+            this.renewAt = renewAt;
+        }
+
+        boolean knows(String cookie) {
+            return Objects.equals(cookie, this.cookie) || Objects.equals(cookie, origin);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.wire.bots.hold.utils;
+
+import com.wire.bots.hold.model.database.AssetJob;
+import com.wire.xenon.exceptions.AuthException;
+import com.wire.xenon.exceptions.HttpException;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.Invocation;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.io.*;
+import java.nio.file.Files;
+import java.security.DigestException;
+import java.security.DigestInputStream;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+
+/**
+ * Downloads an asset to disk without holding it on the heap.
+ * <p>
+ *     The encrypted body is streamed into a temp file while its SHA-256 is computed, checked against the digest sent
+ *     with the asset and only then decrypted into a second temp file. Either way only a {@link #BUFFER_SIZE} buffer
+ *     is held per download, whatever the size of the asset.
+ * </p>
+ * <p>
+ *     Assets are AES-256-CBC with PKCS#5 padding, the first 16 bytes of the body are the IV.
+ * </p>
+ */
+public class AssetDownloader {
+    static final int BUFFER_SIZE = 64 * 1024;
+    private static final int IV_LENGTH = 16;
+
+    private final Client httpClient;
+    private final String apiHost;
+
+    public AssetDownloader(Client httpClient, String apiHost) {
+        this.httpClient = httpClient;
+        this.apiHost = apiHost;
+    }
+
+    /**
+     * @param token access token of the legal hold device the asset was sent to
+     * @return temp file with the decrypted asset. The caller deletes it
+     */
+    public File download(AssetJob job, String token) throws IOException, HttpException, GeneralSecurityException {
+        final File encrypted = Files.createTempFile("asset-", ".enc").toFile();
+        try {
+            fetch(job, token, encrypted);
+
+            final File plain = Files.createTempFile("asset-", ".bin").toFile();
+            try {
+                decrypt(encrypted, plain, job.otrKey);
+                return plain;
+            } catch (IOException | GeneralSecurityException | RuntimeException e) {
+                Files.deleteIfExists(plain.toPath());
+                throw e;
+            }
+        } finally {
+            Files.deleteIfExists(encrypted.toPath());
+        }
+    }
+
+    private void fetch(AssetJob job, String token, File target) throws IOException, HttpException, DigestException {
+        final String domain = job.assetDomain != null ? job.assetDomain : Cache.getFallbackDomain();
+
+        Invocation.Builder request = httpClient
+                .target(apiHost)
+                .path("assets")
+                .path(domain)
+                .path(job.assetId)
+                .request(MediaType.APPLICATION_OCTET_STREAM)
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + token);
+
+        if (job.assetToken != null)
+            request = request.header("Asset-Token", job.assetToken);
+
+        final Response response = request.get();
+        try {
+            final int status = response.getStatus();
+            if (status == 401 || status == 403)
+                throw new AuthException(response.readEntity(String.class), status);
+            if (status >= 400)
+                throw new HttpException(response.readEntity(String.class), status);
+
+            try (InputStream body = response.readEntity(InputStream.class)) {
+                save(body, target, job.sha256);
+            }
+        } finally {
+            response.close();
+        }
+    }
+
+    /**
+     * Copies {@code in} into {@code target} and checks its SHA-256 on the way.
+     */
+    static void save(InputStream in, File target, byte[] sha256) throws IOException, DigestException {
+        final MessageDigest digest = sha256();
+        try (InputStream digested = new DigestInputStream(in, digest);
+             OutputStream out = new FileOutputStream(target)) {
+            copy(digested, out);
+        }
+
+        if (!MessageDigest.isEqual(digest.digest(), sha256))
+            throw new DigestException("Asset does not match its sha256");
+    }
+
+    static void decrypt(File encrypted, File plain, byte[] otrKey) throws IOException, GeneralSecurityException {
+        try (InputStream in = new FileInputStream(encrypted)) {
+            final byte[] iv = in.readNBytes(IV_LENGTH);
+            if (iv.length != IV_LENGTH)
+                throw new IOException("Asset is shorter than its IV");
+
+            final Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+            cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(otrKey, "AES"), new IvParameterSpec(iv));
+
+            // Cipher streams swallow a bad padding, so the final block is done by hand
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            final byte[] decrypted = new byte[BUFFER_SIZE + IV_LENGTH];
+            try (OutputStream out = new FileOutputStream(plain)) {
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(decrypted, 0, cipher.update(buffer, 0, read, decrypted));
+                }
+                out.write(decrypted, 0, cipher.doFinal(decrypted, 0));
+            }
+        }
+    }
+
+    private static void copy(InputStream in, OutputStream out) throws IOException {
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.wire.bots.hold.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+
+/**
+ * Where the content of the assets is kept. The {@code Assets} table only holds the key returned by {@link #put}.
+ * <p>
+ *     Keys are derived from the content, so storing the same file for several messages, or for every legal hold
+ *     user in a conversation, keeps a single copy.
+ * </p>
+ * <p>
+ *     The pdfs of the export jobs are kept the same way, in a storage of their own.
+ * </p>
+ */
+public interface AssetStorage {
+    /**
+     * Reads {@code data} to its end. Does not close it.
+     *
+     * @return key of the content
+     */
+    String put(InputStream data) throws IOException;
+
+    /**
+     * @throws java.nio.file.NoSuchFileException nothing is stored under this key
+     */
+    InputStream open(String key) throws IOException;
+
+    /**
+     * For readers that need a file, e.g. to link to it, instead of a stream.
+     *
+     * @return file the content is kept in
+     * @throws java.nio.file.NoSuchFileException nothing is stored under this key
+     */
+    Path file(String key) throws IOException;
+
+    /**
+     * Only for content no row refers to anymore, another row may have stored the same content under the same key.
+     */
+    void delete(String key) throws IOException;
+}
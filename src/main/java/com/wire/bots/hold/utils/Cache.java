@@ -1,5 +1,6 @@
 package com.wire.bots.hold.utils;
 
+import com.wire.bots.hold.DAO.AssetJobsDAO;
 import com.wire.bots.hold.DAO.AssetsDAO;
 import com.wire.helium.API;
 import com.wire.xenon.backend.models.QualifiedId;
@@ -9,6 +10,7 @@ import com.wire.xenon.tools.Logger;
 import org.checkerframework.checker.nullness.qual.Nullable;
 
 import java.io.File;
+import java.nio.file.Files;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -20,10 +22,14 @@ public class Cache {
     private static final ConcurrentHashMap<QualifiedId, File> profiles = new ConcurrentHashMap<>(); // <QualifiedId, Picture>
     private final API api;
     private final AssetsDAO assetsDAO;
+    private final AssetJobsDAO assetJobsDAO;
+    private final AssetStorage storage;
 
-    public Cache(API api, AssetsDAO assetsDAO) {
+    public Cache(API api, AssetsDAO assetsDAO, AssetJobsDAO assetJobsDAO, AssetStorage storage) {
         this.api = api;
         this.assetsDAO = assetsDAO;
+        this.assetJobsDAO = assetJobsDAO;
+        this.storage = storage;
     }
 
     public static void setFallbackDomain(String domain) {
@@ -41,7 +47,18 @@ public class Cache {
             try {
                 final AssetsDAO.Asset asset = assetsDAO.get(messageId);
                 File f = Helper.assetFile(asset.messageId, asset.mimeType);
-                Helper.save(asset.data, f);
+                if (asset.blobKey != null) {
+                    // A link, not a copy: the name carries the extension of the mime type and is served under /images
+                    Files.deleteIfExists(f.toPath());
+                    Files.createSymbolicLink(f.toPath(), storage.file(asset.blobKey));
+                    return f;
+                }
+
+                // Stored before the asset storage and not moved out of the table yet
+                final byte[] data = assetsDAO.getLegacyData(messageId);
+                if (data == null)
+                    return null;
+                Helper.save(data, f);
                 return f;
             } catch (Exception e) {
                 Logger.exception(e,"Cache.getAssetFile: %s", e.getMessage());
@@ -50,6 +67,18 @@ public class Cache {
         });
     }
 
+    /**
+     * @return true if an asset without a file is still queued for download and may be there in a later export
+     */
+    public boolean isDownloading(UUID messageId) {
+        try {
+            return assetJobsDAO.isQueued(messageId);
+        } catch (Exception e) {
+            Logger.exception(e, "Cache.isDownloading: %s", e.getMessage());
+            return true;
+        }
+    }
+
     public File getProfileImage(User user) {
         File file = profiles.computeIfAbsent(user.id, k -> {
             try {
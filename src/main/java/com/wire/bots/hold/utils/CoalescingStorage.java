@@ -0,0 +1,215 @@
+package com.wire.bots.hold.utils;
+
+import com.wire.bots.cryptobox.IRecord;
+import com.wire.bots.cryptobox.IStorage;
+import com.wire.bots.cryptobox.PreKey;
+import com.wire.bots.hold.DAO.SessionsDAO;
+import com.wire.xenon.crypto.storage.JdbiStorage;
+import org.jdbi.v3.core.Handle;
+import org.jdbi.v3.core.Jdbi;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cryptobox storage that holds session updates back until the notification page that caused them is persisted.
+ * <p>
+ *     While a page is being decrypted ({@link #begin()} .. {@link #end()} on the same thread) every session update is
+ *     kept in a {@link Batch}, so a page with many messages from the same sender writes that session once. The batch is
+ *     flushed in the transaction that commits the events and {@code Access.last} of the page, so the crypto state never
+ *     runs ahead of the persisted events: if the page fails, its session updates are dropped and the notifications
+ *     are decrypted again from the stored state.
+ * </p>
+ * <p>
+ *     Updates of pages that are decrypted but not yet committed are visible to the pages decrypted after them.
+ *     Identities, prekeys and session updates made outside of a page go straight to {@link JdbiStorage}.
+ * </p>
+ */
+public class CoalescingStorage implements IStorage {
+    private final JdbiStorage delegate;
+    private final SessionsDAO sessionsDAO;
+    private final ThreadLocal<Batch> batch = new ThreadLocal<>();
+    private final ConcurrentHashMap<Key, Write> pending = new ConcurrentHashMap<>();
+
+    public CoalescingStorage(Jdbi jdbi) {
+        this.delegate = new JdbiStorage(jdbi);
+        this.sessionsDAO = jdbi.onDemand(SessionsDAO.class);
+    }
+
+    /**
+     * Starts collecting the session updates made on the current thread.
+     */
+    public void begin() {
+        batch.set(new Batch());
+    }
+
+    /**
+     * @return session updates collected since {@link #begin()}, to be flushed with the page or discarded
+     */
+    public Batch end() {
+        final Batch current = batch.get();
+        batch.remove();
+        return current;
+    }
+
+    @Override
+    public IRecord fetchSession(String id, String sid) {
+        final Key key = new Key(id, sid);
+        final Write write = pending.get(key);
+        final byte[] data = write != null ? write.data : sessionsDAO.get(id, sid);
+        return new Record(key, data);
+    }
+
+    @Override
+    public byte[] fetchIdentity(String id) {
+        return delegate.fetchIdentity(id);
+    }
+
+    @Override
+    public void insertIdentity(String id, byte[] data) {
+        delegate.insertIdentity(id, data);
+    }
+
+    @Override
+    public PreKey[] fetchPrekeys(String id) {
+        return delegate.fetchPrekeys(id);
+    }
+
+    @Override
+    public void insertPrekey(String id, int kid, byte[] data) {
+        delegate.insertPrekey(id, kid, data);
+    }
+
+    /**
+     * Only drops the updates not committed yet from what is read. The pages still holding them are rolled back as
+     * long as the device is disabled before the purge, see
+     * {@link com.wire.bots.hold.DAO.AccessDAO#updateLast(java.util.UUID, String, java.util.UUID, String)}.
+     */
+    @Override
+    public void purge(String id) {
+        pending.keySet().removeIf(key -> key.id.equals(id));
+        delegate.purge(id);
+    }
+
+    public int pending() {
+        return pending.size();
+    }
+
+    private class Record implements IRecord {
+        private final Key key;
+        private final byte[] data;
+
+        Record(Key key, byte[] data) {
+            this.key = key;
+            this.data = data;
+        }
+
+        @Override
+        public byte[] getData() {
+            return data;
+        }
+
+        @Override
+        public void persist(byte[] data) {
+            final Batch current = batch.get();
+            if (current != null)
+                current.put(key, data);
+            else
+                sessionsDAO.insert(key.id, key.sid, data);
+        }
+    }
+
+    /**
+     * Session updates of one notification page. Every batch has to end up either {@link #committed()} or
+     * {@link #discarded()}, otherwise its updates stay visible without being stored.
+     */
+    public class Batch {
+        // Last update per session, in the order the sessions were first touched
+        private final Map<Key, byte[]> writes = new LinkedHashMap<>();
+
+        private void put(Key key, byte[] data) {
+            writes.put(key, data);
+            pending.put(key, new Write(data, this));
+        }
+
+        public int size() {
+            return writes.size();
+        }
+
+        /**
+         * Writes the sessions using the given handle. The caller owns the transaction.
+         * @param handle handle with an open transaction
+         */
+        public void flush(Handle handle) {
+            if (writes.isEmpty())
+                return;
+
+            final List<SessionsDAO.Session> sessions = new ArrayList<>(writes.size());
+            for (Map.Entry<Key, byte[]> entry : writes.entrySet()) {
+                final SessionsDAO.Session session = new SessionsDAO.Session();
+                session.id = entry.getKey().id;
+                session.sid = entry.getKey().sid;
+                session.data = entry.getValue();
+                sessions.add(session);
+            }
+            handle.attach(SessionsDAO.class).insert(sessions);
+        }
+
+        /**
+         * The page is stored, reads go back to the database unless a later page updated the session again.
+         */
+        public void committed() {
+            release();
+        }
+
+        /**
+         * The page was dropped, its session updates are forgotten.
+         */
+        public void discarded() {
+            release();
+        }
+
+        private void release() {
+            for (Key key : writes.keySet()) {
+                pending.computeIfPresent(key, (k, write) -> write.owner == this ? null : write);
+            }
+        }
+    }
+
+    private static class Write {
+        final byte[] data;
+        final Batch owner;
+
+        Write(byte[] data, Batch owner) {
+            this.data = data;
+            this.owner = owner;
+        }
+    }
+
+    private static class Key {
+        final String id;
+        final String sid;
+
+        Key(String id, String sid) {
+            this.id = id;
+            this.sid = sid;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return id.equals(key.id) && sid.equals(key.sid);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(id, sid);
+        }
+    }
+}
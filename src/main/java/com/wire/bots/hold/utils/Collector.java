@@ -16,6 +16,7 @@ public class Collector {
     private final Cache cache;
     private final LinkedList<Day> days = new LinkedList<>();
     private String convName;
+    private boolean complete = true;
 
     public Collector(Cache cache) {
         this.cache = cache;
@@ -54,9 +55,19 @@ public class Collector {
 
             Sender sender = sender(user, message);
             append(sender, message, event.getTime());
+        } else if (cache.isDownloading(event.getMessageId())) {
+            // Failed downloads and assets that never got their data are left out for good
+            complete = false;
         }
     }
 
+    /**
+     * @return false if an asset was left out that is still being downloaded
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
     public void addSystem(String text, String dateTime, String type) throws ParseException {
         Message message = new Message();
         message.text = Helper.markdown2Html(text, true);
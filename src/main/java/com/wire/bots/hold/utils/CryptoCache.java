@@ -0,0 +1,215 @@
+package com.wire.bots.hold.utils;
+
+import com.wire.bots.cryptobox.CryptoException;
+import com.wire.xenon.backend.models.QualifiedId;
+import com.wire.xenon.crypto.Crypto;
+import com.wire.xenon.tools.Logger;
+import io.dropwizard.lifecycle.Managed;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps the cryptoboxes of the legal hold users open between messages.
+ * <p>
+ *     Opening a {@link Crypto} loads the identity of the user from the database, so instead of opening and closing one
+ *     for every payload the most recently used ones are kept in a bounded LRU map. A cryptobox is handed to one thread
+ *     at a time: {@link #acquire(QualifiedId)} blocks while another thread is using the same user and the returned
+ *     {@link Lease} has to be closed once done.
+ * </p>
+ * <p>
+ *     Cryptoboxes are closed when they are pushed out of the map, when they were not used for {@code idleTime}
+ *     (see {@link #evictIdle()}), when the device is removed and on shutdown.
+ * </p>
+ */
+public class CryptoCache implements Managed {
+    private final CryptoDatabaseFactory cf;
+    private final int maxSize;
+    private final long idleTime;
+    private final Clock clock;
+    private final LinkedHashMap<QualifiedId, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    public CryptoCache(CryptoDatabaseFactory cf, int maxSize, Duration idleTime) {
+        this(cf, maxSize, idleTime, Clock.systemUTC());
+    }
+
+    CryptoCache(CryptoDatabaseFactory cf, int maxSize, Duration idleTime, Clock clock) {
+        this.cf = cf;
+        this.maxSize = maxSize;
+        this.idleTime = idleTime.toMillis();
+        this.clock = clock;
+    }
+
+    /**
+     * Opens the cryptobox of this user, or reuses the cached one.
+     * @param userId legal hold user
+     * @return exclusive access to the cryptobox until the lease is closed
+     * @throws CryptoException if the cryptobox could not be opened
+     */
+    public Lease acquire(QualifiedId userId) throws CryptoException {
+        while (true) {
+            final Entry entry;
+            synchronized (this) {
+                entry = entries.computeIfAbsent(userId, Entry::new);
+            }
+
+            entry.lock.lock();
+            if (entry.evicted) {
+                // Closed while we were waiting, take a fresh one
+                entry.lock.unlock();
+                continue;
+            }
+
+            try {
+                if (entry.crypto == null)
+                    entry.crypto = cf.create(userId);
+            } catch (CryptoException | RuntimeException e) {
+                evict(entry);
+                entry.lock.unlock();
+                throw e;
+            }
+
+            entry.lastUsed = clock.millis();
+            evictOverflow();
+            return new Lease(entry);
+        }
+    }
+
+    /**
+     * Closes the cached cryptobox of this user, waiting for the thread using it to finish.
+     * @param userId legal hold user
+     */
+    public void invalidate(QualifiedId userId) {
+        final Entry entry;
+        synchronized (this) {
+            entry = entries.get(userId);
+        }
+        if (entry == null)
+            return;
+
+        entry.lock.lock();
+        try {
+            evict(entry);
+        } finally {
+            entry.lock.unlock();
+        }
+    }
+
+    /**
+     * Closes the cryptoboxes that were not used for {@code idleTime}, skipping the ones in use.
+     */
+    public void evictIdle() {
+        final long threshold = clock.millis() - idleTime;
+        for (Entry entry : snapshot()) {
+            if (entry.lastUsed < threshold)
+                tryEvict(entry);
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    @Override
+    public void start() {
+    }
+
+    @Override
+    public void stop() {
+        for (Entry entry : snapshot()) {
+            invalidate(entry.userId);
+        }
+    }
+
+    private void evictOverflow() {
+        final List<Entry> eldest = new ArrayList<>();
+        synchronized (this) {
+            int overflow = entries.size() - maxSize;
+            final Iterator<Entry> it = entries.values().iterator();
+            while (overflow-- > 0 && it.hasNext()) {
+                eldest.add(it.next());
+            }
+        }
+
+        for (Entry entry : eldest) {
+            tryEvict(entry);
+        }
+    }
+
+    private void tryEvict(Entry entry) {
+        // An entry in use is left alone, it is picked up again once it becomes idle or overflows
+        if (entry.lock.isHeldByCurrentThread() || !entry.lock.tryLock())
+            return;
+        try {
+            evict(entry);
+        } finally {
+            entry.lock.unlock();
+        }
+    }
+
+    // Must be called holding the entry lock
+    private void evict(Entry entry) {
+        entry.evicted = true;
+        synchronized (this) {
+            entries.remove(entry.userId, entry);
+        }
+
+        if (entry.crypto != null) {
+            try {
+                entry.crypto.close();
+            } catch (Exception e) {
+                Logger.exception(e, "CryptoCache: close user: %s, error: %s", entry.userId, e.getMessage());
+            }
+            entry.crypto = null;
+        }
+    }
+
+    private synchronized List<Entry> snapshot() {
+        return new ArrayList<>(entries.values());
+    }
+
+    private static class Entry {
+        final QualifiedId userId;
+        final ReentrantLock lock = new ReentrantLock();
+        Crypto crypto;
+        volatile long lastUsed;
+        boolean evicted;
+
+        Entry(QualifiedId userId) {
+            this.userId = userId;
+        }
+    }
+
+    /**
+     * Exclusive access to the cached cryptobox of one user.
+     */
+    public class Lease implements AutoCloseable {
+        private final Entry entry;
+        private boolean closed;
+
+        private Lease(Entry entry) {
+            this.entry = entry;
+        }
+
+        public Crypto getCrypto() {
+            return entry.crypto;
+        }
+
+        /**
+         * Hands the cryptobox back to the cache, it stays open.
+         */
+        @Override
+        public void close() {
+            if (closed)
+                return;
+            closed = true;
+            entry.lastUsed = clock.millis();
+            entry.lock.unlock();
+        }
+    }
+}
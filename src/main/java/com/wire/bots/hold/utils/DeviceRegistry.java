@@ -0,0 +1,165 @@
+package com.wire.bots.hold.utils;
+
+import com.wire.bots.hold.DAO.AccessDAO;
+import com.wire.bots.hold.model.database.LHAccess;
+import com.wire.xenon.backend.models.QualifiedId;
+import com.wire.xenon.tools.Logger;
+import io.dropwizard.lifecycle.Managed;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory view of the enabled legal hold devices.
+ * <p>
+ *     Loaded once on startup and kept up to date by the changes made through this replica: confirming, disabling and
+ *     removing devices and renewing their tokens all write through to the {@code Access} table first, which stays the
+ *     source of truth. Devices changed by another replica are picked up when their lease is claimed (see
+ *     {@link #refresh(List)}) or their change is published on the {@code access_changes} channel, or read from the
+ *     database on a miss.
+ * </p>
+ * <p>
+ *     Entries are never modified in place: every update stores a new copy, so readers get a consistent snapshot
+ *     without locking and may keep it as long as they like.
+ * </p>
+ */
+public class DeviceRegistry implements Managed {
+    private final AccessDAO accessDAO;
+    private final ConcurrentHashMap<QualifiedId, LHAccess> devices = new ConcurrentHashMap<>();
+
+    public DeviceRegistry(AccessDAO accessDAO) {
+        this.accessDAO = accessDAO;
+    }
+
+    @Override
+    public void start() {
+        final List<LHAccess> enabled = accessDAO.listEnabled();
+        for (LHAccess device : enabled) {
+            devices.put(device.userId, copy(device));
+        }
+        Logger.info("DeviceRegistry: loaded %d devices", enabled.size());
+    }
+
+    @Override
+    public void stop() {
+    }
+
+    /**
+     * @param userId legal hold user
+     * @return snapshot of the device, or null if it is not enabled. Must not be modified
+     */
+    public LHAccess get(QualifiedId userId) {
+        final LHAccess device = devices.get(userId);
+        if (device != null)
+            return device;
+
+        // Confirmed through another replica since we loaded
+        final LHAccess stored = accessDAO.get(userId.id, userId.domain);
+        if (stored == null || !stored.enabled)
+            return null;
+        return devices.computeIfAbsent(userId, k -> copy(stored));
+    }
+
+    public Collection<LHAccess> list() {
+        return Collections.unmodifiableCollection(devices.values());
+    }
+
+    public int size() {
+        return devices.size();
+    }
+
+    /**
+     * Stores a new or re-enabled device, see {@link AccessDAO#insert(UUID, String, String, String)}.
+     */
+    public int insert(QualifiedId userId, String clientId, String cookie) {
+        final int insert = accessDAO.insert(userId.id, userId.domain, clientId, cookie);
+        final LHAccess stored = accessDAO.get(userId.id, userId.domain);
+        if (stored != null && stored.enabled)
+            devices.put(userId, copy(stored));
+        return insert;
+    }
+
+    /**
+     * Stores new or re-enabled devices in one batch. They are read back on first use, or as soon as their change is
+     * heard on the {@code access_changes} channel. A user must not be listed twice.
+     * @return rows inserted or updated per device, {@link java.sql.Statement#SUCCESS_NO_INFO} once the driver
+     * rewrote the batch
+     */
+    public int[] insert(List<AccessDAO.NewDevice> stored) {
+        final int[] inserted = accessDAO.insert(stored);
+        for (AccessDAO.NewDevice device : stored) {
+            devices.remove(new QualifiedId(device.userId, device.userDomain));
+        }
+        return inserted;
+    }
+
+    /**
+     * @return rows disabled per user
+     */
+    public int[] disable(List<QualifiedId> userIds) {
+        final List<UUID> ids = new ArrayList<>(userIds.size());
+        final List<String> domains = new ArrayList<>(userIds.size());
+        for (QualifiedId userId : userIds) {
+            ids.add(userId.id);
+            domains.add(userId.domain);
+        }
+
+        final int[] disabled = accessDAO.disable(ids, domains);
+        for (QualifiedId userId : userIds) {
+            devices.remove(userId);
+        }
+        return disabled;
+    }
+
+    public int disable(QualifiedId userId) {
+        final int disabled = accessDAO.disable(userId.id, userId.domain);
+        devices.remove(userId);
+        return disabled;
+    }
+
+    public void updateToken(QualifiedId userId, String token, String cookie) {
+        accessDAO.update(userId.id, userId.domain, token, cookie);
+        devices.computeIfPresent(userId, (k, device) -> {
+            final LHAccess updated = copy(device);
+            updated.token = token;
+            updated.cookie = cookie;
+            return updated;
+        });
+    }
+
+    /**
+     * Forgets the device without touching the database, the next {@link #get(QualifiedId)} reads it again.
+     */
+    public void evict(QualifiedId userId) {
+        devices.remove(userId);
+    }
+
+    /**
+     * Takes over the rows just read from the database, i.e. the devices whose lease was renewed or claimed.
+     */
+    public void refresh(List<LHAccess> rows) {
+        for (LHAccess row : rows) {
+            if (row.enabled)
+                devices.put(row.userId, copy(row));
+            else
+                devices.remove(row.userId);
+        }
+    }
+
+    private static LHAccess copy(LHAccess device) {
+        final LHAccess copy = new LHAccess();
+        copy.last = device.last;
+        copy.userId = device.userId;
+        copy.clientId = device.clientId;
+        copy.token = device.token;
+        copy.cookie = device.cookie;
+        copy.updated = device.updated;
+        copy.created = device.created;
+        copy.enabled = device.enabled;
+        return copy;
+    }
+}
@@ -0,0 +1,212 @@
+package com.wire.bots.hold.utils;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.wire.xenon.tools.Logger;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Rendered conversation pdfs kept on disk, one per conversation, as {@code <conversationId>.<version>.pdf}.
+ * <p>
+ *     The version is the high-water mark of the conversation's events (see {@code EventsDAO.getHighWaterMark}), so an
+ *     export is only served while no event has been added or removed since it was rendered, whichever replica stored
+ *     the events. New events stored by this replica also drop the export right away to free the space early.
+ * </p>
+ * <p>
+ *     The least recently served exports are deleted once the files add up to more than {@code maxBytes}. The index
+ *     is rebuilt from the directory on start, ordered by the last time each file was served.
+ * </p>
+ */
+public class ExportCache {
+    private static final String SUFFIX = ".pdf";
+
+    private final Path dir;
+    private final Path tmp;
+    private final long maxBytes;
+    private final LinkedHashMap<UUID, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Meter hits;
+    private final Meter misses;
+    private long bytes;
+
+    /**
+     * @param maxBytes 0 turns the cache off
+     */
+    public ExportCache(Path dir, long maxBytes, MetricRegistry metrics) throws IOException {
+        this.dir = dir;
+        this.tmp = Files.createDirectories(dir.resolve("tmp"));
+        this.maxBytes = maxBytes;
+        this.hits = metrics.meter(MetricRegistry.name(ExportCache.class, "hits"));
+        this.misses = metrics.meter(MetricRegistry.name(ExportCache.class, "misses"));
+
+        metrics.gauge(MetricRegistry.name(ExportCache.class, "bytes"), () -> (Gauge<Long>) this::bytes);
+        metrics.gauge(MetricRegistry.name(ExportCache.class, "entries"), () -> (Gauge<Integer>) this::size);
+
+        load();
+    }
+
+    public boolean isEnabled() {
+        return maxBytes > 0;
+    }
+
+    /**
+     * @return the export rendered at this version, null if there is none
+     */
+    @Nullable
+    public InputStream open(UUID conversationId, String version) {
+        final Entry entry;
+        synchronized (this) {
+            entry = entries.get(conversationId);
+        }
+
+        if (entry == null || !entry.version.equals(version)) {
+            misses.mark();
+            return null;
+        }
+
+        try {
+            final InputStream in = Files.newInputStream(entry.path);
+            Files.setLastModifiedTime(entry.path, FileTime.fromMillis(System.currentTimeMillis()));
+            hits.mark();
+            return in;
+        } catch (NoSuchFileException e) {
+            // Evicted meanwhile
+            misses.mark();
+            return null;
+        } catch (IOException e) {
+            Logger.exception(e, "ExportCache.open: conv: %s, error: %s", conversationId, e.getMessage());
+            misses.mark();
+            return null;
+        }
+    }
+
+    /**
+     * @return an empty file on the same file system, to render into and hand to {@link #put}
+     */
+    public File newFile() throws IOException {
+        return Files.createTempFile(tmp, "export-", SUFFIX).toFile();
+    }
+
+    /**
+     * Takes over {@code rendered}, which may be gone right away if it does not fit.
+     */
+    public void put(UUID conversationId, String version, File rendered) throws IOException {
+        final Path path = dir.resolve(conversationId + "." + version + SUFFIX);
+        Files.move(rendered.toPath(), path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        final List<Path> evicted = new ArrayList<>();
+        synchronized (this) {
+            final Entry previous = entries.put(conversationId, new Entry(version, path, Files.size(path)));
+            if (previous != null) {
+                bytes -= previous.size;
+                if (!previous.path.equals(path))
+                    evicted.add(previous.path);
+            }
+            bytes += entries.get(conversationId).size;
+            trim(evicted);
+        }
+        delete(evicted);
+    }
+
+    public void invalidate(UUID conversationId) {
+        final Entry entry;
+        synchronized (this) {
+            entry = entries.remove(conversationId);
+            if (entry != null)
+                bytes -= entry.size;
+        }
+        if (entry != null)
+            delete(Collections.singletonList(entry.path));
+    }
+
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private void load() throws IOException {
+        // Left over by renders that did not finish
+        try (Stream<Path> list = Files.list(tmp)) {
+            delete(list.collect(Collectors.toList()));
+        }
+
+        final List<Path> files;
+        try (Stream<Path> list = Files.list(dir)) {
+            files = list.filter(path -> path.getFileName().toString().endsWith(SUFFIX)).collect(Collectors.toList());
+        }
+
+        final Map<Path, FileTime> served = new HashMap<>();
+        for (Path path : files) {
+            served.put(path, Files.getLastModifiedTime(path));
+        }
+        files.sort(Comparator.comparing(served::get));
+
+        final List<Path> stale = new ArrayList<>();
+        synchronized (this) {
+            for (Path path : files) {
+                final String name = path.getFileName().toString();
+                final String[] parts = name.substring(0, name.length() - SUFFIX.length()).split("\\.", 2);
+                try {
+                    final UUID conversationId = UUID.fromString(parts[0]);
+                    final Entry previous = entries.put(conversationId, new Entry(parts[1], path, Files.size(path)));
+                    bytes += entries.get(conversationId).size;
+                    if (previous != null) {
+                        bytes -= previous.size;
+                        stale.add(previous.path);
+                    }
+                } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+                    stale.add(path);
+                }
+            }
+            trim(stale);
+        }
+        delete(stale);
+    }
+
+    /**
+     * Drops the least recently served exports until the rest fits. Called holding the lock.
+     */
+    private void trim(List<Path> evicted) {
+        final Iterator<Entry> lru = entries.values().iterator();
+        while (bytes > maxBytes && lru.hasNext()) {
+            final Entry entry = lru.next();
+            lru.remove();
+            bytes -= entry.size;
+            evicted.add(entry.path);
+        }
+    }
+
+    private static void delete(List<Path> paths) {
+        for (Path path : paths) {
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                Logger.exception(e, "ExportCache.delete: %s, error: %s", path, e.getMessage());
+            }
+        }
+    }
+
+    private static class Entry {
+        final String version;
+        final Path path;
+        final long size;
+
+        Entry(String version, Path path, long size) {
+            this.version = version;
+            this.path = path;
+            this.size = size;
+        }
+    }
+}
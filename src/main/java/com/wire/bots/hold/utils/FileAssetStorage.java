@@ -0,0 +1,94 @@
+package com.wire.bots.hold.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps the assets as files named after the SHA-256 of their content: {@code <root>/ab/cd/abcd...}.
+ * <p>
+ *     The two levels of sharding keep the directories small. A file is written to {@code <root>/tmp} first and moved
+ *     in place once its digest is known, so a reader never sees a partial file and two replicas storing the same
+ *     content at once both end up with the same complete file.
+ * </p>
+ */
+public class FileAssetStorage implements AssetStorage {
+    private static final Pattern KEY = Pattern.compile("[0-9a-f]{64}");
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final Path root;
+    private final Path tmp;
+
+    public FileAssetStorage(Path root) throws IOException {
+        this.root = root;
+        this.tmp = Files.createDirectories(root.resolve("tmp"));
+    }
+
+    @Override
+    public String put(InputStream data) throws IOException {
+        final Path temp = Files.createTempFile(tmp, "put-", ".tmp");
+        try {
+            final MessageDigest digest = sha256();
+            Files.copy(new DigestInputStream(data, digest), temp, StandardCopyOption.REPLACE_EXISTING);
+
+            final String key = hex(digest.digest());
+            final Path target = path(key);
+            if (!Files.exists(target)) {
+                Files.createDirectories(target.getParent());
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+            }
+            return key;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    @Override
+    public InputStream open(String key) throws IOException {
+        return Files.newInputStream(path(key));
+    }
+
+    @Override
+    public Path file(String key) throws IOException {
+        final Path file = path(key);
+        if (!Files.exists(file))
+            throw new NoSuchFileException(key);
+        return file.toAbsolutePath();
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        Files.deleteIfExists(path(key));
+    }
+
+    Path path(String key) {
+        if (!KEY.matcher(key).matches())
+            throw new IllegalArgumentException("Not an asset key: " + key);
+
+        return root.resolve(key.substring(0, 2)).resolve(key.substring(2, 4)).resolve(key);
+    }
+
+    private static String hex(byte[] bytes) {
+        final char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(chars);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
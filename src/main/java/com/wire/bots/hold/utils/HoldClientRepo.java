@@ -1,32 +1,45 @@
 package com.wire.bots.hold.utils;
 
 import com.wire.bots.cryptobox.CryptoException;
-import com.wire.bots.hold.DAO.AccessDAO;
 import com.wire.bots.hold.model.database.LHAccess;
 import com.wire.helium.API;
 import com.wire.xenon.WireClient;
 import com.wire.xenon.backend.models.QualifiedId;
-import com.wire.xenon.crypto.Crypto;
-import org.jdbi.v3.core.Jdbi;
 
 import javax.ws.rs.client.Client;
 
 public class HoldClientRepo {
 
-    private final Jdbi jdbi;
-    private final CryptoDatabaseFactory cf;
+    private final DeviceRegistry registry;
+    private final CryptoCache cryptoCache;
     private final Client httpClient;
 
-    public HoldClientRepo(Jdbi jdbi, CryptoDatabaseFactory cf, Client httpClient) {
-        this.jdbi = jdbi;
-        this.cf = cf;
+    public HoldClientRepo(DeviceRegistry registry, CryptoCache cryptoCache, Client httpClient) {
+        this.registry = registry;
+        this.cryptoCache = cryptoCache;
         this.httpClient = httpClient;
     }
 
+    /**
+     * The returned client holds the cryptobox of this user exclusively until it is closed.
+     */
     public WireClient getClient(QualifiedId userId, String deviceId, QualifiedId conversationId) throws CryptoException {
-        Crypto crypto = cf.create(userId);
-        final LHAccess single = jdbi.onDemand(AccessDAO.class).get(userId.id, userId.domain);
-        final API api = new API(httpClient, conversationId, single.token);
-        return new HoldWireClient(userId, deviceId, conversationId, crypto, api);
+        final CryptoCache.Lease lease = cryptoCache.acquire(userId);
+        try {
+            final LHAccess device = registry.get(userId);
+            final API api = new API(httpClient, conversationId, device != null ? device.token : null);
+            return new HoldWireClient(userId, deviceId, conversationId, lease, api);
+        } catch (RuntimeException e) {
+            lease.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Client for the unencrypted conversation events (create, rename, member join/leave). Opens no cryptobox and
+     * does not read the device, so it costs nothing to build.
+     */
+    public WireClient getSystemClient(QualifiedId userId, String deviceId, QualifiedId conversationId) {
+        return new HoldWireClient(userId, deviceId, conversationId);
     }
 }
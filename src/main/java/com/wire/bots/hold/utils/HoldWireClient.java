@@ -10,6 +10,7 @@ import com.wire.xenon.crypto.Crypto;
 import com.wire.xenon.models.AssetKey;
 import com.wire.xenon.models.otr.PreKey;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.UUID;
 
@@ -18,9 +19,23 @@ public class HoldWireClient extends WireClientBase implements WireClient {
     private final User user;
     private final QualifiedId conversationId;
     private final String deviceId;
+    private final CryptoCache.Lease lease;
 
-    HoldWireClient(QualifiedId userId, String deviceId, QualifiedId convId, Crypto crypto, API api) {
+    HoldWireClient(QualifiedId userId, String deviceId, QualifiedId convId, CryptoCache.Lease lease, API api) {
+        this(userId, deviceId, convId, lease, api, lease.getCrypto());
+    }
+
+    /**
+     * Client for the conversation events that are not encrypted: it has neither a cryptobox nor an API and only
+     * tells the handler whose event it is.
+     */
+    HoldWireClient(QualifiedId userId, String deviceId, QualifiedId convId) {
+        this(userId, deviceId, convId, null, null, null);
+    }
+
+    private HoldWireClient(QualifiedId userId, String deviceId, QualifiedId convId, CryptoCache.Lease lease, API api, Crypto crypto) {
         super(api, crypto, null);
+        this.lease = lease;
 
         User user =  new User();
         user.id = userId;
@@ -77,6 +92,15 @@ public class HoldWireClient extends WireClientBase implements WireClient {
         return user;
     }
 
+    /**
+     * Hands the cryptobox back to the {@link CryptoCache} instead of closing it.
+     */
+    @Override
+    public void close() throws IOException {
+        if (lease != null)
+            lease.close();
+    }
+
     @Override
     public void acceptConnection(QualifiedId user) {
 
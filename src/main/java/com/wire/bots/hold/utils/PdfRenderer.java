@@ -0,0 +1,183 @@
+package com.wire.bots.hold.utils;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.openhtmltopdf.extend.FSSupplier;
+import com.openhtmltopdf.pdfboxout.PdfBoxRenderer;
+import com.openhtmltopdf.pdfboxout.PdfRendererBuilder;
+import com.openhtmltopdf.resource.XMLResource;
+import com.openhtmltopdf.svgsupport.BatikSVGDrawer;
+import com.openhtmltopdf.util.XRLog;
+import org.w3c.dom.Document;
+
+import java.io.*;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Renders html to pdf, at most {@code threads} documents at a time.
+ * <p>
+ *     Every render gets a builder of its own, nothing is shared between them but the font files. A render first takes
+ *     one of the slots with {@link #acquire()}. Up to {@code queueSize} callers wait for a slot, any further caller
+ *     is turned away right away so it can answer {@code 503} instead of piling up on the request threads.
+ * </p>
+ */
+public class PdfRenderer {
+    public static final int RETRY_AFTER = 30;   // s, suggested to the callers turned away
+    private static final String[] fonts = new String[]{
+            "Arial-Unicode.ttf",
+            "Arial-Bold.ttf"
+    };
+    private static final String FONT_FAMILY = "Arial";
+
+    static {
+        XRLog.setLoggingEnabled(false);
+    }
+
+    private final Semaphore slots;
+    private final int queueSize;
+    private final long maxWait;
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final Timer renderTimer;
+    private final Timer waitTimer;
+    private final Histogram sizes;
+    private final Meter rejected;
+
+    /**
+     * @param threads   renders running at once
+     * @param queueSize renders waiting for a slot
+     * @param maxWait   ms a render waits for a slot before it is turned away
+     */
+    public PdfRenderer(int threads, int queueSize, long maxWait, MetricRegistry metrics) {
+        this.slots = new Semaphore(threads, true);
+        this.queueSize = queueSize;
+        this.maxWait = maxWait;
+        this.renderTimer = metrics.timer(MetricRegistry.name(PdfRenderer.class, "render"));
+        this.waitTimer = metrics.timer(MetricRegistry.name(PdfRenderer.class, "wait"));
+        this.sizes = metrics.histogram(MetricRegistry.name(PdfRenderer.class, "size"));
+        this.rejected = metrics.meter(MetricRegistry.name(PdfRenderer.class, "rejected"));
+
+        metrics.gauge(MetricRegistry.name(PdfRenderer.class, "waiting"), () -> (Gauge<Integer>) waiting::get);
+    }
+
+    /**
+     * @return slot to render one document with. Closing it lets the next render in
+     * @throws RejectedExecutionException too many renders are running or waiting already
+     */
+    public Slot acquire() throws InterruptedException {
+        try (Timer.Context ignored = waitTimer.time()) {
+            if (slots.tryAcquire())
+                return new Slot();
+
+            if (waiting.incrementAndGet() > queueSize) {
+                waiting.decrementAndGet();
+                rejected.mark();
+                throw new RejectedExecutionException("All pdf renderers are busy");
+            }
+
+            try {
+                if (!slots.tryAcquire(maxWait, TimeUnit.MILLISECONDS)) {
+                    rejected.mark();
+                    throw new RejectedExecutionException("No pdf renderer freed up in time");
+                }
+            } finally {
+                waiting.decrementAndGet();
+            }
+            return new Slot();
+        }
+    }
+
+    /**
+     * Waits for a slot for as long as it takes, for renders without a client waiting on them. They neither count
+     * against {@code queueSize} nor are turned away, the fair slots let them take turns with the requests.
+     *
+     * @return slot to render one document with. Closing it lets the next render in
+     */
+    public Slot await() throws InterruptedException {
+        try (Timer.Context ignored = waitTimer.time()) {
+            slots.acquire();
+            return new Slot();
+        }
+    }
+
+    public class Slot implements AutoCloseable {
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private Slot() {
+        }
+
+        /**
+         * Parses the html straight from {@code html} and writes the pdf to {@code out} as it is rendered. The whole
+         * document is still laid out in memory, but neither the html nor the pdf are held as a copy.
+         *
+         * @return pages of the pdf
+         */
+        public int render(Reader html, String baseUri, OutputStream out) throws Exception {
+            final CountingOutputStream counting = new CountingOutputStream(out);
+            final int pages;
+            try (Timer.Context ignored = renderTimer.time()) {
+                final Document document = XMLResource.load(html).getDocument();
+                try (PdfBoxRenderer pdf = newBuilder()
+                        .withW3cDocument(document, baseUri)
+                        .toStream(counting)
+                        .buildPdfRenderer()) {
+                    pdf.layout();
+                    pages = pdf.getRootBox().getLayer().getPages().size();
+                    pdf.createPDF();
+                }
+            }
+            sizes.update(counting.count);
+            return pages;
+        }
+
+        @Override
+        public void close() {
+            // Called by the render and again when the request ends, maybe from another thread
+            if (closed.compareAndSet(false, true))
+                slots.release();
+        }
+    }
+
+    private static PdfRendererBuilder newBuilder() {
+        final PdfRendererBuilder builder = new PdfRendererBuilder().useSVGDrawer(new BatikSVGDrawer());
+        for (String font : fonts) {
+            builder.useFont(new FSSupplier<InputStream>() {
+                @Override
+                public InputStream supply() {
+                    return PdfRenderer.class.getClassLoader().getResourceAsStream(String.format("fonts/%s", font));
+                }
+            }, FONT_FAMILY);
+        }
+        return builder.useUriResolver((bu, uri) -> {
+            if (uri.contains(":"))
+                return uri.contains(".") ? uri : null;
+            return bu + uri;
+        });
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
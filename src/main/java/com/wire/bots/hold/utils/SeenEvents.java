@@ -0,0 +1,70 @@
+package com.wire.bots.hold.utils;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Ids of the events recently committed to the {@code Events} table.
+ * <p>
+ *     When several members of a conversation are under legal hold, every one of their devices receives the same
+ *     event and all but the first copy end up in {@code ON CONFLICT (eventId) DO NOTHING}. Checking here first lets
+ *     the later copies skip the work that only serves the insert.
+ * </p>
+ * <p>
+ *     The ids are kept in a fixed, direct mapped table: a new id simply overwrites whatever shared its slot. An id that
+ *     was pushed out is reported as unseen and takes the regular path, an id that was never added is never reported
+ *     as seen, so a hit is always safe to skip. Only ids of committed pages are added, a page that fails does not make
+ *     the copies of the other users disappear.
+ * </p>
+ * <p>
+ *     Every slot holds the two halves of an id and a stamp that is odd while the slot is written, so the workers and
+ *     the persist lanes use the table at the same time without a lock and never match half of an id. A writer that
+ *     finds the slot busy drops its id.
+ * </p>
+ */
+public class SeenEvents {
+    private final AtomicLongArray ids;          // Most and least significant bits of the id of every slot
+    private final AtomicIntegerArray stamps;    // Writes to every slot, odd while one is under way, 0 if never written
+    private final int mask;
+
+    /**
+     * @param capacity number of ids kept, rounded up to a power of two. Costs 20 bytes per id
+     */
+    public SeenEvents(int capacity) {
+        final int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        this.ids = new AtomicLongArray(2 * size);
+        this.stamps = new AtomicIntegerArray(size);
+        this.mask = size - 1;
+    }
+
+    public boolean contains(UUID eventId) {
+        final int slot = slot(eventId);
+        final int stamp = stamps.get(slot);
+        if (stamp == 0 || (stamp & 1) != 0)
+            return false;
+
+        final boolean equal = ids.get(2 * slot) == eventId.getMostSignificantBits()
+                && ids.get(2 * slot + 1) == eventId.getLeastSignificantBits();
+        return equal && stamps.get(slot) == stamp;
+    }
+
+    public void add(UUID eventId) {
+        final int slot = slot(eventId);
+        final int stamp = stamps.get(slot);
+        if ((stamp & 1) != 0 || !stamps.compareAndSet(slot, stamp, stamp + 1))
+            return;
+
+        ids.set(2 * slot, eventId.getMostSignificantBits());
+        ids.set(2 * slot + 1, eventId.getLeastSignificantBits());
+        stamps.set(slot, stamp + 2);
+    }
+
+    private int slot(UUID eventId) {
+        long hash = eventId.getMostSignificantBits() * 0x9E3779B97F4A7C15L ^ eventId.getLeastSignificantBits();
+        hash ^= hash >>> 32;
+        hash *= 0xC2B2AE3D27D4EB4FL;
+        hash ^= hash >>> 29;
+        return (int) hash & mask;
+    }
+}
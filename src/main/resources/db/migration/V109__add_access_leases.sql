@@ -0,0 +1,11 @@
+-- Devices are split between the running replicas: a replica only polls the devices it holds a lease on
+ALTER TABLE Access
+ADD COLUMN leaseOwner VARCHAR(255) DEFAULT null;
+
+ALTER TABLE Access
+ADD COLUMN leaseExpires TIMESTAMP DEFAULT null;
+
+CREATE TABLE Replicas (
+    owner VARCHAR(255) PRIMARY KEY,
+    heartbeat TIMESTAMP NOT NULL
+);
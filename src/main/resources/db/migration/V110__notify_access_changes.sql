@@ -0,0 +1,24 @@
+-- Publishes confirmed, disabled and re-keyed devices on the access_changes channel so every replica picks them up
+-- without scanning the table. Checkpoint and lease updates are not published.
+CREATE OR REPLACE FUNCTION notify_access_change() RETURNS trigger AS $$
+BEGIN
+    IF TG_OP = 'UPDATE'
+        AND NEW.enabled IS NOT DISTINCT FROM OLD.enabled
+        AND NEW.clientId IS NOT DISTINCT FROM OLD.clientId
+        AND NEW.cookie IS NOT DISTINCT FROM OLD.cookie
+        AND NEW.token IS NOT DISTINCT FROM OLD.token THEN
+        RETURN NEW;
+    END IF;
+
+    PERFORM pg_notify('access_changes', json_build_object(
+        'userId', NEW.userId,
+        'userDomain', NEW.userDomain,
+        'enabled', NEW.enabled = 1
+    )::text);
+    RETURN NEW;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER access_changes
+AFTER INSERT OR UPDATE ON Access
+FOR EACH ROW EXECUTE PROCEDURE notify_access_change();
@@ -0,0 +1,20 @@
+-- Asset downloads are queued here by the ingestion and fetched by the asset workers.
+-- A job is deleted once its data is stored, a job that ran out of attempts stays as FAILED until it is retried.
+CREATE TABLE AssetJobs (
+    messageId UUID PRIMARY KEY,
+    userId UUID NOT NULL,
+    userDomain VARCHAR(255),
+    assetId VARCHAR NOT NULL,
+    assetDomain VARCHAR(255),
+    assetToken VARCHAR,
+    otrKey BYTEA NOT NULL,
+    sha256 BYTEA NOT NULL,
+    status VARCHAR(16) NOT NULL,
+    attempts INTEGER NOT NULL DEFAULT 0,
+    nextAttempt TIMESTAMP NOT NULL,
+    lastError VARCHAR,
+    created TIMESTAMP NOT NULL,
+    updated TIMESTAMP NOT NULL
+);
+
+CREATE INDEX asset_jobs_next_attempt ON AssetJobs (nextAttempt) WHERE status <> 'FAILED';
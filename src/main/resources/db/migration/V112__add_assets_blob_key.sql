@@ -0,0 +1,4 @@
+-- Asset content is kept in the asset storage, the row only points to it.
+-- `data` is left for the rows stored before, the move-assets command moves them out and empties it.
+ALTER TABLE Assets
+ADD COLUMN blobKey VARCHAR(64) DEFAULT null;
@@ -0,0 +1,19 @@
+-- Pdf exports rendered in the background by the export workers, see POST /exports/conv/{conversationId}.
+-- A running job is kept alive by its worker through `updated`, one not heard of for a while is claimed again.
+-- The pdf of a DONE job is in the export job storage under blobKey until the job expires.
+CREATE TABLE ExportJobs (
+    jobId UUID PRIMARY KEY,
+    conversationId UUID NOT NULL,
+    status VARCHAR(16) NOT NULL,
+    attempts INTEGER NOT NULL DEFAULT 0,
+    events INTEGER NOT NULL DEFAULT 0,
+    eventsProcessed INTEGER NOT NULL DEFAULT 0,
+    pages INTEGER,
+    blobKey VARCHAR(64),
+    size BIGINT,
+    lastError VARCHAR,
+    created TIMESTAMP NOT NULL,
+    updated TIMESTAMP NOT NULL
+);
+
+CREATE INDEX export_jobs_status ON ExportJobs (status, updated);
@@ -0,0 +1,2 @@
+-- Exports read the events of a conversation a page at a time, oldest first
+CREATE INDEX events_conversation_id_time_idx ON Events (conversationId, time, eventId);
@@ -0,0 +1,151 @@
+package com.wire.bots.hold;
+
+import com.codahale.metrics.MetricRegistry;
+import com.wire.bots.hold.DAO.AssetJobsDAO;
+import com.wire.bots.hold.DAO.AssetsDAO;
+import com.wire.bots.hold.model.database.AssetJob;
+import com.wire.bots.hold.model.database.LHAccess;
+import com.wire.bots.hold.utils.AccessTokenCache;
+import com.wire.bots.hold.utils.AssetDownloader;
+import com.wire.bots.hold.utils.AssetStorage;
+import com.wire.bots.hold.utils.DeviceRegistry;
+import com.wire.xenon.backend.models.QualifiedId;
+import io.dropwizard.util.Duration;
+import org.jdbi.v3.core.Jdbi;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class AssetWorkerTest {
+
+    private AssetJobsDAO jobsDAO;
+    private AssetsDAO assetsDAO;
+    private AssetDownloader downloader;
+    private AssetStorage storage;
+    private AssetWorker worker;
+    private AssetJob job;
+    private Jdbi jdbi;
+    private DeviceRegistry registry;
+    private AccessTokenCache tokens;
+    private Config.Assets config;
+
+    @Before
+    public void before() throws Exception {
+        jdbi = mock(Jdbi.class);
+        jobsDAO = mock(AssetJobsDAO.class);
+        assetsDAO = mock(AssetsDAO.class);
+        when(jdbi.onDemand(AssetJobsDAO.class)).thenReturn(jobsDAO);
+        when(jdbi.onDemand(AssetsDAO.class)).thenReturn(assetsDAO);
+
+        final LHAccess device = new LHAccess();
+        device.userId = new QualifiedId(UUID.randomUUID(), "wire.com");
+        registry = mock(DeviceRegistry.class);
+        when(registry.get(device.userId)).thenReturn(device);
+
+        tokens = mock(AccessTokenCache.class);
+        when(tokens.getToken(device)).thenReturn("token");
+
+        downloader = mock(AssetDownloader.class);
+        storage = mock(AssetStorage.class);
+
+        config = new Config.Assets();
+        config.workers = 2;
+        config.maxAttempts = 3;
+        config.retryDelay = Duration.seconds(30);
+        config.maxRetryDelay = Duration.minutes(1);
+
+        worker = new AssetWorker(jdbi, registry, tokens, downloader, storage, Runnable::run, config, new MetricRegistry());
+
+        job = new AssetJob();
+        job.messageId = UUID.randomUUID();
+        job.userId = device.userId.id;
+        job.userDomain = device.userId.domain;
+        job.assetId = "3-1-asset";
+        job.assetDomain = "wire.com";
+        job.otrKey = new byte[]{1};
+        job.sha256 = new byte[]{2};
+        job.attempts = 1;
+    }
+
+    @Test
+    public void givenDownloaded_whenRun_thenStoreAndDeleteJob() throws Exception {
+        // given
+        final File file = Files.createTempFile("asset-", ".bin").toFile();
+        Files.write(file.toPath(), new byte[]{42});
+        when(jobsDAO.claim(anyLong(), eq(2))).thenReturn(Collections.singletonList(job));
+        when(downloader.download(job, "token")).thenReturn(file);
+        when(storage.put(any(InputStream.class))).thenReturn("key");
+
+        // when
+        worker.run();
+
+        // then
+        verify(assetsDAO).insertBlobKey(job.messageId, "key");
+        verify(jobsDAO).delete(job.messageId);
+        assert !file.exists();
+    }
+
+    @Test
+    public void givenFailedDownload_whenRun_thenRetryWithBackoff() throws Exception {
+        // given
+        job.attempts = 2;
+        when(jobsDAO.claim(anyLong(), anyInt())).thenReturn(Collections.singletonList(job));
+        when(downloader.download(any(), any())).thenThrow(new IOException("reset"));
+
+        // when
+        worker.run();
+
+        // then
+        verify(jobsDAO).retryLater(eq(job.messageId), eq(60L), contains("reset"));
+        verify(jobsDAO, never()).delete(any());
+    }
+
+    @Test
+    public void givenLastAttempt_whenFailed_thenKeepAsFailed() throws Exception {
+        // given
+        job.attempts = 3;
+        when(jobsDAO.claim(anyLong(), anyInt())).thenReturn(Collections.singletonList(job));
+        when(downloader.download(any(), any())).thenThrow(new IOException("reset"));
+
+        // when
+        worker.run();
+
+        // then
+        verify(jobsDAO).fail(eq(job.messageId), contains("reset"));
+        verify(jobsDAO, never()).retryLater(any(), anyLong(), any());
+    }
+
+    @Test
+    public void givenSlowDownload_whenClaimedAgain_thenKeepItAliveAndNeverStartItTwice() {
+        // given
+        final List<Runnable> started = new ArrayList<>();
+        final AssetWorker slow = new AssetWorker(jdbi, registry, tokens, downloader, storage, started::add, config, new MetricRegistry());
+        when(jobsDAO.claim(anyLong(), anyInt())).thenReturn(Collections.singletonList(job));
+
+        // when
+        slow.run();
+        slow.run();
+
+        // then
+        assert started.size() == 1;
+        verify(jobsDAO).touch(eq(Collections.singletonList(job.messageId)), anyLong());
+    }
+
+    @Test
+    public void givenManyFailures_whenBackingOff_thenCapAtMaxDelay() {
+        assert worker.backoff(1) == 30;
+        assert worker.backoff(2) == 60;
+        assert worker.backoff(10) == 60;
+    }
+}
@@ -1,6 +1,9 @@
 package com.wire.bots.hold;
 
 import com.wire.bots.hold.DAO.AccessDAO;
+import com.wire.bots.hold.model.api.v1.BatchConfirmPayloadV1;
+import com.wire.bots.hold.model.api.v1.BatchInitPayloadV1;
+import com.wire.bots.hold.model.api.v1.BatchResponseV1;
 import com.wire.bots.hold.model.api.v1.ConfirmPayloadV1;
 import com.wire.bots.hold.model.api.v1.InitPayloadV1;
 import com.wire.bots.hold.model.database.LHAccess;
@@ -18,6 +21,7 @@ import javax.ws.rs.client.Entity;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import java.util.ArrayList;
 import java.util.UUID;
 
 public class ConfirmRemoveResourceV1Test {
@@ -111,6 +115,121 @@ public class ConfirmRemoveResourceV1Test {
         assert removeResponse.getStatus() == HttpStatus.SC_OK;
     }
 
+    @Test
+    public void givenBatchConfirmAndRemove_ReturnResultPerUser() {
+        final UUID teamId = UUID.randomUUID();
+        final BatchConfirmPayloadV1 confirmPayload = new BatchConfirmPayloadV1();
+        confirmPayload.teamId = teamId;
+        confirmPayload.devices = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            final BatchConfirmPayloadV1.Device device = new BatchConfirmPayloadV1.Device();
+            device.userId = new QualifiedId(UUID.randomUUID(), UUID.randomUUID().toString());
+            device.clientId = UUID.randomUUID().toString();
+            device.refreshToken = UUID.randomUUID().toString();
+            confirmPayload.devices.add(device);
+        }
+
+        final Response confirmResponse = post("confirm", confirmPayload);
+        assert confirmResponse.getStatus() == HttpStatus.SC_OK;
+        final BatchResponseV1 confirmed = confirmResponse.readEntity(BatchResponseV1.class);
+        assert confirmed.results.size() == 3;
+        for (BatchConfirmPayloadV1.Device device : confirmPayload.devices) {
+            final LHAccess lhAccess = accessDAO.get(device.userId.id, device.userId.domain);
+            assert lhAccess != null && lhAccess.enabled;
+            assert lhAccess.cookie.equals(device.refreshToken);
+        }
+
+        final BatchInitPayloadV1 removePayload = new BatchInitPayloadV1();
+        removePayload.teamId = teamId;
+        removePayload.userIds = new ArrayList<>();
+        for (BatchConfirmPayloadV1.Device device : confirmPayload.devices) {
+            removePayload.userIds.add(device.userId);
+        }
+
+        final Response removeResponse = post("remove", removePayload);
+        assert removeResponse.getStatus() == HttpStatus.SC_OK;
+        final BatchResponseV1 removed = removeResponse.readEntity(BatchResponseV1.class);
+        assert removed.results.stream().allMatch(result -> result.error == null);
+        for (QualifiedId userId : removePayload.userIds) {
+            assert !accessDAO.get(userId.id, userId.domain).enabled;
+        }
+    }
+
+    @Test
+    public void givenBatchConfirmWithDuplicatedUser_LastDeviceWins() {
+        final QualifiedId userId = new QualifiedId(UUID.randomUUID(), UUID.randomUUID().toString());
+        final BatchConfirmPayloadV1 confirmPayload = new BatchConfirmPayloadV1();
+        confirmPayload.teamId = UUID.randomUUID();
+        confirmPayload.devices = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            final BatchConfirmPayloadV1.Device device = new BatchConfirmPayloadV1.Device();
+            device.userId = userId;
+            device.clientId = UUID.randomUUID().toString();
+            device.refreshToken = UUID.randomUUID().toString();
+            confirmPayload.devices.add(device);
+        }
+
+        final Response confirmResponse = post("confirm", confirmPayload);
+        assert confirmResponse.getStatus() == HttpStatus.SC_OK;
+        final BatchResponseV1 confirmed = confirmResponse.readEntity(BatchResponseV1.class);
+        assert confirmed.results.size() == 2;
+        assert confirmed.results.get(0).error != null;
+        assert confirmed.results.get(1).error == null;
+
+        final LHAccess lhAccess = accessDAO.get(userId.id, userId.domain);
+        assert lhAccess != null && lhAccess.enabled;
+        assert lhAccess.clientId.equals(confirmPayload.devices.get(1).clientId);
+        assert lhAccess.cookie.equals(confirmPayload.devices.get(1).refreshToken);
+    }
+
+    @Test
+    public void givenBatchInitWithDuplicatedUser_SameKeysForBoth() {
+        final QualifiedId userId = new QualifiedId(UUID.randomUUID(), UUID.randomUUID().toString());
+        final BatchInitPayloadV1 initPayload = new BatchInitPayloadV1();
+        initPayload.teamId = UUID.randomUUID();
+        initPayload.userIds = new ArrayList<>();
+        initPayload.userIds.add(userId);
+        initPayload.userIds.add(userId);
+
+        final Response initResponse = post("initiate", initPayload);
+        assert initResponse.getStatus() == HttpStatus.SC_OK;
+        final BatchResponseV1 initiated = initResponse.readEntity(BatchResponseV1.class);
+        assert initiated.results.size() == 2;
+        assert initiated.results.stream().allMatch(result -> result.error == null);
+        assert initiated.results.get(0).fingerprint.equals(initiated.results.get(1).fingerprint);
+    }
+
+    @Test
+    public void givenBatchRemoveWithDuplicatedUser_OneResultPerUser() {
+        final QualifiedId userId = new QualifiedId(UUID.randomUUID(), UUID.randomUUID().toString());
+        final QualifiedId otherId = new QualifiedId(UUID.randomUUID(), UUID.randomUUID().toString());
+        final BatchInitPayloadV1 removePayload = new BatchInitPayloadV1();
+        removePayload.teamId = UUID.randomUUID();
+        removePayload.userIds = new ArrayList<>();
+        removePayload.userIds.add(userId);
+        removePayload.userIds.add(otherId);
+        removePayload.userIds.add(userId);
+
+        final Response removeResponse = post("remove", removePayload);
+        assert removeResponse.getStatus() == HttpStatus.SC_OK;
+        final BatchResponseV1 removed = removeResponse.readEntity(BatchResponseV1.class);
+        assert removed.results.size() == 2;
+        assert removed.results.stream().allMatch(result -> result.error == null);
+        assert removed.results.get(0).userId.equals(userId);
+        assert removed.results.get(1).userId.equals(otherId);
+    }
+
+    private Response post(String path, Object payload) {
+        return client.target("http://localhost:" + SUPPORT.getLocalPort())
+            .path("v1")
+            .path(path)
+            .path("batch")
+            .request(MediaType.APPLICATION_JSON)
+            .header(HttpHeaders.AUTHORIZATION, TOKEN)
+            .accept(MediaType.APPLICATION_JSON)
+            .post(Entity.entity(payload, MediaType.APPLICATION_JSON));
+    }
+
     private Response postConfirmV1(ConfirmPayloadV1 confirmPayloadV1){
         return client.target("http://localhost:" + SUPPORT.getLocalPort())
             .path("v1")
@@ -0,0 +1,82 @@
+package com.wire.bots.hold;
+
+import com.codahale.metrics.MetricRegistry;
+import com.wire.bots.hold.resource.v0.audit.ConversationResource;
+import com.wire.bots.hold.service.ConversationExporter;
+import com.wire.bots.hold.utils.Collector;
+import com.wire.bots.hold.utils.ExportCache;
+import com.wire.bots.hold.utils.PdfRenderer;
+import org.glassfish.jersey.server.CloseableService;
+import org.junit.Test;
+
+import javax.ws.rs.core.Response;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ConversationResourceTest {
+
+    @Test
+    public void givenPdfNeverWritten_whenRequestEnds_thenSlotAndHtmlReleased() throws Exception {
+        // given
+        final MetricRegistry metrics = new MetricRegistry();
+        final PdfRenderer renderer = new PdfRenderer(1, 0, 1000, metrics);
+        final ExportCache cache = new ExportCache(Files.createTempDirectory("exports"), 0, metrics);
+        final File html = Files.createTempFile("conv-", ".html").toFile();
+
+        final Collector collector = mock(Collector.class);
+        when(collector.getConversation()).thenReturn(new Collector.Conversation());
+        final ConversationExporter exporter = mock(ConversationExporter.class);
+        when(exporter.collect(any(), any())).thenReturn(collector);
+        when(exporter.spoolHtml(any())).thenReturn(html);
+
+        final ConversationResource resource = new ConversationResource(exporter, cache, renderer);
+        final Closeables closeables = new Closeables();
+
+        // when
+        final Response response = resource.list(UUID.randomUUID(), false, closeables);
+        assert response.getStatus() == 200;
+        try {
+            renderer.acquire();
+            assert false;
+        } catch (RejectedExecutionException ignored) {
+        }
+        closeables.close();
+
+        // then
+        renderer.acquire().close();
+        assert !html.exists();
+    }
+
+    /**
+     * What Jersey does with the closeables once the request is done, written or not.
+     */
+    private static class Closeables implements CloseableService {
+        private final List<Closeable> added = new ArrayList<>();
+
+        @Override
+        public boolean add(Closeable closeable) {
+            return added.add(closeable);
+        }
+
+        @Override
+        public void close() {
+            for (Closeable closeable : added) {
+                try {
+                    closeable.close();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }
+    }
+}
@@ -3,33 +3,53 @@ package com.wire.bots.hold;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.wire.bots.hold.DAO.AccessDAO;
+import com.wire.bots.hold.DAO.AssetJobsDAO;
 import com.wire.bots.hold.DAO.AssetsDAO;
 import com.wire.bots.hold.DAO.EventsDAO;
+import com.wire.bots.hold.DAO.ExportJobsDAO;
 import com.wire.bots.hold.DAO.MetadataDAO;
+import com.wire.bots.hold.DAO.SessionsDAO;
 import com.wire.bots.hold.model.Metadata;
+import com.wire.bots.hold.model.database.AssetJob;
 import com.wire.bots.hold.model.database.Event;
+import com.wire.bots.hold.model.database.ExportJob;
 import com.wire.bots.hold.model.database.LHAccess;
+import com.wire.bots.hold.utils.AssetStorage;
+import com.wire.bots.hold.utils.CoalescingStorage;
+import com.wire.bots.hold.utils.FileAssetStorage;
 import com.wire.xenon.backend.models.QualifiedId;
 import com.wire.xenon.models.TextMessage;
 import io.dropwizard.testing.ConfigOverride;
 import io.dropwizard.testing.DropwizardTestSupport;
+import org.jdbi.v3.core.Jdbi;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
 import java.util.*;
 
 public class DatabaseTest {
     private static final DropwizardTestSupport<Config> SUPPORT = new DropwizardTestSupport<>(
         Service.class, "hold.yaml",
         ConfigOverride.config("token", "dummy"),
-        ConfigOverride.config("apiHost", "dummy"));
+        ConfigOverride.config("apiHost", "dummy"),
+        // Keeps the asset and export workers of the app off the jobs of these tests
+        ConfigOverride.config("assets.pollInterval", "1h"),
+        ConfigOverride.config("exports.jobPollInterval", "1h"));
 
     private static final ObjectMapper mapper = new ObjectMapper();
     private static AssetsDAO assetsDAO;
     private static EventsDAO eventsDAO;
     private static AccessDAO accessDAO;
     private static MetadataDAO metadataDAO;
+    private static SessionsDAO sessionsDAO;
+    private static AssetJobsDAO assetJobsDAO;
+    private static ExportJobsDAO exportJobsDAO;
+    private static CoalescingStorage cryptoStorage;
+    private static Jdbi jdbi;
 
     @BeforeClass
     public static void init() throws Exception {
@@ -40,6 +60,11 @@ public class DatabaseTest {
         assetsDAO = app.getJdbi().onDemand(AssetsDAO.class);
         accessDAO = app.getJdbi().onDemand(AccessDAO.class);
         metadataDAO = app.getJdbi().onDemand(MetadataDAO.class);
+        sessionsDAO = app.getJdbi().onDemand(SessionsDAO.class);
+        assetJobsDAO = app.getJdbi().onDemand(AssetJobsDAO.class);
+        exportJobsDAO = app.getJdbi().onDemand(ExportJobsDAO.class);
+        cryptoStorage = new CoalescingStorage(app.getJdbi());
+        jdbi = app.getJdbi();
     }
 
     @AfterClass
@@ -79,20 +104,100 @@ public class DatabaseTest {
     }
 
     @Test
-    public void assetsTest() {
+    public void pageEventsTest() {
+        final QualifiedId convId = new QualifiedId(UUID.randomUUID(), "dummy_domain");
+        final QualifiedId userId = new QualifiedId(UUID.randomUUID(), "dummy_domain");
+        final String type = "conversation.otr-message-add.new-text";
+        final List<String> payloads = new ArrayList<>();
+        for (int i = 0; i < EventsDAO.FETCH_SIZE + 2; i++) {
+            final String payload = String.format("{\"n\":%d,\"text\":\"line \\\"%d\\\"\"}", i, i);
+            eventsDAO.insert(UUID.randomUUID(), convId.id, convId.domain, userId.id, userId.domain, type, payload);
+            payloads.add(payload);
+        }
+
+        // Read in more than one page, oldest first, with the payload as it was stored
+        final List<String> streamed = new ArrayList<>();
+        List<Event> page = eventsDAO.listPageDefaultDomainAsc(convId.id, convId.domain, null, null, EventsDAO.FETCH_SIZE);
+        while (!page.isEmpty()) {
+            page.forEach(event -> streamed.add(event.payload));
+            final Event last = page.get(page.size() - 1);
+            page = eventsDAO.listPageDefaultDomainAsc(convId.id, convId.domain, last.time, last.eventId, EventsDAO.FETCH_SIZE);
+        }
+        assert streamed.equals(payloads);
+        assert eventsDAO.countDefaultDomain(convId.id, convId.domain) == payloads.size();
+    }
+
+    @Test
+    public void highWaterMarkTest() {
+        final QualifiedId convId = new QualifiedId(UUID.randomUUID(), "dummy_domain");
+        final QualifiedId userId = new QualifiedId(UUID.randomUUID(), "dummy_domain");
+        final String type = "conversation.otr-message-add.new-text";
+
+        final String empty = eventsDAO.getHighWaterMark(convId.id, convId.domain);
+        assert empty.equals("0-0");
+
+        final UUID eventId = UUID.randomUUID();
+        eventsDAO.insert(eventId, convId.id, convId.domain, userId.id, userId.domain, type, "{}");
+        final String first = eventsDAO.getHighWaterMark(convId.id, convId.domain);
+        assert !first.equals(empty);
+        assert first.equals(eventsDAO.getHighWaterMark(convId.id, convId.domain));
+
+        eventsDAO.insert(UUID.randomUUID(), convId.id, convId.domain, userId.id, userId.domain, type, "{}");
+        final String second = eventsDAO.getHighWaterMark(convId.id, convId.domain);
+        assert !second.equals(first);
+
+        eventsDAO.delete(eventId);
+        assert !eventsDAO.getHighWaterMark(convId.id, convId.domain).equals(second);
+    }
+
+    @Test
+    public void assetsTest() throws Exception {
         final String mimetype = "image/jpeg";
         final UUID messageId = UUID.randomUUID();
         final byte[] image = new byte[1024];
 
         new Random().nextBytes(image);
 
+        final AssetStorage storage = new FileAssetStorage(Files.createTempDirectory("blobs"));
+        final String blobKey = storage.put(new ByteArrayInputStream(image));
+
         assetsDAO.insert(messageId, mimetype);
-        assetsDAO.insert(messageId, image);
+        assetsDAO.insertBlobKey(messageId, blobKey);
 
         final AssetsDAO.Asset asset = assetsDAO.get(messageId);
-        assert Objects.deepEquals(image, asset.data);
+        assert Objects.equals(blobKey, asset.blobKey);
         assert Objects.equals(messageId, asset.messageId);
         assert Objects.equals(mimetype, asset.mimeType);
+        try (InputStream data = storage.open(asset.blobKey)) {
+            assert Arrays.equals(image, data.readAllBytes());
+        }
+    }
+
+    @Test
+    public void moveAssetsTest() throws Exception {
+        final UUID messageId = UUID.randomUUID();
+        final byte[] image = new byte[1024];
+
+        new Random().nextBytes(image);
+
+        // As stored before V112
+        jdbi.useHandle(handle -> handle
+                .createUpdate("INSERT INTO Assets (messageId, mimetype, data) VALUES (:messageId, 'image/png', :data)")
+                .bind("messageId", messageId)
+                .bind("data", image)
+                .execute());
+        assert Arrays.equals(image, assetsDAO.getLegacyData(messageId));
+
+        final AssetStorage storage = new FileAssetStorage(Files.createTempDirectory("blobs"));
+        assert MoveAssetsCommand.move(assetsDAO, storage) >= 1;
+
+        final AssetsDAO.Asset asset = assetsDAO.get(messageId);
+        assert asset.blobKey != null;
+        assert assetsDAO.getLegacyData(messageId) == null;
+        assert !assetsDAO.listLegacy(1000).contains(messageId);
+        try (InputStream data = storage.open(asset.blobKey)) {
+            assert Arrays.equals(image, data.readAllBytes());
+        }
     }
 
     @Test
@@ -120,6 +225,155 @@ public class DatabaseTest {
         assert lhAccess2.created.equals(lhAccess.created);
     }
 
+    @Test
+    public void accessLeaseFencingTest() {
+        final QualifiedId userId = new QualifiedId(UUID.randomUUID(), UUID.randomUUID().toString());
+        final UUID last = UUID.randomUUID();
+
+        accessDAO.insert(userId.id, userId.domain, UUID.randomUUID().toString(), "cookie");
+
+        // Nobody holds the lease on a new device yet, so nobody may move its checkpoint
+        final int updated = accessDAO.updateLast(userId.id, userId.domain, last, UUID.randomUUID().toString());
+        assert updated == 0;
+        assert accessDAO.get(userId.id, userId.domain).last == null;
+
+        // Nor once the device is removed, even by the owner of the lease
+        final String owner = UUID.randomUUID().toString();
+        assert accessDAO.claimLease(userId.id, userId.domain, owner, 60) != null;
+        assert accessDAO.updateLast(userId.id, userId.domain, last, owner) == 1;
+        accessDAO.disable(userId.id, userId.domain);
+        assert accessDAO.updateLast(userId.id, userId.domain, UUID.randomUUID(), owner) == 0;
+        assert accessDAO.get(userId.id, userId.domain).last.equals(last);
+    }
+
+    @Test
+    public void coalescedSessionsTest() {
+        final String id = UUID.randomUUID().toString();
+        final String sid = UUID.randomUUID().toString();
+        final byte[] first = new byte[]{1};
+        final byte[] second = new byte[]{2};
+
+        cryptoStorage.begin();
+        cryptoStorage.fetchSession(id, sid).persist(first);
+        cryptoStorage.fetchSession(id, sid).persist(second);
+        final CoalescingStorage.Batch batch = cryptoStorage.end();
+
+        // Visible to the next decrypt, but not written before the page is committed
+        assert batch.size() == 1;
+        assert Arrays.equals(cryptoStorage.fetchSession(id, sid).getData(), second);
+        assert sessionsDAO.get(id, sid) == null;
+
+        jdbi.useTransaction(batch::flush);
+        batch.committed();
+
+        assert Arrays.equals(sessionsDAO.get(id, sid), second);
+    }
+
+    @Test
+    public void discardedSessionsTest() {
+        final String id = UUID.randomUUID().toString();
+        final String sid = UUID.randomUUID().toString();
+
+        sessionsDAO.insert(id, sid, new byte[]{1});
+
+        cryptoStorage.begin();
+        cryptoStorage.fetchSession(id, sid).persist(new byte[]{2});
+        final CoalescingStorage.Batch batch = cryptoStorage.end();
+        batch.discarded();
+
+        // The failed page is decrypted again from the stored session
+        assert Arrays.equals(cryptoStorage.fetchSession(id, sid).getData(), new byte[]{1});
+    }
+
+    @Test
+    public void assetJobsTest() {
+        final AssetJob job = new AssetJob();
+        job.messageId = UUID.randomUUID();
+        job.userId = UUID.randomUUID();
+        job.userDomain = "dummy_domain";
+        job.assetId = "3-1-" + UUID.randomUUID();
+        job.assetDomain = "dummy_domain";
+        job.otrKey = new byte[]{1};
+        job.sha256 = new byte[]{2};
+
+        assert assetJobsDAO.insert(job) == 1;
+        assert assetJobsDAO.insert(job) == 0;
+        assert assetJobsDAO.isQueued(job.messageId);
+
+        // Claimed jobs are not handed out twice until they time out
+        final AssetJob claimed = claim(job.messageId);
+        assert claimed != null;
+        assert claimed.attempts == 1;
+        assert claimed.status.equals(AssetJob.RUNNING);
+        assert Arrays.equals(claimed.otrKey, job.otrKey);
+        assert claim(job.messageId) == null;
+
+        assetJobsDAO.retryLater(job.messageId, 0, "timeout");
+        assert claim(job.messageId).attempts == 2;
+
+        // Failed jobs stay visible and can be queued again
+        assetJobsDAO.fail(job.messageId, "gone");
+        assert claim(job.messageId) == null;
+        assert !assetJobsDAO.isQueued(job.messageId);
+        assert assetJobsDAO.listFailed(1000).stream().anyMatch(f -> f.messageId.equals(job.messageId) && f.lastError.equals("gone"));
+
+        assetJobsDAO.retryFailed();
+        assert claim(job.messageId).attempts == 1;
+
+        assert assetJobsDAO.delete(job.messageId) == 1;
+    }
+
+    private static AssetJob claim(UUID messageId) {
+        return assetJobsDAO.claim(60, 1000).stream()
+                .filter(claimed -> claimed.messageId.equals(messageId))
+                .findFirst()
+                .orElse(null);
+    }
+
+    @Test
+    public void exportJobsTest() {
+        final UUID jobId = UUID.randomUUID();
+        final UUID convId = UUID.randomUUID();
+
+        assert exportJobsDAO.insert(jobId, convId) == 1;
+        assert exportJobsDAO.get(jobId).status.equals(ExportJob.PENDING);
+
+        // Running jobs are only handed out again once their worker stops reporting
+        final ExportJob claimed = claimExport(jobId, 60);
+        assert claimed != null;
+        assert claimed.attempts == 1;
+        assert claimed.conversationId.equals(convId);
+        assert claimExport(jobId, 60) == null;
+        assert exportJobsDAO.touch(Collections.singletonList(jobId)) == 1;
+        assert claimExport(jobId, -1).attempts == 2;
+
+        exportJobsDAO.progress(jobId, 1000, 2500);
+        final ExportJob running = exportJobsDAO.get(jobId);
+        assert running.eventsProcessed == 1000;
+        assert running.events == 2500;
+        assert running.pages == null;
+
+        exportJobsDAO.done(jobId, 42, "key", 1024);
+        final ExportJob done = exportJobsDAO.get(jobId);
+        assert done.status.equals(ExportJob.DONE);
+        assert done.pages == 42;
+        assert done.size == 1024;
+        assert claimExport(jobId, -1) == null;
+
+        // Finished jobs expire with their pdfs
+        assert exportJobsDAO.countBlobKey("key") == 1;
+        assert exportJobsDAO.deleteExpired(-1).contains("key");
+        assert exportJobsDAO.get(jobId) == null;
+        assert exportJobsDAO.countBlobKey("key") == 0;
+    }
+
+    private static ExportJob claimExport(UUID jobId, long timeout) {
+        return exportJobsDAO.claim(timeout, 1000).stream()
+                .filter(claimed -> claimed.jobId.equals(jobId))
+                .findFirst()
+                .orElse(null);
+    }
+
     @Test
     public void metadataTests() {
         String dummyKey = MetadataDAO.FALLBACK_DOMAIN_KEY + UUID.randomUUID();
@@ -0,0 +1,106 @@
+package com.wire.bots.hold;
+
+import com.wire.bots.hold.DAO.EventsDAO;
+import com.wire.bots.hold.model.database.Event;
+import com.wire.xenon.tools.Logger;
+import io.dropwizard.testing.ConfigOverride;
+import io.dropwizard.testing.DropwizardTestSupport;
+import org.jdbi.v3.core.Jdbi;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Compares the single row insert path against the batched per-page path of {@link EventsDAO}.
+ * Needs the same Postgres instance as {@link DatabaseTest}.
+ */
+public class EventsBatchBenchmarkTest {
+    private static final DropwizardTestSupport<Config> SUPPORT = new DropwizardTestSupport<>(
+        Service.class, "hold.yaml",
+        ConfigOverride.config("token", "dummy"),
+        ConfigOverride.config("apiHost", "dummy"));
+
+    private static final int PAGES = 20;
+    private static final int PAGE_SIZE = 100;
+
+    private static Jdbi jdbi;
+    private static EventsDAO eventsDAO;
+
+    @BeforeClass
+    public static void init() throws Exception {
+        SUPPORT.before();
+        Service app = SUPPORT.getApplication();
+        jdbi = app.getJdbi();
+        eventsDAO = jdbi.onDemand(EventsDAO.class);
+    }
+
+    @AfterClass
+    public static void afterClass() {
+        SUPPORT.after();
+    }
+
+    @Test
+    public void compareSingleAndBatchedInserts() {
+        final UUID singleConv = UUID.randomUUID();
+        final UUID batchConv = UUID.randomUUID();
+
+        // warm up both paths
+        insertSingle(UUID.randomUUID(), 1);
+        insertBatched(UUID.randomUUID(), 1);
+
+        final long singleStart = System.nanoTime();
+        insertSingle(singleConv, PAGES);
+        final long singleNanos = System.nanoTime() - singleStart;
+
+        final long batchStart = System.nanoTime();
+        insertBatched(batchConv, PAGES);
+        final long batchNanos = System.nanoTime() - batchStart;
+
+        final int rows = PAGES * PAGE_SIZE;
+        Logger.info("Events insert: single: %.0f rows/sec, batched: %.0f rows/sec",
+                rows / (singleNanos / 1e9),
+                rows / (batchNanos / 1e9));
+
+        assert eventsDAO.listAllDefaultDomain(singleConv, "dummy_domain").size() == rows;
+        assert eventsDAO.listAllDefaultDomain(batchConv, "dummy_domain").size() == rows;
+    }
+
+    private void insertSingle(UUID conversationId, int pages) {
+        for (int i = 0; i < pages * PAGE_SIZE; i++) {
+            Event event = event(conversationId);
+            eventsDAO.insert(event.eventId,
+                    event.conversationId,
+                    event.conversationDomain,
+                    event.userId,
+                    event.userDomain,
+                    event.type,
+                    event.payload);
+        }
+    }
+
+    private void insertBatched(UUID conversationId, int pages) {
+        for (int p = 0; p < pages; p++) {
+            final List<Event> page = new ArrayList<>(PAGE_SIZE);
+            for (int i = 0; i < PAGE_SIZE; i++) {
+                page.add(event(conversationId));
+            }
+            jdbi.useTransaction(handle -> handle.attach(EventsDAO.class).insert(page));
+        }
+    }
+
+    private static Event event(UUID conversationId) {
+        Event event = new Event();
+        event.eventId = UUID.randomUUID();
+        event.conversationId = conversationId;
+        event.conversationDomain = "dummy_domain";
+        event.userId = UUID.randomUUID();
+        event.userDomain = "dummy_domain";
+        event.type = "conversation.otr-message-add.new-text";
+        event.payload = "{\"text\":\"Some text\"}";
+        return event;
+    }
+}
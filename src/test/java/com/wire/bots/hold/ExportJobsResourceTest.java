@@ -0,0 +1,41 @@
+package com.wire.bots.hold;
+
+import com.wire.bots.hold.DAO.ExportJobsDAO;
+import com.wire.bots.hold.model.database.ExportJob;
+import com.wire.bots.hold.resource.v0.audit.ExportJobsResource;
+import com.wire.bots.hold.utils.AssetStorage;
+import org.junit.Test;
+
+import javax.ws.rs.core.Response;
+import java.nio.file.NoSuchFileException;
+import java.util.UUID;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ExportJobsResourceTest {
+
+    @Test
+    public void givenPdfMissingFromStorage_whenDownload_thenGone() throws Exception {
+        // given
+        final ExportJob job = new ExportJob();
+        job.jobId = UUID.randomUUID();
+        job.conversationId = UUID.randomUUID();
+        job.status = ExportJob.DONE;
+        job.blobKey = "key";
+        job.size = 1024L;
+
+        final ExportJobsDAO jobsDAO = mock(ExportJobsDAO.class);
+        when(jobsDAO.get(job.jobId)).thenReturn(job);
+        final AssetStorage storage = mock(AssetStorage.class);
+        when(storage.open("key")).thenThrow(new NoSuchFileException("key"));
+
+        final ExportJobsResource resource = new ExportJobsResource(jobsDAO, storage);
+
+        // when
+        final Response response = resource.download(job.jobId);
+
+        // then
+        assert response.getStatus() == 410;
+    }
+}
@@ -0,0 +1,150 @@
+package com.wire.bots.hold;
+
+import com.codahale.metrics.MetricRegistry;
+import com.wire.bots.hold.DAO.ExportJobsDAO;
+import com.wire.bots.hold.model.database.ExportJob;
+import com.wire.bots.hold.service.ConversationExporter;
+import com.wire.bots.hold.utils.AssetStorage;
+import com.wire.bots.hold.utils.Collector;
+import com.wire.bots.hold.utils.PdfRenderer;
+import org.jdbi.v3.core.Handle;
+import org.jdbi.v3.core.HandleConsumer;
+import org.jdbi.v3.core.Jdbi;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.UUID;
+
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class ExportWorkerTest {
+
+    private ExportJobsDAO jobsDAO;
+    private ConversationExporter exporter;
+    private PdfRenderer renderer;
+    private PdfRenderer.Slot slot;
+    private AssetStorage storage;
+    private ExportWorker worker;
+    private ExportJob job;
+    private File html;
+
+    @Before
+    public void before() throws Exception {
+        final Jdbi jdbi = mock(Jdbi.class);
+        jobsDAO = mock(ExportJobsDAO.class);
+        when(jdbi.onDemand(ExportJobsDAO.class)).thenReturn(jobsDAO);
+        final Handle handle = mock(Handle.class);
+        when(handle.attach(ExportJobsDAO.class)).thenReturn(jobsDAO);
+        doAnswer(invocation -> {
+            invocation.<HandleConsumer<?>>getArgument(0).useHandle(handle);
+            return null;
+        }).when(jdbi).useTransaction(any());
+
+        final Collector collector = mock(Collector.class);
+        when(collector.getConversation()).thenReturn(new Collector.Conversation());
+        exporter = mock(ConversationExporter.class);
+        when(exporter.collect(any(), any())).thenReturn(collector);
+        html = Files.createTempFile("conv-", ".html").toFile();
+        when(exporter.spoolHtml(any())).thenReturn(html);
+
+        slot = mock(PdfRenderer.Slot.class);
+        renderer = mock(PdfRenderer.class);
+        when(renderer.await()).thenReturn(slot);
+        storage = mock(AssetStorage.class);
+
+        final Config.Exports config = new Config.Exports();
+        config.jobWorkers = 1;
+        config.jobAttempts = 3;
+
+        worker = new ExportWorker(jdbi, exporter, renderer, storage, Runnable::run, config, new MetricRegistry());
+
+        job = new ExportJob();
+        job.jobId = UUID.randomUUID();
+        job.conversationId = UUID.randomUUID();
+        job.status = ExportJob.RUNNING;
+        job.attempts = 1;
+        when(jobsDAO.claim(anyLong(), eq(1))).thenReturn(Collections.singletonList(job));
+    }
+
+    @Test
+    public void givenRendered_whenRun_thenStoreAndMarkDone() throws Exception {
+        // given
+        when(slot.render(any(), any(), any())).thenReturn(12);
+        when(storage.put(any(InputStream.class))).thenReturn("key");
+
+        // when
+        worker.run();
+
+        // then
+        verify(exporter).collect(eq(job.conversationId), any());
+        verify(jobsDAO).done(eq(job.jobId), eq(12), eq("key"), anyLong());
+        verify(slot).close();
+        assert !html.exists();
+    }
+
+    @Test
+    public void givenRendered_whenRun_thenNeverTurnedAwayByRenderQueue() throws Exception {
+        // given
+        when(slot.render(any(), any(), any())).thenReturn(1);
+        when(storage.put(any(InputStream.class))).thenReturn("key");
+
+        // when
+        worker.run();
+
+        // then
+        verify(renderer).await();
+        verify(renderer, never()).acquire();
+    }
+
+    @Test
+    public void givenJobPickedUpTooOften_whenRun_thenFailWithoutRendering() throws Exception {
+        // given
+        job.attempts = 4;
+
+        // when
+        worker.run();
+
+        // then
+        verify(jobsDAO).fail(eq(job.jobId), contains("3 attempts"));
+        verify(exporter, never()).collect(any(), any());
+    }
+
+    @Test
+    public void givenExpiredJobs_whenRun_thenDeleteOnlyUnsharedPdfs() throws Exception {
+        // given
+        when(jobsDAO.claim(anyLong(), anyInt())).thenReturn(Collections.emptyList());
+        when(jobsDAO.deleteExpired(anyLong())).thenReturn(Arrays.asList("a", null, "b"));
+        when(jobsDAO.countBlobKey("b")).thenReturn(1);
+
+        // when
+        worker.run();
+
+        // then
+        verify(jobsDAO).lockBlobKey("a");
+        verify(storage).delete("a");
+        verify(storage, never()).delete("b");
+    }
+
+    @Test
+    public void givenPdfDroppedByExpiredJob_whenDone_thenStoreItAgain() throws Exception {
+        // given
+        when(slot.render(any(), any(), any())).thenReturn(1);
+        when(storage.put(any(InputStream.class))).thenReturn("key");
+        when(storage.file("key")).thenThrow(new NoSuchFileException("key"));
+
+        // when
+        worker.run();
+
+        // then
+        verify(jobsDAO).lockBlobKey("key");
+        verify(storage, times(2)).put(any(InputStream.class));
+        verify(jobsDAO).done(eq(job.jobId), eq(1), eq("key"), anyLong());
+    }
+}
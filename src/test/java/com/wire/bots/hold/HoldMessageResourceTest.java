@@ -0,0 +1,74 @@
+package com.wire.bots.hold;
+
+import com.codahale.metrics.MetricRegistry;
+import com.wire.bots.hold.utils.HoldClientRepo;
+import com.wire.xenon.MessageHandlerBase;
+import com.wire.xenon.WireClient;
+import com.wire.xenon.backend.models.Payload;
+import com.wire.xenon.backend.models.QualifiedId;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.UUID;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class HoldMessageResourceTest {
+
+    private HoldClientRepo repo;
+    private HoldMessageResource resource;
+    private QualifiedId userId;
+
+    @Before
+    public void before() throws Exception {
+        repo = mock(HoldClientRepo.class);
+        when(repo.getClient(any(), any(), any())).thenReturn(mock(WireClient.class));
+        when(repo.getSystemClient(any(), any(), any())).thenReturn(mock(WireClient.class));
+        resource = new HoldMessageResource(mock(MessageHandlerBase.class), repo, new MetricRegistry());
+        userId = new QualifiedId(UUID.randomUUID(), "wire.com");
+    }
+
+    @Test
+    public void givenSystemEvents_whenRouted_thenNoCrypto() throws Exception {
+        // given
+        final String[] types = {
+                Const.CONVERSATION_CREATE,
+                Const.CONVERSATION_RENAME,
+                Const.CONVERSATION_MEMBER_JOIN,
+                Const.CONVERSATION_MEMBER_LEAVE
+        };
+
+        // when
+        for (String type : types) {
+            resource.getWireClient(userId, payload(type));
+        }
+
+        // then
+        verify(repo, never()).getClient(any(), any(), any());
+        verify(repo, times(types.length)).getSystemClient(any(), any(), any());
+    }
+
+    @Test
+    public void givenOtrMessage_whenRouted_thenCryptoClient() throws Exception {
+        // given
+        final Payload payload = payload(Const.CONVERSATION_OTR_MESSAGE_ADD);
+
+        // when
+        resource.getWireClient(userId, payload);
+
+        // then
+        verify(repo).getClient(userId, payload.data.recipient, payload.conversation);
+        verify(repo, never()).getSystemClient(any(), any(), any());
+    }
+
+    private static Payload payload(String type) {
+        final Payload payload = new Payload();
+        payload.type = type;
+        payload.conversation = new QualifiedId(UUID.randomUUID(), "wire.com");
+        payload.from = new QualifiedId(UUID.randomUUID(), "wire.com");
+        payload.data = new Payload.Data();
+        payload.data.recipient = "client_1";
+        return payload;
+    }
+}
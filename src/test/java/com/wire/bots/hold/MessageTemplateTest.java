@@ -1,10 +1,11 @@
 package com.wire.bots.hold;
 
+import com.codahale.metrics.MetricRegistry;
 import com.github.mustachejava.DefaultMustacheFactory;
 import com.github.mustachejava.Mustache;
 import com.github.mustachejava.MustacheFactory;
 import com.wire.bots.hold.utils.Collector;
-import com.wire.bots.hold.utils.PdfGenerator;
+import com.wire.bots.hold.utils.PdfRenderer;
 import com.wire.bots.hold.utils.TestCache;
 import com.wire.xenon.backend.models.QualifiedId;
 import com.wire.xenon.models.OriginMessage;
@@ -69,7 +70,14 @@ public class MessageTemplateTest {
         String html = execute(mustache, conversation);
         assert html != null;
         String pdfFilename = String.format("src/test/output/%s.pdf", conversation.getTitle());
-        PdfGenerator.save(pdfFilename, html, "file:src/test");
+        PdfRenderer renderer = new PdfRenderer(1, 0, 1000, new MetricRegistry());
+        final int pages;
+        try (PdfRenderer.Slot slot = renderer.acquire();
+             OutputStream out = new FileOutputStream(pdfFilename)) {
+            pages = slot.render(new StringReader(html), "file:src/test", out);
+        }
+        assert pages > 0;
+        assert new File(pdfFilename).length() > 0;
     }
 
     @SuppressWarnings("SameParameterValue")
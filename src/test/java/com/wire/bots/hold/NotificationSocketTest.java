@@ -0,0 +1,131 @@
+package com.wire.bots.hold;
+
+import com.wire.bots.hold.utils.WebSocketStubServer;
+import com.wire.helium.models.Event;
+import org.junit.Test;
+
+import java.net.http.HttpClient;
+import java.net.http.WebSocket;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class NotificationSocketTest {
+
+    @Test
+    public void givenPushedNotifications_whenConnected_thenFillGapFirstAndDeliverInOrder() throws Exception {
+        // given
+        final UUID first = UUID.randomUUID();
+        final UUID second = UUID.randomUUID();
+        final List<String> calls = new CopyOnWriteArrayList<>();
+        final CountDownLatch received = new CountDownLatch(2);
+
+        final NotificationSocket.Handler handler = new NotificationSocket.Handler() {
+            @Override
+            public CompletionStage<?> onConnected() {
+                calls.add("connected");
+                return CompletableFuture.completedFuture(null);
+            }
+
+            @Override
+            public CompletionStage<?> onEvent(Event event) {
+                calls.add(event.id.toString());
+                received.countDown();
+                return null;
+            }
+
+            @Override
+            public void onPong() {
+            }
+
+            @Override
+            public void onClosed(Throwable error) {
+            }
+        };
+
+        try (WebSocketStubServer server = new WebSocketStubServer(Arrays.asList(notification(first), notification(second)))) {
+            // when
+            final WebSocket webSocket = NotificationSocket
+                    .connect(HttpClient.newHttpClient(), server.getUrl(), "client_1", "token_1", handler)
+                    .get(10, TimeUnit.SECONDS);
+
+            // then
+            assert received.await(10, TimeUnit.SECONDS);
+            assert calls.equals(Arrays.asList("connected", first.toString(), second.toString()));
+            assert server.getAuthorization().equals("Bearer token_1");
+            assert server.getRequestLine().contains("/await?client=client_1");
+
+            webSocket.abort();
+        }
+    }
+
+    @Test
+    public void givenUncommittedNotification_whenPushed_thenHoldBackTheNextOne() throws Exception {
+        // given
+        final UUID first = UUID.randomUUID();
+        final UUID second = UUID.randomUUID();
+        final List<String> calls = new CopyOnWriteArrayList<>();
+        final CountDownLatch received = new CountDownLatch(2);
+        final CompletableFuture<Void> committed = new CompletableFuture<>();
+
+        final NotificationSocket.Handler handler = new NotificationSocket.Handler() {
+            @Override
+            public CompletionStage<?> onConnected() {
+                return CompletableFuture.completedFuture(null);
+            }
+
+            @Override
+            public CompletionStage<?> onEvent(Event event) {
+                calls.add(event.id.toString());
+                received.countDown();
+                return event.id.equals(first) ? committed : null;
+            }
+
+            @Override
+            public void onPong() {
+            }
+
+            @Override
+            public void onClosed(Throwable error) {
+            }
+        };
+
+        try (WebSocketStubServer server = new WebSocketStubServer(Arrays.asList(notification(first), notification(second)))) {
+            final WebSocket webSocket = NotificationSocket
+                    .connect(HttpClient.newHttpClient(), server.getUrl(), "client_1", "token_1", handler)
+                    .get(10, TimeUnit.SECONDS);
+
+            // when
+            assert !received.await(1, TimeUnit.SECONDS);
+            assert calls.equals(Collections.singletonList(first.toString()));
+            committed.complete(null);
+
+            // then
+            assert received.await(10, TimeUnit.SECONDS);
+            assert calls.equals(Arrays.asList(first.toString(), second.toString()));
+
+            webSocket.abort();
+        }
+    }
+
+    @Test
+    public void givenTimeBasedIds_whenCompared_thenOnlyLaterOnesAreNewer() {
+        final UUID older = UUID.fromString("a6643b34-e281-11eb-8002-22000a0e7660");
+        final UUID newer = UUID.fromString("a6fb04dd-e281-11eb-8002-22000a0e7660");
+
+        assert WebSocketIngestion.isNewer(newer, older);
+        assert !WebSocketIngestion.isNewer(older, newer);
+        assert !WebSocketIngestion.isNewer(older, older);
+        assert WebSocketIngestion.isNewer(older, null);
+    }
+
+    private static String notification(UUID id) {
+        return String.format("{\"id\":\"%s\",\"payload\":[{\"type\":\"user.client-add\"}]}", id);
+    }
+}
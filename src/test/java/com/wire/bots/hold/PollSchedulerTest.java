@@ -0,0 +1,182 @@
+package com.wire.bots.hold;
+
+import com.codahale.metrics.MetricRegistry;
+import com.wire.bots.hold.model.database.LHAccess;
+import com.wire.xenon.backend.models.QualifiedId;
+import io.dropwizard.util.Duration;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Collections;
+import java.util.UUID;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.Mockito.*;
+
+public class PollSchedulerTest {
+    private static final long SECOND = 1000;
+
+    private DeviceLeases leases;
+    private NotificationProcessor processor;
+    private MutableClock clock;
+    private PollScheduler scheduler;
+    private LHAccess device;
+
+    @Before
+    public void before() {
+        leases = mock(DeviceLeases.class);
+        processor = mock(NotificationProcessor.class);
+        clock = new MutableClock();
+
+        final Config.Notifications config = new Config.Notifications();
+        config.minInterval = Duration.seconds(5);
+        config.maxInterval = Duration.seconds(40);
+
+        // Workers run inline so every tick is deterministic
+        scheduler = new PollScheduler(leases, processor, config, Duration.hours(1), Runnable::run,
+                new LinkedBlockingQueue<>(), new MetricRegistry(), clock);
+
+        device = new LHAccess();
+        device.userId = new QualifiedId(UUID.randomUUID(), "wire.com");
+        device.clientId = "client_1";
+        when(leases.refresh()).thenReturn(Collections.singletonList(device));
+    }
+
+    @Test
+    public void givenIdleDevice_whenTicking_thenBackOffExponentially() {
+        // given
+        when(processor.drain(any(), anyBoolean())).thenReturn(true);
+
+        // when
+        for (int second = 0; second <= 200; second++) {
+            tickAt(second);
+        }
+
+        // then: polled at 0, 10, 30, 70, 110, 150, 190 - doubling from 5s and capped at 40s
+        verify(processor, times(7)).drain(device, true);
+        assert scheduler.idle() == 1;
+    }
+
+    @Test
+    public void givenActiveDevice_whenTicking_thenPollAtMinInterval() {
+        // given
+        when(processor.drain(any(), anyBoolean())).thenAnswer(invocation -> {
+            ((LHAccess) invocation.getArgument(0)).last = UUID.randomUUID();
+            return true;
+        });
+
+        // when
+        for (int second = 0; second <= 20; second++) {
+            tickAt(second);
+        }
+
+        // then: polled at 0, 5, 10, 15, 20
+        verify(processor, times(5)).drain(device, true);
+        assert scheduler.idle() == 0;
+    }
+
+    @Test
+    public void givenBacklog_whenTicking_thenPollAgainRightAway() {
+        // given: two pages of backlog, then caught up
+        when(processor.drain(any(), anyBoolean())).thenAnswer(invocation -> {
+            ((LHAccess) invocation.getArgument(0)).last = UUID.randomUUID();
+            return false;
+        }).thenAnswer(invocation -> {
+            ((LHAccess) invocation.getArgument(0)).last = UUID.randomUUID();
+            return false;
+        }).thenReturn(true);
+
+        // when
+        tickAt(0);
+        tickAt(1);
+        tickAt(2);
+
+        // then
+        verify(processor, times(3)).drain(device, true);
+    }
+
+    @Test
+    public void givenLostLease_whenRefreshed_thenStopPolling() {
+        // given
+        when(processor.drain(any(), anyBoolean())).thenReturn(true);
+        tickAt(0);
+
+        // when: the leases are refreshed every hour in these tests
+        when(leases.refresh()).thenReturn(Collections.emptyList());
+        tickAt(3600);
+        tickAt(3700);
+
+        // then
+        verify(processor, times(1)).drain(device, true);
+        assert scheduler.size() == 0;
+    }
+
+    @Test
+    public void givenConfirmedDevice_whenChangeHeard_thenPollRightAway() {
+        // given
+        when(processor.drain(any(), anyBoolean())).thenReturn(true);
+        tickAt(0);
+        final LHAccess confirmed = new LHAccess();
+        confirmed.userId = new QualifiedId(UUID.randomUUID(), "wire.com");
+        confirmed.clientId = "client_2";
+
+        // when: long before the next refresh
+        clock.set(2 * SECOND);
+        scheduler.onEnabled(confirmed);
+
+        // then
+        verify(processor, times(1)).drain(confirmed, true);
+        assert scheduler.size() == 2;
+    }
+
+    @Test
+    public void givenRemovedDevice_whenChangeHeard_thenStopPolling() {
+        // given
+        when(processor.drain(any(), anyBoolean())).thenReturn(true);
+        tickAt(0);
+
+        // when
+        scheduler.onDisabled(device.userId);
+        for (int second = 1; second <= 100; second++) {
+            tickAt(second);
+        }
+
+        // then
+        verify(processor, times(1)).drain(device, true);
+        assert scheduler.size() == 0;
+    }
+
+    private void tickAt(long second) {
+        clock.set(second * SECOND);
+        scheduler.tick(second * SECOND);
+    }
+
+    private static class MutableClock extends Clock {
+        private Instant now = Instant.EPOCH;
+
+        void set(long millis) {
+            now = Instant.ofEpochMilli(millis);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package com.wire.bots.hold.utils;
+
+import com.wire.bots.hold.DAO.AccessDAO;
+import com.wire.bots.hold.model.database.LHAccess;
+import com.wire.helium.LoginClient;
+import com.wire.helium.models.Access;
+import com.wire.xenon.backend.models.QualifiedId;
+import com.wire.xenon.exceptions.HttpException;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.UUID;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.*;
+
+public class AccessTokenCacheTest {
+
+    private LoginClient loginClient;
+    private AccessDAO accessDAO;
+    private MutableClock clock;
+    private AccessTokenCache cache;
+
+    @Before
+    public void before() {
+        loginClient = mock(LoginClient.class);
+        accessDAO = mock(AccessDAO.class);
+        clock = new MutableClock();
+        cache = new AccessTokenCache(loginClient, new DeviceRegistry(accessDAO), Duration.ofMinutes(2), Duration.ZERO, clock);
+    }
+
+    @Test
+    public void givenValidToken_whenPolledAgain_thenDoNotRenew() throws HttpException {
+        // given
+        final LHAccess device = device();
+        final Access access = access("token_1", 900);
+        when(loginClient.renewAccessToken(any())).thenReturn(access);
+
+        // when
+        cache.getToken(device);
+        clock.advance(Duration.ofMinutes(10));
+        final String token = cache.getToken(device);
+
+        // then
+        assert token.equals("token_1");
+        verify(loginClient, times(1)).renewAccessToken(any());
+        verify(accessDAO, times(1)).update(device.userId.id, device.userId.domain, "token_1", "cookie");
+    }
+
+    @Test
+    public void givenTokenCloseToExpiry_whenPolled_thenRenew() throws HttpException {
+        // given
+        final LHAccess device = device();
+        final Access first = access("token_1", 900);
+        final Access second = access("token_2", 900);
+        when(loginClient.renewAccessToken(any())).thenReturn(first, second);
+
+        // when
+        cache.getToken(device);
+        clock.advance(Duration.ofMinutes(14));
+        final String token = cache.getToken(device);
+
+        // then
+        assert token.equals("token_2");
+        verify(accessDAO).update(device.userId.id, device.userId.domain, "token_2", "cookie");
+        verify(loginClient, times(2)).renewAccessToken(any());
+    }
+
+    @Test
+    public void givenTokenShorterThanMargin_whenPolledAgain_thenRenewOnlyAfterHalfItsLifetime() throws HttpException {
+        // given
+        final LHAccess device = device();
+        final Access first = access("token_1", 60);
+        final Access second = access("token_2", 60);
+        when(loginClient.renewAccessToken(any())).thenReturn(first, second);
+
+        // when
+        cache.getToken(device);
+        clock.advance(Duration.ofSeconds(20));
+        final String cached = cache.getToken(device);
+        clock.advance(Duration.ofSeconds(15));
+        final String renewed = cache.getToken(device);
+
+        // then
+        assert cached.equals("token_1");
+        assert renewed.equals("token_2");
+        verify(loginClient, times(2)).renewAccessToken(any());
+    }
+
+    @Test
+    public void givenDeviceConfirmedAgain_whenPolled_thenRenewWithTheNewCookie() throws HttpException {
+        // given
+        final LHAccess device = device();
+        final Access first = access("token_1", 900);
+        final Access second = access("token_2", 900);
+        when(loginClient.renewAccessToken(any())).thenReturn(first, second);
+        cache.getToken(device);
+
+        // when
+        final LHAccess confirmed = device();
+        confirmed.userId = device.userId;
+        confirmed.cookie = "cookie_2";
+        final String token = cache.getToken(confirmed);
+
+        // then
+        assert token.equals("token_2");
+        verify(loginClient).renewAccessToken(argThat(cookie -> cookie.getValue().equals("cookie_2")));
+    }
+
+    @Test
+    public void givenAccessChange_whenCookieUnchanged_thenKeepTheCachedToken() throws HttpException {
+        // given
+        final LHAccess device = device();
+        final Access first = access("token_1", 900);
+        final Access second = access("token_2", 900);
+        when(loginClient.renewAccessToken(any())).thenReturn(first, second);
+        cache.getToken(device);
+
+        // when
+        cache.invalidateIfChanged(device);
+        final String kept = cache.getToken(device);
+        device.cookie = "cookie_2";
+        cache.invalidateIfChanged(device);
+
+        // then
+        assert kept.equals("token_1");
+        assert cache.size() == 0;
+    }
+
+    @Test
+    public void givenUnchangedTokenAndCookie_whenRenewed_thenSkipDatabaseUpdate() throws HttpException {
+        // given
+        final LHAccess device = device();
+        device.token = "token_1";
+        final Access access = access("token_1", 900);
+        when(loginClient.renewAccessToken(any())).thenReturn(access);
+
+        // when
+        cache.getToken(device);
+
+        // then
+        verify(accessDAO, never()).update(any(), any(), any(), any());
+    }
+
+    @Test
+    public void givenRegistrySnapshot_whenRenewed_thenLeaveItUntouched() throws HttpException {
+        // given
+        final DeviceRegistry registry = new DeviceRegistry(accessDAO);
+        final LHAccess stored = device();
+        stored.enabled = true;
+        when(accessDAO.get(stored.userId.id, stored.userId.domain)).thenReturn(stored);
+        final LHAccess snapshot = registry.get(stored.userId);
+        cache = new AccessTokenCache(loginClient, registry, Duration.ofMinutes(2), Duration.ZERO, clock);
+        when(loginClient.renewAccessToken(any())).thenReturn(access("token_1", 900));
+
+        // when
+        final String token = cache.getToken(snapshot);
+
+        // then
+        assert token.equals("token_1");
+        assert snapshot.token == null;
+        assert registry.get(stored.userId).token.equals("token_1");
+    }
+
+    @Test
+    public void givenInvalidatedDevice_whenPolled_thenRenew() throws HttpException {
+        // given
+        final LHAccess device = device();
+        final Access access = access("token_1", 900);
+        when(loginClient.renewAccessToken(any())).thenReturn(access);
+
+        // when
+        cache.getToken(device);
+        cache.invalidate(device.userId);
+        cache.getToken(device);
+
+        // then
+        verify(loginClient, times(2)).renewAccessToken(any());
+    }
+
+    private static LHAccess device() {
+        final LHAccess device = new LHAccess();
+        device.userId = new QualifiedId(UUID.randomUUID(), "dummy_domain");
+        device.clientId = "client";
+        device.cookie = "cookie";
+        return device;
+    }
+
+    private static Access access(String token, int expiresIn) {
+        final Access access = mock(Access.class);
+        when(access.getAccessToken()).thenReturn(token);
+        when(access.getExpiresIn()).thenReturn(expiresIn);
+        when(access.getCookie()).thenReturn(null);
+        return access;
+    }
+
+    private static class MutableClock extends Clock {
+        private Instant now = Instant.now();
+
+        void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
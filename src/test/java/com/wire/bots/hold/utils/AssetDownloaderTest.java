@@ -0,0 +1,80 @@
+package com.wire.bots.hold.utils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+public class AssetDownloaderTest {
+
+    private final SecureRandom random = new SecureRandom();
+    private File encrypted;
+    private File plain;
+
+    @Before
+    public void before() throws Exception {
+        encrypted = Files.createTempFile("asset-", ".enc").toFile();
+        plain = Files.createTempFile("asset-", ".bin").toFile();
+    }
+
+    @After
+    public void after() throws Exception {
+        Files.deleteIfExists(encrypted.toPath());
+        Files.deleteIfExists(plain.toPath());
+    }
+
+    @Test
+    public void givenAssetLargerThanBuffer_whenSavedAndDecrypted_thenSameBytes() throws Exception {
+        // given
+        final byte[] data = new byte[AssetDownloader.BUFFER_SIZE * 3 + 7];
+        random.nextBytes(data);
+        final byte[] key = new byte[32];
+        random.nextBytes(key);
+        final byte[] body = encrypt(data, key);
+
+        // when
+        AssetDownloader.save(new ByteArrayInputStream(body), encrypted, sha256(body));
+        AssetDownloader.decrypt(encrypted, plain, key);
+
+        // then
+        assert Arrays.equals(Files.readAllBytes(plain.toPath()), data);
+    }
+
+    @Test(expected = DigestException.class)
+    public void givenTamperedAsset_whenSaved_thenReject() throws Exception {
+        // given
+        final byte[] body = encrypt(new byte[]{1, 2, 3}, new byte[32]);
+        final byte[] sha256 = sha256(body);
+        body[body.length - 1] ^= 1;
+
+        // when
+        AssetDownloader.save(new ByteArrayInputStream(body), encrypted, sha256);
+    }
+
+    private byte[] encrypt(byte[] data, byte[] key) throws Exception {
+        final byte[] iv = new byte[16];
+        random.nextBytes(iv);
+        final Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"), new IvParameterSpec(iv));
+        final byte[] encrypted = cipher.doFinal(data);
+
+        final byte[] body = new byte[iv.length + encrypted.length];
+        System.arraycopy(iv, 0, body, 0, iv.length);
+        System.arraycopy(encrypted, 0, body, iv.length, encrypted.length);
+        return body;
+    }
+
+    private static byte[] sha256(byte[] data) throws Exception {
+        return MessageDigest.getInstance("SHA-256").digest(data);
+    }
+}
@@ -1,8 +1,16 @@
 package com.wire.bots.hold.utils;
 
+import com.wire.bots.hold.DAO.AssetJobsDAO;
+import com.wire.xenon.backend.models.QualifiedId;
+import com.wire.xenon.models.PhotoPreviewMessage;
 import org.junit.Test;
 
+import java.io.File;
 import java.text.ParseException;
+import java.util.UUID;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 public class CollectorTest {
 
@@ -15,4 +23,54 @@ public class CollectorTest {
     public void time() throws ParseException {
         String s = Collector.toTime("2019-07-04T10:36:02.693Z");
     }
-}
\ No newline at end of file
+
+    @Test
+    public void givenFailedAssetJob_whenCollected_thenStillComplete() throws ParseException {
+        // given
+        final AssetJobsDAO assetJobsDAO = mock(AssetJobsDAO.class);
+        final PhotoPreviewMessage failed = photo();
+        when(assetJobsDAO.isQueued(failed.getMessageId())).thenReturn(false);
+
+        final Collector collector = new Collector(new MissingAssets(assetJobsDAO));
+
+        // when
+        collector.add(failed);
+
+        // then
+        assert collector.isComplete();
+    }
+
+    @Test
+    public void givenPendingAssetJob_whenCollected_thenIncomplete() throws ParseException {
+        // given
+        final AssetJobsDAO assetJobsDAO = mock(AssetJobsDAO.class);
+        final PhotoPreviewMessage pending = photo();
+        when(assetJobsDAO.isQueued(pending.getMessageId())).thenReturn(true);
+
+        final Collector collector = new Collector(new MissingAssets(assetJobsDAO));
+
+        // when
+        collector.add(pending);
+
+        // then
+        assert !collector.isComplete();
+    }
+
+    private static PhotoPreviewMessage photo() {
+        final QualifiedId convId = new QualifiedId(UUID.randomUUID(), "wire.com");
+        final QualifiedId userId = new QualifiedId(UUID.randomUUID(), "wire.com");
+        return new PhotoPreviewMessage(UUID.randomUUID(), UUID.randomUUID(), convId, "client", userId,
+                "2019-07-04T10:36:02.693Z", "image/png", 0, "photo.png", 0, 0);
+    }
+
+    private static class MissingAssets extends Cache {
+        MissingAssets(AssetJobsDAO assetJobsDAO) {
+            super(null, null, assetJobsDAO, null);
+        }
+
+        @Override
+        public File getAssetFile(UUID messageId) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.wire.bots.hold.utils;
+
+import com.wire.bots.cryptobox.CryptoException;
+import com.wire.xenon.backend.models.QualifiedId;
+import com.wire.xenon.crypto.Crypto;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.UUID;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class CryptoCacheTest {
+
+    private CryptoDatabaseFactory cf;
+    private MutableClock clock;
+    private CryptoCache cache;
+
+    @Before
+    public void before() throws CryptoException {
+        cf = mock(CryptoDatabaseFactory.class);
+        when(cf.create(any(QualifiedId.class))).thenAnswer(invocation -> mock(Crypto.class));
+        clock = new MutableClock();
+        cache = new CryptoCache(cf, 2, Duration.ofMinutes(10), clock);
+    }
+
+    @Test
+    public void givenBurstForOneUser_whenAcquired_thenOpenCryptoOnce() throws CryptoException {
+        // given
+        final QualifiedId userId = userId();
+
+        // when
+        Crypto first;
+        try (CryptoCache.Lease lease = cache.acquire(userId)) {
+            first = lease.getCrypto();
+        }
+        Crypto second;
+        try (CryptoCache.Lease lease = cache.acquire(userId)) {
+            second = lease.getCrypto();
+        }
+
+        // then
+        assert first == second;
+        verify(cf, times(1)).create(userId);
+    }
+
+    @Test
+    public void givenFullCache_whenAcquired_thenCloseLeastRecentlyUsed() throws Exception {
+        // given
+        final QualifiedId a = userId();
+        final QualifiedId b = userId();
+        final QualifiedId c = userId();
+        final Crypto cryptoA = acquireAndRelease(a);
+        final Crypto cryptoB = acquireAndRelease(b);
+        acquireAndRelease(a);
+
+        // when
+        acquireAndRelease(c);
+
+        // then
+        verify(cryptoB).close();
+        verify(cryptoA, never()).close();
+        assert cache.size() == 2;
+    }
+
+    @Test
+    public void givenIdleCrypto_whenEvicted_thenClose() throws Exception {
+        // given
+        final Crypto idle = acquireAndRelease(userId());
+        clock.advance(Duration.ofMinutes(5));
+        final Crypto recent = acquireAndRelease(userId());
+
+        // when
+        clock.advance(Duration.ofMinutes(6));
+        cache.evictIdle();
+
+        // then
+        verify(idle).close();
+        verify(recent, never()).close();
+        assert cache.size() == 1;
+    }
+
+    @Test
+    public void givenCryptoInUse_whenIdle_thenKeepOpen() throws Exception {
+        // given
+        final CryptoCache.Lease lease = cache.acquire(userId());
+        clock.advance(Duration.ofMinutes(20));
+
+        // when
+        cache.evictIdle();
+
+        // then
+        verify(lease.getCrypto(), never()).close();
+        lease.close();
+    }
+
+    @Test
+    public void givenRemovedDevice_whenInvalidated_thenReopen() throws Exception {
+        // given
+        final QualifiedId userId = userId();
+        final Crypto before = acquireAndRelease(userId);
+
+        // when
+        cache.invalidate(userId);
+        final Crypto after = acquireAndRelease(userId);
+
+        // then
+        verify(before).close();
+        assert before != after;
+        verify(cf, times(2)).create(userId);
+    }
+
+    private Crypto acquireAndRelease(QualifiedId userId) throws CryptoException {
+        try (CryptoCache.Lease lease = cache.acquire(userId)) {
+            return lease.getCrypto();
+        }
+    }
+
+    private static QualifiedId userId() {
+        return new QualifiedId(UUID.randomUUID(), "wire.com");
+    }
+
+    private static class MutableClock extends Clock {
+        private Instant now = Instant.now();
+
+        void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
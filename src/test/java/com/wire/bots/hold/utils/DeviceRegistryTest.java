@@ -0,0 +1,93 @@
+package com.wire.bots.hold.utils;
+
+import com.wire.bots.hold.DAO.AccessDAO;
+import com.wire.bots.hold.model.database.LHAccess;
+import com.wire.xenon.backend.models.QualifiedId;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.UUID;
+
+import static org.mockito.Mockito.*;
+
+public class DeviceRegistryTest {
+
+    private AccessDAO accessDAO;
+    private DeviceRegistry registry;
+    private LHAccess device;
+
+    @Before
+    public void before() {
+        accessDAO = mock(AccessDAO.class);
+        registry = new DeviceRegistry(accessDAO);
+
+        device = new LHAccess();
+        device.userId = new QualifiedId(UUID.randomUUID(), "wire.com");
+        device.clientId = "client_1";
+        device.token = "token_1";
+        device.cookie = "cookie";
+        device.enabled = true;
+    }
+
+    @Test
+    public void givenLoadedRegistry_whenReadRepeatedly_thenDoNotQueryDatabase() {
+        // given
+        when(accessDAO.listEnabled()).thenReturn(Collections.singletonList(device));
+        registry.start();
+
+        // when
+        registry.get(device.userId);
+        final LHAccess read = registry.get(device.userId);
+
+        // then
+        assert read.token.equals("token_1");
+        verify(accessDAO, never()).get(any(), any());
+    }
+
+    @Test
+    public void givenDeviceConfirmedElsewhere_whenRead_thenLoadOnce() {
+        // given
+        when(accessDAO.listEnabled()).thenReturn(Collections.emptyList());
+        when(accessDAO.get(device.userId.id, device.userId.domain)).thenReturn(device);
+        registry.start();
+
+        // when
+        registry.get(device.userId);
+        registry.get(device.userId);
+
+        // then
+        verify(accessDAO, times(1)).get(device.userId.id, device.userId.domain);
+        assert registry.size() == 1;
+    }
+
+    @Test
+    public void givenRenewedToken_whenRead_thenNewSnapshot() {
+        // given
+        when(accessDAO.listEnabled()).thenReturn(Collections.singletonList(device));
+        registry.start();
+        final LHAccess before = registry.get(device.userId);
+
+        // when
+        registry.updateToken(device.userId, "token_2", "cookie");
+
+        // then
+        verify(accessDAO).update(device.userId.id, device.userId.domain, "token_2", "cookie");
+        assert registry.get(device.userId).token.equals("token_2");
+        assert before.token.equals("token_1");
+    }
+
+    @Test
+    public void givenDisabledDevice_whenRead_thenGone() {
+        // given
+        when(accessDAO.listEnabled()).thenReturn(Collections.singletonList(device));
+        registry.start();
+
+        // when
+        registry.disable(device.userId);
+
+        // then
+        verify(accessDAO).disable(device.userId.id, device.userId.domain);
+        assert registry.get(device.userId) == null;
+    }
+}
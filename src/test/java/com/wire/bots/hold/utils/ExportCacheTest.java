@@ -0,0 +1,93 @@
+package com.wire.bots.hold.utils;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.UUID;
+
+public class ExportCacheTest {
+
+    private Path dir;
+    private ExportCache cache;
+
+    @Before
+    public void before() throws Exception {
+        dir = Files.createTempDirectory("exports");
+        cache = new ExportCache(dir, 100, new MetricRegistry());
+    }
+
+    @Test
+    public void givenCachedExport_whenSameVersion_thenServeIt() throws Exception {
+        // given
+        final UUID conversationId = UUID.randomUUID();
+        cache.put(conversationId, "10-1000", rendered(40));
+
+        // when
+        try (InputStream in = cache.open(conversationId, "10-1000")) {
+            // then
+            assert in != null;
+            assert in.readAllBytes().length == 40;
+        }
+        assert cache.open(conversationId, "11-2000") == null;
+    }
+
+    @Test
+    public void givenFullCache_whenPut_thenDropLeastRecentlyServed() throws Exception {
+        // given
+        final UUID first = UUID.randomUUID();
+        final UUID second = UUID.randomUUID();
+        final UUID third = UUID.randomUUID();
+        cache.put(first, "1-1", rendered(40));
+        cache.put(second, "1-1", rendered(40));
+        cache.open(first, "1-1").close();
+
+        // when
+        cache.put(third, "1-1", rendered(40));
+
+        // then
+        assert cache.open(second, "1-1") == null;
+        assert cache.open(first, "1-1") != null;
+        assert cache.bytes() == 80;
+    }
+
+    @Test
+    public void givenNewEvent_whenInvalidated_thenFileGone() throws Exception {
+        // given
+        final UUID conversationId = UUID.randomUUID();
+        cache.put(conversationId, "1-1", rendered(40));
+
+        // when
+        cache.invalidate(conversationId);
+
+        // then
+        assert cache.open(conversationId, "1-1") == null;
+        assert cache.bytes() == 0;
+        assert !Files.exists(dir.resolve(conversationId + ".1-1.pdf"));
+    }
+
+    @Test
+    public void givenRestart_whenLoaded_thenServeExistingExports() throws Exception {
+        // given
+        final UUID conversationId = UUID.randomUUID();
+        cache.put(conversationId, "1-1", rendered(40));
+
+        // when
+        final ExportCache reloaded = new ExportCache(dir, 100, new MetricRegistry());
+
+        // then
+        assert reloaded.size() == 1;
+        assert reloaded.bytes() == 40;
+        assert reloaded.open(conversationId, "1-1") != null;
+    }
+
+    private File rendered(int size) throws Exception {
+        final File file = cache.newFile();
+        Files.write(file.toPath(), new byte[size]);
+        return file;
+    }
+}
@@ -0,0 +1,87 @@
+package com.wire.bots.hold.utils;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.stream.Stream;
+
+public class FileAssetStorageTest {
+
+    private Path root;
+    private FileAssetStorage storage;
+
+    @Before
+    public void before() throws Exception {
+        root = Files.createTempDirectory("blobs");
+        storage = new FileAssetStorage(root);
+    }
+
+    @Test
+    public void givenSameContentTwice_whenPut_thenOneShardedCopy() throws Exception {
+        // given
+        final byte[] data = "asset".getBytes();
+
+        // when
+        final String first = storage.put(new ByteArrayInputStream(data));
+        final String second = storage.put(new ByteArrayInputStream(data));
+
+        // then
+        assert first.equals(second);
+        assert first.equals("d59386e0ae435e292fbe0ebcdb954b75ed5fb3922091277cb19f798fc5d50718");
+        assert Files.exists(root.resolve("d5").resolve("93").resolve(first));
+        try (InputStream in = storage.open(first)) {
+            assert Arrays.equals(data, in.readAllBytes());
+        }
+        try (Stream<Path> files = Files.list(root.resolve("tmp"))) {
+            assert files.count() == 0;
+        }
+    }
+
+    @Test
+    public void givenStoredContent_whenFile_thenPathOfTheContent() throws Exception {
+        // given
+        final byte[] data = "image".getBytes();
+        final String key = storage.put(new ByteArrayInputStream(data));
+
+        // when
+        final Path file = storage.file(key);
+
+        // then
+        assert file.isAbsolute();
+        assert Arrays.equals(data, Files.readAllBytes(file));
+        storage.delete(key);
+        try {
+            storage.file(key);
+            assert false;
+        } catch (NoSuchFileException ignored) {
+        }
+    }
+
+    @Test
+    public void givenStoredContent_whenDeleted_thenGone() throws Exception {
+        // given
+        final String key = storage.put(new ByteArrayInputStream("export".getBytes()));
+
+        // when
+        storage.delete(key);
+        storage.delete(key);
+
+        // then
+        try {
+            storage.open(key).close();
+            assert false;
+        } catch (NoSuchFileException ignored) {
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void givenPathInKey_whenOpen_thenReject() throws Exception {
+        storage.open("../../etc/passwd");
+    }
+}
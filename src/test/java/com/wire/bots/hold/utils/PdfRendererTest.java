@@ -0,0 +1,53 @@
+package com.wire.bots.hold.utils;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class PdfRendererTest {
+
+    @Test
+    public void givenAllSlotsTakenAndNoQueue_whenAcquire_thenReject() throws Exception {
+        // given
+        final MetricRegistry metrics = new MetricRegistry();
+        final PdfRenderer renderer = new PdfRenderer(1, 0, 10_000, metrics);
+        final PdfRenderer.Slot slot = renderer.acquire();
+
+        // when
+        try {
+            renderer.acquire();
+            assert false;
+        } catch (RejectedExecutionException ignored) {
+        }
+
+        // then
+        slot.close();
+        renderer.acquire().close();
+        assert metrics.meter(MetricRegistry.name(PdfRenderer.class, "rejected")).getCount() == 1;
+    }
+
+    @Test
+    public void givenQueuedRender_whenSlotFreed_thenItRuns() throws Exception {
+        // given
+        final PdfRenderer renderer = new PdfRenderer(1, 1, 10_000, new MetricRegistry());
+        final PdfRenderer.Slot slot = renderer.acquire();
+        final CompletableFuture<PdfRenderer.Slot> queued = CompletableFuture.supplyAsync(() -> {
+            try {
+                return renderer.acquire();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+
+        // when
+        Thread.sleep(100);
+        assert !queued.isDone();
+        slot.close();
+
+        // then
+        queued.get(5, TimeUnit.SECONDS).close();
+    }
+}
@@ -0,0 +1,71 @@
+package com.wire.bots.hold.utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+public class SeenEventsTest {
+
+    @Test
+    public void givenStoredEvent_whenCopyArrives_thenSeen() {
+        // given
+        final SeenEvents seen = new SeenEvents(1024);
+        final UUID eventId = UUID.randomUUID();
+
+        // when
+        seen.add(eventId);
+
+        // then
+        assert seen.contains(eventId);
+        assert seen.contains(new UUID(eventId.getMostSignificantBits(), eventId.getLeastSignificantBits()));
+        assert !seen.contains(UUID.randomUUID());
+        assert !seen.contains(new UUID(0, 0));
+    }
+
+    @Test
+    public void givenFullTable_whenAdding_thenNeverReportUnknownIds() {
+        // given
+        final SeenEvents seen = new SeenEvents(16);
+        final List<UUID> added = new ArrayList<>();
+
+        // when
+        for (int i = 0; i < 1000; i++) {
+            final UUID eventId = UUID.randomUUID();
+            seen.add(eventId);
+            added.add(eventId);
+        }
+
+        // then: older ids may be forgotten, but the latest is kept and strangers are never seen
+        assert seen.contains(added.get(added.size() - 1));
+        for (int i = 0; i < 1000; i++) {
+            assert !seen.contains(UUID.randomUUID());
+        }
+    }
+
+    @Test
+    public void givenConcurrentWriters_whenReading_thenNeverReportUnknownIds() throws Exception {
+        // given
+        final SeenEvents seen = new SeenEvents(16);
+        final List<Thread> writers = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            writers.add(new Thread(() -> {
+                for (int i = 0; i < 100_000; i++) {
+                    seen.add(UUID.randomUUID());
+                }
+            }));
+        }
+
+        // when
+        for (Thread writer : writers)
+            writer.start();
+
+        // then
+        for (int i = 0; i < 100_000; i++) {
+            assert !seen.contains(UUID.randomUUID());
+        }
+        for (Thread writer : writers)
+            writer.join();
+    }
+}
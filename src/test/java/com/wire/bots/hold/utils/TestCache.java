@@ -8,7 +8,7 @@ import java.util.UUID;
 
 public class TestCache extends Cache {
     public TestCache() {
-        super(null, null);
+        super(null, null, null, null);
     }
 
     @Override
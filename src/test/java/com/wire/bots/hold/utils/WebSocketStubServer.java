@@ -0,0 +1,119 @@
+package com.wire.bots.hold.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Minimal websocket server for tests: accepts one connection, pushes the given frames as binary messages and keeps
+ * the connection open until the client goes away.
+ */
+public class WebSocketStubServer implements Closeable {
+    private static final String GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+
+    private final ServerSocket server;
+    private final List<String> frames;
+    private volatile String requestLine;
+    private volatile String authorization;
+
+    public WebSocketStubServer(List<String> frames) throws IOException {
+        this.server = new ServerSocket(0);
+        this.frames = frames;
+
+        Thread thread = new Thread(this::serve, "websocket-stub");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public String getUrl() {
+        return "ws://localhost:" + server.getLocalPort() + "/await";
+    }
+
+    public String getRequestLine() {
+        return requestLine;
+    }
+
+    public String getAuthorization() {
+        return authorization;
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+    }
+
+    private void serve() {
+        try (Socket socket = server.accept()) {
+            final InputStream in = socket.getInputStream();
+            final OutputStream out = socket.getOutputStream();
+
+            String key = null;
+            final String[] lines = readHeaders(in).split("\r\n");
+            requestLine = lines[0];
+            for (String line : lines) {
+                final int colon = line.indexOf(':');
+                if (colon < 0)
+                    continue;
+                final String name = line.substring(0, colon).trim();
+                final String value = line.substring(colon + 1).trim();
+                if (name.equalsIgnoreCase("Sec-WebSocket-Key"))
+                    key = value;
+                if (name.equalsIgnoreCase("Authorization"))
+                    authorization = value;
+            }
+
+            final byte[] sha1 = MessageDigest.getInstance("SHA-1").digest((key + GUID).getBytes(StandardCharsets.US_ASCII));
+            final String response = "HTTP/1.1 101 Switching Protocols\r\n" +
+                    "Upgrade: websocket\r\n" +
+                    "Connection: Upgrade\r\n" +
+                    "Sec-WebSocket-Accept: " + Base64.getEncoder().encodeToString(sha1) + "\r\n\r\n";
+            out.write(response.getBytes(StandardCharsets.US_ASCII));
+
+            for (String frame : frames) {
+                writeBinary(out, frame.getBytes(StandardCharsets.UTF_8));
+            }
+            out.flush();
+
+            // Wait for the client to close
+            while (in.read() != -1) {
+            }
+        } catch (Exception ignored) {
+        }
+    }
+
+    private static String readHeaders(InputStream in) throws IOException {
+        final ByteArrayOutputStream headers = new ByteArrayOutputStream();
+        int matched = 0;
+        int b;
+        while (matched < 4 && (b = in.read()) != -1) {
+            headers.write(b);
+            matched = (b == '\r' || b == '\n') ? matched + 1 : 0;
+        }
+        return headers.toString(StandardCharsets.US_ASCII);
+    }
+
+    private static void writeBinary(OutputStream out, byte[] payload) throws IOException {
+        out.write(0x82); // FIN + binary
+        if (payload.length < 126) {
+            out.write(payload.length);
+        } else if (payload.length < 65536) {
+            out.write(126);
+            out.write(payload.length >>> 8);
+            out.write(payload.length & 0xFF);
+        } else {
+            out.write(127);
+            for (int i = 7; i >= 0; i--) {
+                out.write((int) (((long) payload.length >>> (8 * i)) & 0xFF));
+            }
+        }
+        out.write(payload);
+    }
+}